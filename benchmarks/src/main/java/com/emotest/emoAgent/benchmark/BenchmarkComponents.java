@@ -0,0 +1,104 @@
+package com.emotest.emoAgent.benchmark;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageColumns;
+import com.emotest.emoAgent.service.analyzeChatMsg.AnalysisMetrics;
+import com.emotest.emoAgent.service.analyzeChatMsg.AnalysisPromptBuilder;
+import com.emotest.emoAgent.service.analyzeChatMsg.ChatMessageFormatter;
+import com.emotest.emoAgent.service.analyzeChatMsg.ChatMessageStreamReader;
+import com.emotest.emoAgent.service.analyzeChatMsg.ChatSnapshotStore;
+import com.emotest.emoAgent.service.analyzeChatMsg.CjkTokenEstimator;
+import com.emotest.emoAgent.service.analyzeChatMsg.SqliteConnectionPool;
+import com.emotest.emoAgent.service.analyzeChatMsg.TokenBatchBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试用的组件装配
+ *
+ * 不启动Spring容器，按 application.yml 的默认值手工创建被测组件，
+ * 只有 @Value 注入的字段通过反射赋值。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+final class BenchmarkComponents {
+
+    static final String MODEL = "Moonshot-Kimi-K2-Instruct";
+
+    final AnalysisMetrics metrics = new AnalysisMetrics(new SimpleMeterRegistry());
+
+    final SqliteConnectionPool connectionPool = new SqliteConnectionPool();
+
+    final ChatMessageStreamReader reader;
+
+    final ChatMessageFormatter formatter = new ChatMessageFormatter();
+
+    final BatchProperties batchProperties = new BatchProperties();
+
+    final AnalysisPromptBuilder promptBuilder = new AnalysisPromptBuilder(batchProperties, formatter);
+
+    final TokenBatchBuilder tokenBatchBuilder;
+
+    final ChatSnapshotStore snapshotStore;
+
+    BenchmarkComponents() {
+        setField(connectionPool, "maxIdlePerDb", 4);
+        setField(connectionPool, "mmapSize", 268435456L);
+        setField(connectionPool, "cacheSizeKib", 65536);
+
+        reader = new ChatMessageStreamReader(connectionPool, metrics, 4);
+        setField(reader, "pageSize", 2000);
+
+        tokenBatchBuilder = new TokenBatchBuilder(new CjkTokenEstimator(), batchProperties, formatter, metrics);
+        setField(tokenBatchBuilder, "defaultModel", MODEL);
+
+        snapshotStore = new ChatSnapshotStore(reader, metrics);
+        setField(snapshotStore, "snapshotDir", System.getProperty("bench.fixture.dir", "target/fixtures") + "/snapshots");
+        setField(snapshotStore, "enabled", true);
+        setField(snapshotStore, "autoExport", false);
+    }
+
+    /**
+     * 读取基准好友的全部消息
+     */
+    List<Message> loadMessages(String dataPath) {
+        List<Message> messages = new ArrayList<>();
+        try (Stream<Message> stream = reader.stream(dataPath, List.of(ChatFixtureGenerator.FRIEND_USER_NAME), null, null)) {
+            stream.forEach(messages::add);
+        }
+        return messages;
+    }
+
+    /**
+     * 读取基准好友的全部消息到列式存储，与分析时加载聊天记录的方式相同
+     */
+    MessageColumns loadColumns(String dataPath) {
+        MessageColumns columns = new MessageColumns();
+        try (Stream<Message> stream = reader.stream(dataPath, List.of(ChatFixtureGenerator.FRIEND_USER_NAME), null, null)) {
+            stream.forEach(columns::add);
+        }
+        columns.trimToSize();
+        return columns;
+    }
+
+    void close() {
+        reader.shutdown();
+        connectionPool.closeAll();
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        if (field == null) {
+            throw new IllegalStateException(target.getClass().getSimpleName() + " 没有字段 " + name);
+        }
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+}
@@ -0,0 +1,86 @@
+package com.emotest.emoAgent.benchmark;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.model.BatchRange;
+import com.emotest.emoAgent.model.MessageColumns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分批与提示词构建基准
+ *
+ * 消息预先读入列式存储。buildBatches 测按token预算分批（含格式化和token估算），
+ * buildPrompts 测按已分好的批次把聊天内容写入每批的提示词。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ChatBatchBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int messages;
+
+    @Param({"4"})
+    public int shards;
+
+    @Param({"OVERLAP", "CARRY"})
+    public BatchProperties.Mode mode;
+
+    private BenchmarkComponents components;
+
+    private MessageColumns columns;
+
+    private int[] textRows;
+
+    private List<BatchRange> batches;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        components = new BenchmarkComponents();
+        components.batchProperties.setMode(mode);
+        columns = components.loadColumns(ChatFixtureGenerator.ensure(messages, shards).toString());
+        textRows = columns.textRows();
+        batches = components.tokenBatchBuilder.build(columns, textRows, BenchmarkComponents.MODEL);
+        components.close();
+    }
+
+    @Benchmark
+    public List<BatchRange> buildBatches(MessageCounter counter) {
+        counter.messages += textRows.length;
+        return components.tokenBatchBuilder.build(columns, textRows, BenchmarkComponents.MODEL);
+    }
+
+    @Benchmark
+    public void buildPrompts(MessageCounter counter, Blackhole blackhole) {
+        int total = batches.size();
+        for (int i = 0; i < total; i++) {
+            BatchRange range = batches.get(i);
+            MessageColumns.Slice batch = columns.slice(textRows, range.getStart(), range.getEnd());
+            String prompt = mode == BatchProperties.Mode.CARRY
+                    ? components.promptBuilder.carryBatchPrompt(batch, i + 1, total, null)
+                    : components.promptBuilder.batchPrompt(batch, i + 1, total);
+            blackhole.consume(prompt);
+            counter.messages += batch.size();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.emotest.emoAgent.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * 合成微信聊天数据库
+ *
+ * 按微信 Msg 目录的结构生成 MicroMsg.db（Contact表）和 Multi/MSG0.db..MSGn.db 分片，
+ * 消息按时间先后依次写入各分片（MSG0最旧），与真实数据一致。
+ * 约七成消息属于基准好友，其余分散在其他联系人，类型以文字为主，夹杂图片、语音、表情和系统消息。
+ * 随机种子固定，同样的参数生成的数据完全相同；生成完成后写入标记文件，再次调用直接复用。
+ *
+ * 也可以单独运行，生成供主程序调试用的数据：
+ * java -cp benchmarks.jar com.emotest.emoAgent.benchmark.ChatFixtureGenerator 目录 消息数 [分片数]
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+public final class ChatFixtureGenerator {
+
+    /**
+     * 基准好友的昵称，与 {@link #FRIEND_USER_NAME} 对应
+     */
+    public static final String FRIEND_NICK_NAME = "基准好友";
+
+    public static final String FRIEND_USER_NAME = "wxid_bench_friend";
+
+    private static final String[] OTHER_USER_NAMES = {
+            "wxid_colleague", "wxid_family", "wxid_classmate", "12345678@chatroom", "gh_official"
+    };
+
+    private static final String[] PHRASES = {
+            "在吗", "今天下班好早", "晚上一起吃饭吗？", "好的", "哈哈哈哈哈", "我刚到家",
+            "明天的会议改到下午三点了，记得带上周的报表", "你看到我发的链接了吗", "嗯嗯",
+            "周末要不要去爬山，天气预报说是晴天", "刚才在开会没看到消息，怎么了？", "晚安",
+            "这家店的火锅真的很好吃，下次带你去", "收到", "路上堵车了，可能要晚十分钟",
+            "最近工作压力有点大，感觉每天都睡不够", "生日快乐！🎂", "OK", "[捂脸]",
+            "我们好久没见了，下个月回来的时候一定要聚一聚，把大家都叫上"
+    };
+
+    private static final int BATCH_SIZE = 5000;
+
+    private static final long START_TIME = 1_600_000_000L;
+
+    private static final String DONE_MARKER = ".complete";
+
+    private ChatFixtureGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("用法: ChatFixtureGenerator <目录> <消息数> [分片数]");
+            System.exit(1);
+        }
+        int shards = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        Path dir = generate(Paths.get(args[0]), Integer.parseInt(args[1]), shards);
+        System.out.println("已生成: " + dir.toAbsolutePath());
+    }
+
+    /**
+     * 获取指定规模的测试数据目录，不存在时生成
+     *
+     * 目录位于系统属性 bench.fixture.dir（默认 target/fixtures）下，按规模区分。
+     *
+     * @param messages 消息总数
+     * @param shards 分片数
+     * @return 微信数据路径（包含 MicroMsg.db 和 Multi 目录）
+     */
+    public static Path ensure(int messages, int shards) throws IOException, SQLException {
+        Path root = Paths.get(System.getProperty("bench.fixture.dir", "target/fixtures"));
+        return generate(root.resolve("msg-" + messages + "-" + shards), messages, shards);
+    }
+
+    /**
+     * 在指定目录生成测试数据，已完整生成过时直接返回
+     */
+    public static synchronized Path generate(Path dir, int messages, int shards) throws IOException, SQLException {
+        Path marker = dir.resolve(DONE_MARKER);
+        if (Files.exists(marker)) {
+            return dir;
+        }
+        Path multi = dir.resolve("Multi");
+        Files.createDirectories(multi);
+        deleteDatabases(dir.toFile());
+        deleteDatabases(multi.toFile());
+
+        writeContacts(dir.resolve("MicroMsg.db"));
+
+        Random random = new Random(42);
+        long time = START_TIME;
+        long svrId = 7_000_000_000_000_000_000L;
+        int written = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            int count = (int) ((long) messages * (shard + 1) / shards) - written;
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + multi.resolve("MSG" + shard + ".db"))) {
+                createMsgTable(conn);
+                conn.setAutoCommit(false);
+                try (PreparedStatement insert = conn.prepareStatement(
+                        "INSERT INTO MSG (TalkerId, MsgSvrID, Type, SubType, IsSender, CreateTime, Sequence, " +
+                        "StatusEx, FlagEx, Status, StrTalker, StrContent, DisplayContent, CompressContent, BytesExtra) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, 0, 0, 2, ?, ?, '', NULL, ?)")) {
+                    for (int i = 0; i < count; i++) {
+                        // 聊天集中在一段时间内，偶尔间隔数小时
+                        time += random.nextInt(10) < 8 ? 1 + random.nextInt(90) : 600 + random.nextInt(20_000);
+                        svrId += 1 + random.nextInt(1000);
+                        boolean friend = random.nextInt(10) < 7;
+                        int type = messageType(random);
+
+                        insert.setInt(1, friend ? 1 : 2 + random.nextInt(OTHER_USER_NAMES.length));
+                        insert.setLong(2, svrId);
+                        insert.setInt(3, type);
+                        insert.setInt(4, 0);
+                        insert.setInt(5, random.nextBoolean() ? 1 : 0);
+                        insert.setLong(6, time);
+                        insert.setLong(7, time * 1000);
+                        insert.setString(8, friend ? FRIEND_USER_NAME : OTHER_USER_NAMES[random.nextInt(OTHER_USER_NAMES.length)]);
+                        insert.setString(9, content(type, random));
+                        insert.setBytes(10, new byte[16 + random.nextInt(48)]);
+                        insert.addBatch();
+                        if ((i + 1) % BATCH_SIZE == 0) {
+                            insert.executeBatch();
+                        }
+                    }
+                    insert.executeBatch();
+                }
+                conn.commit();
+            }
+            written += count;
+        }
+
+        Files.writeString(marker, String.valueOf(messages));
+        return dir;
+    }
+
+    private static void writeContacts(Path microMsg) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + microMsg);
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE Contact (UserName TEXT PRIMARY KEY, Alias TEXT, EncryptUserName TEXT, " +
+                    "DelFlag INTEGER DEFAULT 0, Type INTEGER DEFAULT 0, VerifyFlag INTEGER DEFAULT 0, " +
+                    "ReMark TEXT, NickName TEXT, LabelIDList TEXT, DomainList TEXT, ChatRoomType INT, " +
+                    "PYInitial TEXT, QuanPin TEXT, RemarkPYInitial TEXT, RemarkQuanPin TEXT)");
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO Contact (UserName, Alias, ReMark, NickName, PYInitial, QuanPin) VALUES (?, ?, ?, ?, ?, ?)")) {
+                insert.setString(1, FRIEND_USER_NAME);
+                insert.setString(2, "bench_friend");
+                insert.setString(3, "");
+                insert.setString(4, FRIEND_NICK_NAME);
+                insert.setString(5, "JZHY");
+                insert.setString(6, "jizhunhaoyou");
+                insert.addBatch();
+                for (int i = 0; i < OTHER_USER_NAMES.length; i++) {
+                    insert.setString(1, OTHER_USER_NAMES[i]);
+                    insert.setString(2, "");
+                    insert.setString(3, "");
+                    insert.setString(4, "联系人" + i);
+                    insert.setString(5, "LXR" + i);
+                    insert.setString(6, "lianxiren" + i);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            conn.commit();
+        }
+    }
+
+    private static void createMsgTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("PRAGMA journal_mode = OFF");
+            stmt.executeUpdate("PRAGMA synchronous = OFF");
+            stmt.executeUpdate("CREATE TABLE MSG (localId INTEGER PRIMARY KEY AUTOINCREMENT, TalkerId INT DEFAULT 0, " +
+                    "MsgSvrID INT, Type INT, SubType INT, IsSender INT, CreateTime INT, Sequence INT DEFAULT 0, " +
+                    "StatusEx INT DEFAULT 0, FlagEx INT, Status INT, MsgServerSeq INT, MsgSequence INT, " +
+                    "StrTalker TEXT, StrContent TEXT, DisplayContent TEXT, Reserved0 INT DEFAULT 0, " +
+                    "Reserved1 INT DEFAULT 0, Reserved2 INT DEFAULT 0, Reserved3 INT DEFAULT 0, " +
+                    "Reserved4 TEXT, Reserved5 TEXT, Reserved6 TEXT, CompressContent BLOB, BytesExtra BLOB, BytesTrans BLOB)");
+            stmt.executeUpdate("CREATE INDEX MSG_CREATETIME ON MSG (CreateTime)");
+            stmt.executeUpdate("CREATE INDEX MSG_TALKER_CREATETIME ON MSG (StrTalker, CreateTime)");
+        }
+    }
+
+    /**
+     * 文字消息约85%，其余为图片(3)、语音(34)、表情(47)和系统消息(10000)
+     */
+    private static int messageType(Random random) {
+        int r = random.nextInt(100);
+        if (r < 85) {
+            return 1;
+        } else if (r < 90) {
+            return 3;
+        } else if (r < 94) {
+            return 34;
+        } else if (r < 98) {
+            return 47;
+        }
+        return 10000;
+    }
+
+    private static String content(int type, Random random) {
+        switch (type) {
+            case 1: {
+                // 一到三个短句拼成一条，长度接近真实聊天的分布
+                StringBuilder text = new StringBuilder(PHRASES[random.nextInt(PHRASES.length)]);
+                int extra = random.nextInt(10) < 7 ? 0 : 1 + random.nextInt(2);
+                for (int i = 0; i < extra; i++) {
+                    text.append('，').append(PHRASES[random.nextInt(PHRASES.length)]);
+                }
+                return text.toString();
+            }
+            case 3:
+                return "<msg><img aeskey=\"" + Long.toHexString(random.nextLong()) + "\" length=\"" + random.nextInt(500_000) + "\"/></msg>";
+            case 34:
+                return "<msg><voicemsg voicelength=\"" + random.nextInt(60_000) + "\"/></msg>";
+            case 47:
+                return "<msg><emoji md5=\"" + Long.toHexString(random.nextLong()) + "\"/></msg>";
+            default:
+                return "\"对方\" 撤回了一条消息";
+        }
+    }
+
+    private static void deleteDatabases(File dir) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".db"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Files.delete(file.toPath());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.emotest.emoAgent.benchmark;
+
+import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageColumns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息格式化基准
+ *
+ * 消息预先读入内存，只测把原始消息转换成 "[时间] 我/对方: 内容" 文本的开销。
+ * format 为每条消息对象生成一个字符串；formatBatch 从列式存储中按批次把文字消息写入预先分配好的缓冲区，
+ * 与生成批次提示词时的方式相同。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ChatFormatBenchmark {
+
+    // 与默认token预算下一批的消息数量级相当
+    private static final int BATCH_SIZE = 400;
+
+    @Param({"10000", "100000", "1000000"})
+    public int messages;
+
+    @Param({"4"})
+    public int shards;
+
+    private BenchmarkComponents components;
+
+    private List<Message> loaded;
+
+    private MessageColumns columns;
+
+    private int[] textRows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        components = new BenchmarkComponents();
+        String dataPath = ChatFixtureGenerator.ensure(messages, shards).toString();
+        loaded = components.loadMessages(dataPath);
+        columns = components.loadColumns(dataPath);
+        textRows = columns.textRows();
+        components.close();
+    }
+
+    @Benchmark
+    public void format(MessageCounter counter, Blackhole blackhole) {
+        for (Message message : loaded) {
+            blackhole.consume(components.formatter.format(message));
+        }
+        counter.messages += loaded.size();
+    }
+
+    @Benchmark
+    public void formatBatch(MessageCounter counter, Blackhole blackhole) {
+        for (int start = 0; start < textRows.length; start += BATCH_SIZE) {
+            MessageColumns.Slice batch = columns.slice(textRows, start, Math.min(textRows.length, start + BATCH_SIZE));
+            StringBuilder out = new StringBuilder(components.formatter.batchLength(batch));
+            components.formatter.appendBatch(out, batch);
+            blackhole.consume(out);
+        }
+        counter.messages += textRows.length;
+    }
+}
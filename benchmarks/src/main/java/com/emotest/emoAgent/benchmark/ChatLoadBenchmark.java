@@ -0,0 +1,123 @@
+package com.emotest.emoAgent.benchmark;
+
+import com.emotest.emoAgent.model.ChatHistory;
+import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageColumns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 聊天记录加载基准
+ *
+ * streamMessages 只测从各分片分页读取并按时间归并；
+ * streamAndFormat 在此基础上边读边把每条消息格式化成字符串；
+ * streamIntoColumns 边读边写入列式存储，对应分析时加载聊天记录的完整过程；
+ * snapshotIntoColumns 从已导出的快照映射读取，对应导出快照后再次分析时的加载过程；
+ * snapshotRange 按时间二分查找后只读取中间十分之一时间段的消息。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ChatLoadBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int messages;
+
+    @Param({"4"})
+    public int shards;
+
+    private BenchmarkComponents components;
+
+    private String dataPath;
+
+    private List<String> userNames;
+
+    private long rangeFrom;
+
+    private long rangeTo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataPath = ChatFixtureGenerator.ensure(messages, shards).toString();
+        userNames = List.of(ChatFixtureGenerator.FRIEND_USER_NAME);
+        components = new BenchmarkComponents();
+        components.snapshotStore.export(dataPath, userNames);
+        ChatHistory first = components.snapshotStore.load(dataPath, userNames, null, null);
+        long firstTime = first.getMessages().createTime(0);
+        long lastTime = first.getMessages().createTime(first.getMessages().size() - 1);
+        rangeFrom = firstTime + (lastTime - firstTime) * 45 / 100;
+        rangeTo = firstTime + (lastTime - firstTime) * 55 / 100;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        components.close();
+    }
+
+    @Benchmark
+    public void streamMessages(MessageCounter counter, Blackhole blackhole) {
+        try (Stream<Message> stream = components.reader.stream(dataPath, userNames, null, null)) {
+            stream.forEach(message -> {
+                blackhole.consume(message);
+                counter.messages++;
+            });
+        }
+    }
+
+    @Benchmark
+    public void streamAndFormat(MessageCounter counter, Blackhole blackhole) {
+        try (Stream<Message> stream = components.reader.stream(dataPath, userNames, null, null)) {
+            stream.forEach(message -> {
+                blackhole.consume(components.formatter.format(message));
+                counter.messages++;
+            });
+        }
+    }
+
+    @Benchmark
+    public MessageColumns streamIntoColumns(MessageCounter counter) {
+        MessageColumns columns = new MessageColumns();
+        try (Stream<Message> stream = components.reader.stream(dataPath, userNames, null, null)) {
+            stream.forEach(columns::add);
+        }
+        columns.trimToSize();
+        counter.messages += columns.size();
+        return columns;
+    }
+
+    @Benchmark
+    public MessageColumns snapshotIntoColumns(MessageCounter counter) {
+        MessageColumns columns = components.snapshotStore.load(dataPath, userNames, null, null).getMessages();
+        counter.messages += columns.size();
+        return columns;
+    }
+
+    @Benchmark
+    public MessageColumns snapshotRange(MessageCounter counter) {
+        MessageColumns columns = components.snapshotStore.readRange(dataPath, userNames, rangeFrom, rangeTo);
+        counter.messages += columns.size();
+        return columns;
+    }
+}
@@ -0,0 +1,25 @@
+package com.emotest.emoAgent.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 按消息条数统计的辅助计数器，结果中以 messages 一列给出每秒处理的消息数
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class MessageCounter {
+
+    public long messages;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        messages = 0;
+    }
+}
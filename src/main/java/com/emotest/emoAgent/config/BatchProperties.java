@@ -0,0 +1,75 @@
+package com.emotest.emoAgent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 分批配置（按token计）
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "llm.batch")
+public class BatchProperties {
+
+    /**
+     * 批次间保持上下文连续的方式
+     */
+    public enum Mode {
+        /** 相邻批次重叠一部分原始消息，各批次并发分析 */
+        OVERLAP,
+        /** 批次不重叠，每批携带上一批的简要摘要，依次接力分析 */
+        CARRY
+    }
+
+    /**
+     * 批次模式
+     */
+    private Mode mode = Mode.OVERLAP;
+
+    /**
+     * 每批聊天记录的默认token预算
+     */
+    private int tokenBudget = 6000;
+
+    /**
+     * 相邻批次重叠部分的token数（OVERLAP模式）
+     */
+    private int overlapTokens = 1500;
+
+    /**
+     * 传给下一批的上下文摘要的token上限，同时从每批预算中预留（CARRY模式）
+     */
+    private int carryTokens = 300;
+
+    /**
+     * 合并后的批次结果超过该token数时进行逐层归并，同时也是每次归并调用的输入上限
+     */
+    private int mergeTokenBudget = 24000;
+
+    /**
+     * 逐层归并时每组最多合并的摘要数
+     */
+    private int mergeFanIn = 4;
+
+    /**
+     * 按模型覆盖每批token预算，键为模型名称
+     */
+    private Map<String, Integer> modelTokenBudgets = new HashMap<>();
+
+    /**
+     * 获取指定模型的每批token预算
+     * 
+     * @param model 模型名称
+     * @return token预算
+     */
+    public int tokenBudgetFor(String model) {
+        return model != null ? modelTokenBudgets.getOrDefault(model, tokenBudget) : tokenBudget;
+    }
+}
@@ -0,0 +1,101 @@
+package com.emotest.emoAgent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 调用LLM的HTTP客户端配置：连接池、超时、协议和压缩
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "llm.http")
+public class HttpClientProperties {
+
+    private Pool pool = new Pool();
+
+    /**
+     * 建立TCP连接的超时
+     */
+    private Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * 发出请求到收到响应头的超时。非流式调用要等模型生成完才返回响应头，
+     * 需不小于 llm.resilience.timeout.max，单次调用的超时由 llm.resilience 控制
+     */
+    private Duration responseTimeout = Duration.ofSeconds(310);
+
+    /**
+     * 收到响应头后相邻两次读取的最大间隔
+     */
+    private Duration readTimeout = Duration.ofSeconds(60);
+
+    /**
+     * 写出请求体的超时
+     */
+    private Duration writeTimeout = Duration.ofSeconds(30);
+
+    /**
+     * 通过TLS ALPN协商HTTP/2，服务端不支持时使用HTTP/1.1；明文http地址始终使用HTTP/1.1
+     */
+    private boolean http2 = true;
+
+    /**
+     * 请求gzip压缩的响应并自动解压
+     */
+    private boolean compress = true;
+
+    /**
+     * 非流式响应在内存中聚合的上限，长报告超出默认的256KB时会抛出DataBufferLimitException
+     */
+    private DataSize maxInMemorySize = DataSize.ofMegabytes(16);
+
+    /**
+     * 连接池，长连接复用以避免每次调用重新进行TLS握手
+     */
+    @Data
+    public static class Pool {
+
+        /**
+         * 最大连接数，0表示按 llm.dispatch.max-concurrency 的2倍计算
+         * （给对冲请求被取消的一方和正在关闭的连接留出余量）
+         */
+        private int maxConnections = 0;
+
+        /**
+         * 等待空闲连接的请求数上限，0表示最大连接数的2倍
+         */
+        private int pendingAcquireMaxCount = 0;
+
+        /**
+         * 等待空闲连接的超时
+         */
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(45);
+
+        /**
+         * 连接空闲超过该时间后关闭，需小于服务端的keep-alive超时
+         */
+        private Duration maxIdleTime = Duration.ofSeconds(50);
+
+        /**
+         * 连接的最长存活时间，到期后不再复用，便于服务端扩缩容后重新均衡
+         */
+        private Duration maxLifeTime = Duration.ofMinutes(10);
+
+        /**
+         * 后台清理过期连接的间隔
+         */
+        private Duration evictInterval = Duration.ofSeconds(30);
+
+        /**
+         * 导出连接池指标 reactor.netty.connection.provider.*
+         */
+        private boolean metrics = true;
+    }
+}
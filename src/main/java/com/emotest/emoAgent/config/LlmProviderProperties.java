@@ -0,0 +1,121 @@
+package com.emotest.emoAgent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LLM提供方和模型路由配置
+ *
+ * dashscope.* 配置的DashScope始终可用，没有被其他提供方声明的模型都发往DashScope。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "llm.provider")
+public class LlmProviderProperties {
+
+    /**
+     * 提供方类型
+     */
+    public enum Type {
+        /** 阿里云DashScope文本生成接口 */
+        DASHSCOPE,
+        /** OpenAI兼容的 /chat/completions 接口 */
+        OPENAI,
+        /** 本地模拟，不发起网络请求，用于测试 */
+        MOCK
+    }
+
+    /**
+     * 额外的提供方，键为提供方名称
+     */
+    private Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+
+    private Routing routing = new Routing();
+
+    /**
+     * 单个提供方
+     */
+    @Data
+    public static class Endpoint {
+
+        private Type type = Type.OPENAI;
+
+        /**
+         * 完整的请求地址，如 https://api.openai.com/v1/chat/completions
+         */
+        private String url;
+
+        /**
+         * 该提供方的API Key，为空时使用请求中的API Key
+         */
+        private String apiKey;
+
+        /**
+         * 由该提供方处理的模型
+         */
+        private List<String> models = new ArrayList<>();
+
+        /**
+         * 模拟提供方每次调用的耗时
+         */
+        private Duration mockLatency = Duration.ofMillis(200);
+
+        /**
+         * 模拟提供方返回503的比例（0~1）
+         */
+        private double mockFailureRate = 0;
+    }
+
+    /**
+     * 按任务选择模型：批次分析和归并用便宜快速的模型，最终报告用能力更强的模型
+     */
+    @Data
+    public static class Routing {
+
+        /**
+         * 关闭时所有调用都使用请求中的模型
+         */
+        private boolean enabled = false;
+
+        /**
+         * 批次分析和归并的候选模型，为空时使用请求中的模型
+         */
+        private List<String> batchModels = new ArrayList<>();
+
+        /**
+         * 最终报告的候选模型，为空时使用请求中的模型
+         */
+        private List<String> reportModels = new ArrayList<>();
+
+        /**
+         * 期望的单次调用耗时，中位耗时超过该值的模型按超出比例降低优先级
+         */
+        private Duration latencyTarget = Duration.ofSeconds(20);
+
+        /**
+         * 各模型的相对单价（每千token），未配置的模型按1计
+         */
+        private Map<String, Double> modelCosts = new HashMap<>();
+
+        /**
+         * 获取模型的相对单价
+         *
+         * @param model 模型名称
+         * @return 相对单价
+         */
+        public double costOf(String model) {
+            return modelCosts.getOrDefault(model, 1.0);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.emotest.emoAgent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * LLM调用容错配置：自适应超时、熔断、重试和对冲请求
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "llm.resilience")
+public class ResilienceProperties {
+
+    private Timeout timeout = new Timeout();
+
+    private Circuit circuit = new Circuit();
+
+    private Retry retry = new Retry();
+
+    private Hedge hedge = new Hedge();
+
+    /**
+     * 单次调用超时，按该模型最近调用耗时的分位数计算
+     */
+    @Data
+    public static class Timeout {
+
+        /**
+         * 样本不足时使用的超时
+         */
+        private Duration initial = Duration.ofSeconds(120);
+
+        /**
+         * 超时下限
+         */
+        private Duration min = Duration.ofSeconds(20);
+
+        /**
+         * 超时上限
+         */
+        private Duration max = Duration.ofSeconds(300);
+
+        /**
+         * 超时 = 该分位数的耗时 × multiplier
+         */
+        private double percentile = 0.99;
+
+        private double multiplier = 3.0;
+
+        /**
+         * 每个模型保留的最近成功调用耗时样本数
+         */
+        private int window = 200;
+
+        /**
+         * 样本数达到该值后才按分位数计算
+         */
+        private int minSamples = 20;
+
+        /**
+         * 流式调用中相邻两个事件的最大间隔（首个事件按分位数计算）
+         */
+        private Duration streamIdle = Duration.ofSeconds(60);
+    }
+
+    /**
+     * 按模型熔断
+     */
+    @Data
+    public static class Circuit {
+
+        private boolean enabled = true;
+
+        /**
+         * 统计失败率的最近调用数
+         */
+        private int windowSize = 20;
+
+        /**
+         * 窗口内调用数达到该值后才判断是否熔断
+         */
+        private int minCalls = 10;
+
+        /**
+         * 失败率（百分比）达到该值时熔断
+         */
+        private int failureRateThreshold = 50;
+
+        /**
+         * 熔断持续时间，之后放行少量探测请求
+         */
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        /**
+         * 半开状态下同时放行的探测请求数
+         */
+        private int halfOpenCalls = 1;
+    }
+
+    /**
+     * 批次级重试，只重试超时、5xx和连接错误
+     */
+    @Data
+    public static class Retry {
+
+        /**
+         * 最大尝试次数（含第一次）
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * 指数退避的基准间隔
+         */
+        private Duration backoff = Duration.ofSeconds(2);
+
+        private Duration maxBackoff = Duration.ofSeconds(30);
+
+        /**
+         * 退避抖动系数（0~1）
+         */
+        private double jitter = 0.5;
+    }
+
+    /**
+     * 对冲请求：调用耗时超过该模型的分位数且调度器空闲时，再发一个相同请求，取先返回的结果
+     */
+    @Data
+    public static class Hedge {
+
+        private boolean enabled = false;
+
+        private double percentile = 0.9;
+
+        /**
+         * 对冲延迟下限
+         */
+        private Duration minDelay = Duration.ofSeconds(5);
+    }
+}
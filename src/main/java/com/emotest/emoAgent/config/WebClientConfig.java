@@ -1,23 +1,81 @@
 package com.emotest.emoAgent.config;
 
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * WebClient配置类
- * 
+ *
+ * 所有LLM提供方共用一个连接池，请求地址由各提供方给出完整URL。
+ *
  * @author emoAgent
  * @version 1.0.0
  */
 @Configuration
+@Log4j2
 public class WebClientConfig {
 
+    // 连接池名称，也是指标中的name标签
+    private static final String POOL_NAME = "llm";
+
+    @Value("${llm.dispatch.max-concurrency:4}")
+    private int dispatchConcurrency;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider llmConnectionProvider(HttpClientProperties properties) {
+        HttpClientProperties.Pool pool = properties.getPool();
+        int maxConnections = pool.getMaxConnections() > 0 ? pool.getMaxConnections() : dispatchConcurrency * 2;
+        int pendingAcquireMaxCount = pool.getPendingAcquireMaxCount() > 0
+                ? pool.getPendingAcquireMaxCount() : maxConnections * 2;
+        log.info("LLM连接池: 最大连接数 {}，等待队列上限 {}", maxConnections, pendingAcquireMaxCount);
+        return ConnectionProvider.builder(POOL_NAME)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+                .maxIdleTime(pool.getMaxIdleTime())
+                .maxLifeTime(pool.getMaxLifeTime())
+                .evictInBackground(pool.getEvictInterval())
+                .lifo()
+                .metrics(pool.isMetrics())
+                .build();
+    }
+
     @Bean
-    public WebClient webClient() {
+    public WebClient webClient(ConnectionProvider llmConnectionProvider, HttpClientProperties properties) {
+        HttpClient httpClient = HttpClient.create(llmConnectionProvider)
+                .protocol(properties.isHttp2()
+                        ? new HttpProtocol[]{HttpProtocol.H2, HttpProtocol.HTTP11}
+                        : new HttpProtocol[]{HttpProtocol.HTTP11})
+                .compress(properties.isCompress())
+                .keepAlive(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+                .responseTimeout(properties.getResponseTimeout())
+                .doOnRequest((request, connection) -> connection.addHandlerLast(
+                        new WriteTimeoutHandler(properties.getWriteTimeout().toMillis(), TimeUnit.MILLISECONDS)))
+                // 响应头到达后才开始计算读超时，否则非流式调用等待生成时会被误判
+                .doOnResponse((response, connection) -> connection.addHandlerLast(
+                        new ReadTimeoutHandler(properties.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS)));
+        if (properties.isHttp2()) {
+            // HTTP/2需要TLS，ALPN协商失败时回落到HTTP/1.1
+            httpClient = httpClient.secure();
+        }
+
         return WebClient.builder()
-                .baseUrl("https://dashscope.aliyuncs.com")
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs()
+                        .maxInMemorySize((int) properties.getMaxInMemorySize().toBytes()))
                 .build();
     }
-} 
\ No newline at end of file
+}
@@ -1,9 +1,36 @@
 package com.emotest.emoAgent.controller;
 
+import com.emotest.emoAgent.model.AnalysisJob;
+import com.emotest.emoAgent.model.AnalysisProgress;
+import com.emotest.emoAgent.model.BulkAnalysisResult;
+import com.emotest.emoAgent.model.Contact;
+import com.emotest.emoAgent.model.DispatchStats;
+import com.emotest.emoAgent.model.MessageFilter;
+import com.emotest.emoAgent.model.ModelHealth;
+import com.emotest.emoAgent.model.SnapshotInfo;
+import com.emotest.emoAgent.service.analyzeChatMsg.AnalysisJobService;
+import com.emotest.emoAgent.service.analyzeChatMsg.AnalysisProgressListener;
 import com.emotest.emoAgent.service.analyzeChatMsg.AnalyzeService;
+import com.emotest.emoAgent.service.analyzeChatMsg.BulkAnalysisService;
+import com.emotest.emoAgent.service.analyzeChatMsg.ChatSnapshotStore;
+import com.emotest.emoAgent.service.analyzeChatMsg.LlmDispatchScheduler;
+import com.emotest.emoAgent.service.analyzeChatMsg.LlmRouter;
+import com.emotest.emoAgent.service.analyzeChatMsg.LoadChatMsgUtil;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 微信聊天记录分析控制器
@@ -19,22 +46,331 @@ public class AnalyzeController {
     @Autowired
     private AnalyzeService analyzeService;
 
+    @Autowired
+    private LlmDispatchScheduler dispatchScheduler;
+
+    @Autowired
+    private LoadChatMsgUtil loadChatMsgUtil;
+
+    @Autowired
+    private AnalysisJobService analysisJobService;
+
+    @Autowired
+    private ChatSnapshotStore chatSnapshotStore;
+
+    @Autowired
+    private BulkAnalysisService bulkAnalysisService;
+
+    @Autowired
+    private LlmRouter llmRouter;
+
     /**
      * 分析微信聊天记录并生成报告
      * 
      * @param dataPath 微信数据路径
-     * @param friendName 好友姓名
+     * @param friendName 好友的完整昵称、备注、微信号或用户名，匹配到多个联系人时返回400
      * @param apiKey 阿里云DashScope API Key
      * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息，默认全量分析（首次增量分析时也会全量）
+     * @param startDate 起始日期（包含），为空时不限制
+     * @param endDate 结束日期（包含），为空时不限制
+     * @param sender 发送者：self 只看自己发的，friend 只看对方发的，为空时不限制
      * @return 分析结果
      */
     @GetMapping("/chat")
     public String analyzeChat(@RequestParam String dataPath, 
                              @RequestParam String friendName,
                              @RequestParam String apiKey,
-                             @RequestParam(defaultValue = "Moonshot-Kimi-K2-Instruct") String model) {
-        log.info("开始分析微信聊天记录，路径: {}, 好友: {}, 模型: {}", dataPath, friendName, model);
-        return analyzeService.analyzeChatAndGenerateReport(dataPath, friendName, apiKey, model);
+                             @RequestParam(defaultValue = "Moonshot-Kimi-K2-Instruct") String model,
+                             @RequestParam(defaultValue = "false") boolean incremental,
+                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                             @RequestParam(required = false) String sender) {
+        MessageFilter filter = toFilter(startDate, endDate, sender);
+        requireSingleContact(dataPath, friendName);
+        log.info("开始分析微信聊天记录，路径: {}, 好友: {}, 模型: {}, 增量: {}, 筛选: {}", dataPath, friendName, model, incremental,
+                filter.conditionKey());
+        return analyzeService.analyzeChatAndGenerateReport(dataPath, friendName, apiKey, model, incremental, filter);
+    }
+
+    /**
+     * 分析微信聊天记录并生成报告（非阻塞）
+     * 
+     * 与 /chat 参数一致，但立即释放请求线程，分析在响应式链路上完成后再写回响应。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友的完整昵称、备注、微信号或用户名，匹配到多个联系人时返回400
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息，默认全量分析（首次增量分析时也会全量）
+     * @param startDate 起始日期（包含），为空时不限制
+     * @param endDate 结束日期（包含），为空时不限制
+     * @param sender 发送者：self 只看自己发的，friend 只看对方发的，为空时不限制
+     * @return 分析结果
+     */
+    @GetMapping("/chat/reactive")
+    public Mono<String> analyzeChatReactive(@RequestParam String dataPath,
+                                            @RequestParam String friendName,
+                                            @RequestParam String apiKey,
+                                            @RequestParam(defaultValue = "Moonshot-Kimi-K2-Instruct") String model,
+                                            @RequestParam(defaultValue = "false") boolean incremental,
+                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                            @RequestParam(required = false) String sender) {
+        MessageFilter filter = toFilter(startDate, endDate, sender);
+        requireSingleContact(dataPath, friendName);
+        log.info("开始分析微信聊天记录（响应式），路径: {}, 好友: {}, 模型: {}, 增量: {}, 筛选: {}", dataPath, friendName, model,
+                incremental, filter.conditionKey());
+        return analyzeService.analyzeChatAndGenerateReportReactive(dataPath, friendName, apiKey, model, incremental, filter,
+                AnalysisProgressListener.NONE);
+    }
+
+    /**
+     * 流式分析微信聊天记录（SSE）
+     * 
+     * 分析过程中推送阶段和批次进度，最终报告逐段推送（report事件），无需等待整份报告生成完毕。
+     * 事件名为进度类型（stage、batch、report、completed、failed），客户端断开时取消分析。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友的完整昵称、备注、微信号或用户名，匹配到多个联系人时返回400
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息，默认全量分析（首次增量分析时也会全量）
+     * @param startDate 起始日期（包含），为空时不限制
+     * @param endDate 结束日期（包含），为空时不限制
+     * @param sender 发送者：self 只看自己发的，friend 只看对方发的，为空时不限制
+     * @return 进度事件流
+     */
+    @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AnalysisProgress>> analyzeChatStream(@RequestParam String dataPath,
+                                                                     @RequestParam String friendName,
+                                                                     @RequestParam String apiKey,
+                                                                     @RequestParam(defaultValue = "Moonshot-Kimi-K2-Instruct") String model,
+                                                                     @RequestParam(defaultValue = "false") boolean incremental,
+                                                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                                                     @RequestParam(required = false) String sender) {
+        MessageFilter filter = toFilter(startDate, endDate, sender);
+        requireSingleContact(dataPath, friendName);
+        log.info("开始流式分析微信聊天记录，路径: {}, 好友: {}, 模型: {}, 增量: {}, 筛选: {}", dataPath, friendName, model,
+                incremental, filter.conditionKey());
+        return toServerSentEvents(analyzeService.streamChatAnalysis(dataPath, friendName, apiKey, model, incremental, filter));
+    }
+
+    /**
+     * 提交异步分析任务
+     * 
+     * 立即返回任务ID，之后通过 /jobs/{id} 查询状态，或订阅 /jobs/{id}/events 获取实时进度。
+     * 运行和排队的任务都已满时返回429。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友的完整昵称、备注、微信号或用户名，匹配到多个联系人时返回400
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息，默认全量分析（首次增量分析时也会全量）
+     * @param startDate 起始日期（包含），为空时不限制
+     * @param endDate 结束日期（包含），为空时不限制
+     * @param sender 发送者：self 只看自己发的，friend 只看对方发的，为空时不限制
+     * @return 任务状态
+     */
+    @PostMapping("/jobs")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public AnalysisJob submitJob(@RequestParam String dataPath,
+                                 @RequestParam String friendName,
+                                 @RequestParam String apiKey,
+                                 @RequestParam(defaultValue = "Moonshot-Kimi-K2-Instruct") String model,
+                                 @RequestParam(defaultValue = "false") boolean incremental,
+                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                 @RequestParam(required = false) String sender) {
+        MessageFilter filter = toFilter(startDate, endDate, sender);
+        requireSingleContact(dataPath, friendName);
+        log.info("提交分析任务，路径: {}, 好友: {}, 模型: {}, 增量: {}, 筛选: {}", dataPath, friendName, model, incremental,
+                filter.conditionKey());
+        try {
+            return analysisJobService.submit(dataPath, friendName, apiKey, model, incremental, filter);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "分析任务已满，请稍后再试");
+        }
+    }
+
+    /**
+     * 批量分析多个联系人
+     * 
+     * 按姓名列表（friendNames=张三,李四）或按活跃度（topN=20，只选单聊联系人）指定联系人，
+     * 所有联系人共用数据库连接和LLM调度队列，全部完成后返回每个联系人的报告。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendNames 好友的完整昵称、备注、微信号或用户名列表，任一姓名匹配到多个联系人时返回400
+     * @param topN 选取消息数最多的前N个联系人
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息，默认全量分析（首次增量分析时也会全量）
+     * @param startDate 起始日期（包含），为空时不限制
+     * @param endDate 结束日期（包含），为空时不限制
+     * @param sender 发送者：self 只看自己发的，friend 只看对方发的，为空时不限制
+     * @return 各联系人的分析结果
+     */
+    @PostMapping("/bulk")
+    public Mono<BulkAnalysisResult> analyzeBulk(@RequestParam String dataPath,
+                                                @RequestParam(required = false) List<String> friendNames,
+                                                @RequestParam(required = false) Integer topN,
+                                                @RequestParam String apiKey,
+                                                @RequestParam(defaultValue = "Moonshot-Kimi-K2-Instruct") String model,
+                                                @RequestParam(defaultValue = "false") boolean incremental,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                                                @RequestParam(required = false) String sender) {
+        MessageFilter filter = toFilter(startDate, endDate, sender);
+        log.info("开始批量分析，路径: {}, 好友: {}, topN: {}, 模型: {}, 增量: {}, 筛选: {}", dataPath, friendNames, topN, model,
+                incremental, filter.conditionKey());
+        try {
+            return bulkAnalysisService.analyze(dataPath, friendNames, topN, apiKey, model, incremental, filter);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * 查询分析任务状态
+     * 
+     * @param id 任务ID
+     * @return 任务状态
+     */
+    @GetMapping("/jobs/{id}")
+    public AnalysisJob getJob(@PathVariable String id) {
+        AnalysisJob job = analysisJobService.get(id);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在: " + id);
+        }
+        return job;
+    }
+
+    /**
+     * 订阅分析任务进度（SSE）
+     * 
+     * 事件名为进度类型（stage、batch、report、completed、failed、cancelled），任务结束后连接关闭。
+     * 
+     * @param id 任务ID
+     * @return 进度事件流
+     */
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AnalysisProgress>> jobEvents(@PathVariable String id) {
+        Flux<AnalysisProgress> events = analysisJobService.events(id);
+        if (events == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在: " + id);
+        }
+        return toServerSentEvents(events);
+    }
+
+    /**
+     * 取消分析任务
+     * 
+     * @param id 任务ID
+     * @return 任务状态
+     */
+    @DeleteMapping("/jobs/{id}")
+    public AnalysisJob cancelJob(@PathVariable String id) {
+        AnalysisJob job = analysisJobService.cancel(id);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在: " + id);
+        }
+        return job;
+    }
+
+    /**
+     * 联系人自动补全
+     * 
+     * 在内存联系人索引中查找，可以在每次输入时调用。
+     * 
+     * @param dataPath 微信数据路径
+     * @param keyword 已输入的部分昵称、备注、微信号或拼音
+     * @param limit 最多返回的条数
+     * @return 匹配的联系人
+     */
+    @GetMapping("/contacts/suggest")
+    public List<Contact> suggestContacts(@RequestParam String dataPath,
+                                         @RequestParam String keyword,
+                                         @RequestParam(defaultValue = "10") int limit) {
+        return loadChatMsgUtil.suggestContacts(dataPath, keyword, Math.min(limit, 50));
+    }
+
+    /**
+     * 导出或更新好友的聊天记录快照
+     * 
+     * 快照只保存文字消息，导出后该好友的分析直接读取快照；再次调用时只追加数据库中的新消息。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友的完整昵称、备注、微信号或用户名，匹配到多个联系人时返回400
+     * @return 快照信息
+     */
+    @PostMapping("/snapshots")
+    public SnapshotInfo exportSnapshot(@RequestParam String dataPath,
+                                       @RequestParam String friendName) {
+        List<Contact> contacts = requireSingleContact(dataPath, friendName);
+        if (contacts.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "未找到联系人: " + friendName);
+        }
+        log.info("导出聊天记录快照，路径: {}, 好友: {}", dataPath, friendName);
+        return chatSnapshotStore.export(dataPath, contacts.stream().map(Contact::getUserName).toList());
+    }
+
+    /**
+     * 各模型的提供方、单价、中位耗时、失败率、熔断状态和路由得分
+     */
+    @GetMapping("/models")
+    public List<ModelHealth> models() {
+        return llmRouter.models();
+    }
+
+    /**
+     * LLM调度器统计信息（并发、排队深度、排队等待时间）
+     */
+    @GetMapping("/dispatch/stats")
+    public DispatchStats dispatchStats() {
+        return dispatchScheduler.getStats();
+    }
+
+    /**
+     * 按完整姓名查找联系人，匹配到多个联系人时返回400并列出候选
+     */
+    private List<Contact> requireSingleContact(String dataPath, String friendName) {
+        try {
+            return loadChatMsgUtil.findContacts(dataPath, friendName);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * 把请求参数转换成筛选条件，日期按服务器时区换算成时间戳
+     * 
+     * 只有文字消息会被分析，消息类型不由请求指定，读取时固定只查询文字消息。
+     */
+    private MessageFilter toFilter(LocalDate startDate, LocalDate endDate, String sender) {
+        if (startDate != null && endDate != null && endDate.isBefore(startDate)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "结束日期早于起始日期");
+        }
+        Integer isSender = null;
+        if (sender != null && !sender.isBlank()) {
+            switch (sender.trim().toLowerCase()) {
+                case "self" -> isSender = 1;
+                case "friend" -> isSender = 0;
+                default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sender 只能是 self 或 friend");
+            }
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        return new MessageFilter(
+                startDate != null ? startDate.atStartOfDay(zone).toEpochSecond() : null,
+                endDate != null ? endDate.plusDays(1).atStartOfDay(zone).toEpochSecond() : null,
+                null,
+                isSender);
+    }
+
+    private Flux<ServerSentEvent<AnalysisProgress>> toServerSentEvents(Flux<AnalysisProgress> events) {
+        return events.map(progress -> ServerSentEvent.builder(progress)
+                .event(progress.getType().name().toLowerCase())
+                .build());
     }
 
     /**
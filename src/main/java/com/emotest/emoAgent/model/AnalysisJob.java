@@ -0,0 +1,94 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 异步分析任务状态
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AnalysisJob {
+
+    /**
+     * 任务状态
+     */
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    /**
+     * 任务ID
+     */
+    private String id;
+
+    /**
+     * 好友姓名
+     */
+    private String friendName;
+
+    /**
+     * 模型名称
+     */
+    private String model;
+
+    /**
+     * 是否增量分析
+     */
+    private Boolean incremental;
+
+    /**
+     * 任务状态
+     */
+    private Status status;
+
+    /**
+     * 当前阶段
+     */
+    private String stage;
+
+    /**
+     * 批次总数
+     */
+    private Integer totalBatches;
+
+    /**
+     * 分析成功的批次数
+     */
+    private Integer completedBatches;
+
+    /**
+     * 分析失败的批次数
+     */
+    private Integer failedBatches;
+
+    /**
+     * 提交时间（毫秒）
+     */
+    private Long createdAt;
+
+    /**
+     * 开始执行时间（毫秒）
+     */
+    private Long startedAt;
+
+    /**
+     * 结束时间（毫秒）
+     */
+    private Long finishedAt;
+
+    /**
+     * 分析报告，完成后才有值
+     */
+    private String result;
+
+    /**
+     * 失败原因
+     */
+    private String error;
+}
@@ -0,0 +1,92 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 分析进度事件
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AnalysisProgress {
+
+    /**
+     * 事件类型
+     */
+    public enum Type {
+        /** 进入新的分析阶段 */
+        STAGE,
+        /** 某个批次分析完成 */
+        BATCH,
+        /** 最终报告的一段增量内容 */
+        REPORT,
+        /** 分析完成 */
+        COMPLETED,
+        /** 分析失败 */
+        FAILED,
+        /** 任务被取消 */
+        CANCELLED
+    }
+
+    /**
+     * 事件类型
+     */
+    private Type type;
+
+    /**
+     * 阶段说明
+     */
+    private String stage;
+
+    /**
+     * 已结束的批次序号（从1开始），非批次事件为空
+     */
+    private Integer batchIndex;
+
+    /**
+     * 批次总数，分批前为空
+     */
+    private Integer totalBatches;
+
+    /**
+     * 批次是否失败（失败时content为错误信息），非批次事件为空
+     */
+    private Boolean batchFailed;
+
+    /**
+     * 批次分析结果、最终报告或错误信息
+     */
+    private String content;
+
+    /**
+     * 事件时间（毫秒）
+     */
+    private Long timestamp;
+
+    public static AnalysisProgress stage(String stage, Integer totalBatches) {
+        return new AnalysisProgress(Type.STAGE, stage, null, totalBatches, null, null, System.currentTimeMillis());
+    }
+
+    public static AnalysisProgress batch(int batchIndex, int totalBatches, String content) {
+        return new AnalysisProgress(Type.BATCH, "批次分析", batchIndex, totalBatches, false, content,
+                System.currentTimeMillis());
+    }
+
+    public static AnalysisProgress batchFailed(int batchIndex, int totalBatches, String error) {
+        return new AnalysisProgress(Type.BATCH, "批次分析", batchIndex, totalBatches, true, error,
+                System.currentTimeMillis());
+    }
+
+    public static AnalysisProgress report(String chunk) {
+        return new AnalysisProgress(Type.REPORT, "生成最终报告", null, null, null, chunk, System.currentTimeMillis());
+    }
+
+    public static AnalysisProgress of(Type type, String stage, String content) {
+        return new AnalysisProgress(type, stage, null, null, null, content, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,65 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 联系人分析状态（用于增量分析）
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AnalysisState {
+    
+    /**
+     * 微信数据路径
+     */
+    private String dataPath;
+    
+    /**
+     * 好友姓名
+     */
+    private String friendName;
+    
+    /**
+     * 筛选条件（MessageFilter.conditionKey()），不同条件的分析状态分开保存，无条件时为空
+     */
+    private String filter;
+
+    /**
+     * 请求中的模型，不同模型的分析状态分开保存
+     */
+    private String model;
+    
+    /**
+     * 已处理的最后一条消息的创建时间（时间戳）
+     */
+    private Long lastCreateTime;
+    
+    /**
+     * 已处理的最后一条消息的服务器ID
+     */
+    private Long lastMsgSvrId;
+    
+    /**
+     * 已分析部分的摘要，按时间顺序排列；保存时压缩为归并后的一段，不随分析次数增长
+     */
+    private List<String> batchSummaries = new ArrayList<>();
+    
+    /**
+     * 上一次生成的报告
+     */
+    private String lastReport;
+    
+    /**
+     * 更新时间（毫秒时间戳）
+     */
+    private Long updatedAt;
+}
@@ -0,0 +1,77 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批次检查点，记录一个批次的分析结果或最终失败原因
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchCheckpoint {
+
+    /**
+     * 批次状态
+     */
+    public enum Status {
+        SUCCEEDED,
+        FAILED
+    }
+
+    /**
+     * 批次序号（从1开始）
+     */
+    private Integer batchIndex;
+
+    /**
+     * 批次第一条消息的创建时间（时间戳）
+     */
+    private Long firstCreateTime;
+
+    /**
+     * 批次第一条消息的服务器ID
+     */
+    private Long firstMsgSvrId;
+
+    /**
+     * 批次最后一条消息的创建时间（时间戳）
+     */
+    private Long lastCreateTime;
+
+    /**
+     * 批次最后一条消息的服务器ID
+     */
+    private Long lastMsgSvrId;
+
+    /**
+     * 批次消息数
+     */
+    private Integer messages;
+
+    /**
+     * 提示词的SHA-256，提示词变化（如接力模式的前情摘要不同）时检查点失效
+     */
+    private String promptHash;
+
+    private Status status;
+
+    /**
+     * 分析结果（成功时）
+     */
+    private String result;
+
+    /**
+     * 失败原因（失败时）
+     */
+    private String error;
+
+    /**
+     * 更新时间（毫秒时间戳）
+     */
+    private Long updatedAt;
+}
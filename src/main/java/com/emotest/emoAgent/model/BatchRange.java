@@ -0,0 +1,39 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批次范围
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchRange {
+    
+    /**
+     * 起始下标（包含）
+     */
+    private int start;
+    
+    /**
+     * 结束下标（不包含）
+     */
+    private int end;
+    
+    /**
+     * 批次估算token数
+     */
+    private int tokens;
+    
+    /**
+     * 批次包含的消息数
+     */
+    public int size() {
+        return end - start;
+    }
+}
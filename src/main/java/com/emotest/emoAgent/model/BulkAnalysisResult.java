@@ -0,0 +1,40 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量分析结果
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkAnalysisResult {
+
+    /**
+     * 各联系人的分析结果，顺序与请求中的姓名或活跃度排名一致
+     */
+    private List<ContactReport> reports = new ArrayList<>();
+
+    /**
+     * 成功的联系人数
+     */
+    private Integer succeeded;
+
+    /**
+     * 失败或未找到的联系人数
+     */
+    private Integer failed;
+
+    /**
+     * 总耗时（毫秒）
+     */
+    private Long elapsedMs;
+}
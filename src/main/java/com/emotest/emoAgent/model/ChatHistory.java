@@ -0,0 +1,42 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一次分析加载的聊天记录
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatHistory {
+    
+    /**
+     * 读取到的全部消息，按时间正序列式存储
+     */
+    private MessageColumns messages = new MessageColumns();
+    
+    /**
+     * 文字消息在 messages 中的行号
+     */
+    private int[] textRows = new int[0];
+    
+    /**
+     * 读取到的满足筛选条件的消息总数
+     */
+    private int totalMessages;
+    
+    /**
+     * 最后一条消息的创建时间（时间戳）
+     */
+    private Long lastCreateTime;
+    
+    /**
+     * 最后一秒内消息的最大服务器ID
+     */
+    private Long lastMsgSvrId;
+}
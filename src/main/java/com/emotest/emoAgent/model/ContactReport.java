@@ -0,0 +1,61 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 批量分析中单个联系人的分析结果
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ContactReport {
+
+    /**
+     * 结果状态
+     */
+    public enum Status {
+        SUCCEEDED, FAILED, NOT_FOUND
+    }
+
+    /**
+     * 好友名称（按姓名指定时为传入的姓名，按活跃度选取时为备注或昵称）
+     */
+    private String friendName;
+
+    /**
+     * 分析的联系人用户名
+     */
+    private List<String> userNames;
+
+    /**
+     * 满足筛选条件的消息数（按活跃度选取时提供）
+     */
+    private Long messageCount;
+
+    /**
+     * 结果状态
+     */
+    private Status status;
+
+    /**
+     * 分析报告
+     */
+    private String report;
+
+    /**
+     * 失败原因
+     */
+    private String error;
+
+    /**
+     * 该联系人的分析耗时（毫秒）
+     */
+    private Long elapsedMs;
+}
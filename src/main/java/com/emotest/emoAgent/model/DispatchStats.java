@@ -0,0 +1,57 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * LLM调度统计信息
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DispatchStats {
+    
+    /**
+     * 全局并发上限
+     */
+    private Integer maxConcurrency;
+    
+    /**
+     * 当前在途请求数
+     */
+    private Integer inFlight;
+    
+    /**
+     * 排队中的任务数
+     */
+    private Integer queueDepth;
+    
+    /**
+     * 有排队任务的API Key数量
+     */
+    private Integer activeQueues;
+    
+    /**
+     * 累计提交任务数
+     */
+    private Long submitted;
+    
+    /**
+     * 累计完成任务数
+     */
+    private Long completed;
+    
+    /**
+     * 平均排队等待时间（毫秒）
+     */
+    private Long avgWaitMs;
+    
+    /**
+     * 最大排队等待时间（毫秒）
+     */
+    private Long maxWaitMs;
+}
@@ -0,0 +1,42 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一次LLM响应（或流式响应中的一个事件）中需要的字段
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LlmCompletion {
+
+    /**
+     * 第一个选择的内容，流式事件中为本次新增的内容
+     */
+    private String content;
+
+    /**
+     * 结束原因，未结束时为空或"null"
+     */
+    private String finishReason;
+
+    /**
+     * 输入token数，响应中没有用量时为空
+     */
+    private Long inputTokens;
+
+    /**
+     * 输出token数
+     */
+    private Long outputTokens;
+
+    /**
+     * 服务端请求ID，便于排查问题
+     */
+    private String requestId;
+}
@@ -0,0 +1,300 @@
+package com.emotest.emoAgent.model;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 按列存储的聊天记录
+ *
+ * 每个字段一个基本类型数组，所有消息内容依次存放在同一个char数组中，按偏移量访问。
+ * 与 List&lt;Message&gt; 相比省去了每条消息的对象头、装箱字段和独立的String，
+ * 筛选和分批都基于行号进行。
+ * 内容在写入时去掉首尾空白（与 String.trim() 相同），内容为空即表示空白消息。
+ * 写入只能由一个线程完成，写完后可以被多个线程同时读取。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+public final class MessageColumns {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int TEXT_TYPE = 1;
+
+    private int size;
+
+    private long[] createTime;
+
+    private long[] msgSvrId;
+
+    /**
+     * 消息类型，系统消息为10000等，超出byte范围，因此用short
+     */
+    private short[] type;
+
+    private byte[] isSender;
+
+    /**
+     * 第i条消息的内容位于 arena[contentOffset[i], contentOffset[i + 1])
+     */
+    private int[] contentOffset;
+
+    private char[] arena;
+
+    private int arenaSize;
+
+    private CharsetDecoder decoder;
+
+    public MessageColumns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedMessages 预计的消息条数
+     */
+    public MessageColumns(int expectedMessages) {
+        int capacity = Math.max(16, expectedMessages);
+        createTime = new long[capacity];
+        msgSvrId = new long[capacity];
+        type = new short[capacity];
+        isSender = new byte[capacity];
+        contentOffset = new int[capacity + 1];
+        arena = new char[capacity * 16];
+    }
+
+    /**
+     * 追加一条消息
+     *
+     * @param msg 原始消息
+     */
+    public void add(Message msg) {
+        String content = msg.getStrContent() != null ? msg.getStrContent() : "";
+        int start = 0;
+        int end = content.length();
+        while (start < end && content.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && content.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        ensureRowCapacity(size + 1);
+        ensureArenaCapacity(arenaSize + end - start);
+
+        createTime[size] = msg.getCreateTime() != null ? msg.getCreateTime() : 0L;
+        msgSvrId[size] = msg.getMsgSvrId() != null ? msg.getMsgSvrId() : 0L;
+        type[size] = msg.getType() != null ? msg.getType().shortValue() : 0;
+        isSender[size] = (byte) (msg.getIsSender() != null && msg.getIsSender() == 1 ? 1 : 0);
+        content.getChars(start, end, arena, arenaSize);
+        arenaSize += end - start;
+        size++;
+        contentOffset[size] = arenaSize;
+    }
+
+    /**
+     * 追加一条内容为UTF-8字节的消息，内容直接解码到共享数组中，不生成中间字符串
+     *
+     * 内容应已去掉首尾空白（快照导出时已处理）。
+     *
+     * @param createTime 创建时间（秒）
+     * @param msgSvrId 服务器消息ID
+     * @param type 消息类型
+     * @param sender 是否为自己发送
+     * @param utf8Content UTF-8编码的内容，读取后position移到limit
+     */
+    public void addUtf8(long createTime, long msgSvrId, int type, boolean sender, ByteBuffer utf8Content) {
+        ensureRowCapacity(size + 1);
+        // UTF-8解码后的char数不会超过字节数
+        ensureArenaCapacity(arenaSize + utf8Content.remaining());
+
+        CharBuffer out = CharBuffer.wrap(arena, arenaSize, arena.length - arenaSize);
+        if (decoder == null) {
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        decoder.reset();
+        decoder.decode(utf8Content, out, true);
+        decoder.flush(out);
+
+        this.createTime[size] = createTime;
+        this.msgSvrId[size] = msgSvrId;
+        this.type[size] = (short) type;
+        this.isSender[size] = (byte) (sender ? 1 : 0);
+        arenaSize = out.position();
+        size++;
+        contentOffset[size] = arenaSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long createTime(int row) {
+        return createTime[checkRow(row)];
+    }
+
+    public long msgSvrId(int row) {
+        return msgSvrId[checkRow(row)];
+    }
+
+    public int type(int row) {
+        return type[checkRow(row)];
+    }
+
+    public boolean isSender(int row) {
+        return isSender[checkRow(row)] == 1;
+    }
+
+    public int contentLength(int row) {
+        checkRow(row);
+        return contentOffset[row + 1] - contentOffset[row];
+    }
+
+    /**
+     * 把第row条消息的内容追加到out末尾，不生成中间字符串
+     */
+    public void appendContent(StringBuilder out, int row) {
+        checkRow(row);
+        out.append(arena, contentOffset[row], contentOffset[row + 1] - contentOffset[row]);
+    }
+
+    /**
+     * 第row条消息的内容（会新建字符串，批量处理时用 {@link #appendContent}）
+     */
+    public String content(int row) {
+        checkRow(row);
+        return new String(arena, contentOffset[row], contentOffset[row + 1] - contentOffset[row]);
+    }
+
+    /**
+     * 是否为需要分析的文字消息（type=1且内容不全是空白）
+     */
+    public boolean isText(int row) {
+        return type(row) == TEXT_TYPE && contentLength(row) > 0;
+    }
+
+    /**
+     * 筛选出所有文字消息的行号
+     *
+     * @return 按时间顺序排列的行号
+     */
+    public int[] textRows() {
+        int[] rows = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (type[row] == TEXT_TYPE && contentOffset[row + 1] > contentOffset[row]) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * 取行号数组中 [from, to) 这一段作为一个批次
+     *
+     * @param rows 行号数组，通常是 {@link #textRows()} 的结果
+     * @param from 起始位置（包含）
+     * @param to 结束位置（不包含）
+     * @return 批次视图，不复制数据
+     */
+    public Slice slice(int[] rows, int from, int to) {
+        if (from < 0 || to > rows.length || from > to) {
+            throw new IndexOutOfBoundsException("[" + from + ", " + to + "), length " + rows.length);
+        }
+        return new Slice(this, rows, from, to);
+    }
+
+    /**
+     * 释放多余的预留容量，写入完成后调用
+     */
+    public void trimToSize() {
+        createTime = Arrays.copyOf(createTime, size);
+        msgSvrId = Arrays.copyOf(msgSvrId, size);
+        type = Arrays.copyOf(type, size);
+        isSender = Arrays.copyOf(isSender, size);
+        contentOffset = Arrays.copyOf(contentOffset, size + 1);
+        arena = Arrays.copyOf(arena, arenaSize);
+    }
+
+    /**
+     * 各数组占用的字节数（不含对象头），用于日志和容量评估
+     */
+    public long memoryBytes() {
+        return (long) createTime.length * Long.BYTES
+                + (long) msgSvrId.length * Long.BYTES
+                + (long) type.length * Short.BYTES
+                + isSender.length
+                + (long) contentOffset.length * Integer.BYTES
+                + (long) arena.length * Character.BYTES;
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+        return row;
+    }
+
+    private void ensureRowCapacity(int required) {
+        if (required <= createTime.length) {
+            return;
+        }
+        int capacity = Math.max(required, createTime.length + (createTime.length >> 1));
+        createTime = Arrays.copyOf(createTime, capacity);
+        msgSvrId = Arrays.copyOf(msgSvrId, capacity);
+        type = Arrays.copyOf(type, capacity);
+        isSender = Arrays.copyOf(isSender, capacity);
+        contentOffset = Arrays.copyOf(contentOffset, capacity + 1);
+    }
+
+    private void ensureArenaCapacity(int required) {
+        if (required < 0) {
+            throw new IllegalStateException("消息内容总长度超出上限");
+        }
+        if (required <= arena.length) {
+            return;
+        }
+        long capacity = Math.max(required, arena.length + ((long) arena.length >> 1));
+        arena = Arrays.copyOf(arena, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+    }
+
+    /**
+     * 一批消息的视图，按顺序引用 MessageColumns 中的若干行
+     */
+    public static final class Slice {
+        private final MessageColumns columns;
+        private final int[] rows;
+        private final int from;
+        private final int to;
+
+        private Slice(MessageColumns columns, int[] rows, int from, int to) {
+            this.columns = columns;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        public MessageColumns columns() {
+            return columns;
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        /**
+         * 批次中第k条消息在 MessageColumns 中的行号
+         */
+        public int row(int k) {
+            if (k < 0 || k >= size()) {
+                throw new IndexOutOfBoundsException("index " + k + ", size " + size());
+            }
+            return rows[from + k];
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 消息筛选条件
+ *
+ * 读取数据库时作为 WHERE 条件下推，只读取满足条件的消息。各条件为空表示不限制。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MessageFilter {
+
+    /**
+     * 起始时间（秒，包含）
+     */
+    private Long startTime;
+
+    /**
+     * 结束时间（秒，不包含）
+     */
+    private Long endTime;
+
+    /**
+     * 消息类型（1为文字），不从请求中读取，分析时由服务端固定为文字消息
+     */
+    private List<Integer> types;
+
+    /**
+     * 发送者：1为自己，0为对方
+     */
+    private Integer isSender;
+
+    /**
+     * 是否设置了任一条件
+     */
+    public boolean hasConditions() {
+        return startTime != null || endTime != null || (types != null && !types.isEmpty()) || isSender != null;
+    }
+
+    /**
+     * 类型和发送者是否满足条件（时间范围由调用方按索引处理）
+     *
+     * @param type 消息类型
+     * @param sender 是否为自己发送
+     * @return 是否满足
+     */
+    public boolean matches(int type, boolean sender) {
+        if (types != null && !types.isEmpty() && !types.contains(type)) {
+            return false;
+        }
+        return isSender == null || (isSender == 1) == sender;
+    }
+
+    /**
+     * 条件的文本表示，用于区分不同条件下的分析状态，无条件时为空字符串
+     */
+    public String conditionKey() {
+        if (!hasConditions()) {
+            return "";
+        }
+        return "start=" + (startTime != null ? startTime : "")
+                + ";end=" + (endTime != null ? endTime : "")
+                + ";types=" + (types != null ? types.stream().sorted().distinct().toList() : "")
+                + ";sender=" + (isSender != null ? isSender : "");
+    }
+}
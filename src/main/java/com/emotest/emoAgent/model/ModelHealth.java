@@ -0,0 +1,52 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+/**
+ * 模型的实时状态，用于路由选择和监控
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ModelHealth {
+
+    /**
+     * 提供方名称
+     */
+    private String provider;
+
+    /**
+     * 模型名称
+     */
+    private String model;
+
+    /**
+     * 相对单价（每千token）
+     */
+    private Double cost;
+
+    /**
+     * 最近成功调用的中位耗时（毫秒），没有样本时为空
+     */
+    private Long latencyP50Ms;
+
+    /**
+     * 熔断窗口内的失败率（0~1）
+     */
+    private Double errorRate;
+
+    /**
+     * 熔断状态：CLOSED、OPEN或HALF_OPEN
+     */
+    private String circuitState;
+
+    /**
+     * 路由得分，越低越优先
+     */
+    private Double score;
+}
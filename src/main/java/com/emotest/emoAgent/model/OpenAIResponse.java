@@ -62,6 +62,11 @@ public class OpenAIResponse {
          */
         private Message message;
         
+        /**
+         * 流式响应中本次新增的内容
+         */
+        private Message delta;
+        
         /**
          * 完成原因
          */
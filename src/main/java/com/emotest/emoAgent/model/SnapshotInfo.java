@@ -0,0 +1,54 @@
+package com.emotest.emoAgent.model;
+
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 聊天记录快照信息
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SnapshotInfo {
+
+    /**
+     * 快照包含的联系人用户名
+     */
+    private List<String> userNames;
+
+    /**
+     * 快照中的文字消息条数
+     */
+    private Long records;
+
+    /**
+     * 数据文件大小（字节）
+     */
+    private Long dataBytes;
+
+    /**
+     * 本次导出追加的消息条数，数据库没有变化时为0
+     */
+    private Long appendedRecords;
+
+    /**
+     * 第一条消息的创建时间（时间戳）
+     */
+    private Long firstCreateTime;
+
+    /**
+     * 最后一条消息的创建时间（时间戳）
+     */
+    private Long lastCreateTime;
+
+    /**
+     * 最后更新时间（毫秒）
+     */
+    private Long updatedAt;
+}
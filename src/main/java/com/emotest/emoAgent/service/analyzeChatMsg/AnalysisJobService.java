@@ -0,0 +1,364 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.AnalysisJob;
+import com.emotest.emoAgent.model.AnalysisProgress;
+import com.emotest.emoAgent.model.MessageFilter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步分析任务服务
+ *
+ * 提交后立即返回任务ID，分析在有界的任务线程池中执行：同时运行的任务数和排队的任务数都有上限，
+ * 超出时拒绝提交。已连接的SSE订阅者实时收到全部事件；之后连接的订阅者只补发最近的阶段和批次进度
+ * （不含批次全文和报告增量）以及结束事件，完整报告从任务状态中获取。
+ * 结束的任务在保留时间过后清理，保留的结束任务数也有上限。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Service
+@Log4j2
+public class AnalysisJobService {
+
+    @Autowired
+    private AnalyzeService analyzeService;
+
+    @Value("${analysis.jobs.retention-minutes:60}")
+    private long retentionMinutes;
+
+    @Value("${analysis.jobs.max-retained:100}")
+    private int maxRetained;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Map<String, JobHandle> jobs = new ConcurrentHashMap<>();
+
+    public AnalysisJobService(@Value("${analysis.jobs.max-running:2}") int maxRunning,
+                              @Value("${analysis.jobs.max-queued:8}") int maxQueued) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxRunning, maxRunning, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueued)),
+                r -> new Thread(r, "analysis-job-" + threadCount.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交分析任务
+     *
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否增量分析
+     * @return 任务状态
+     * @throws RejectedExecutionException 运行和排队的任务都已满
+     */
+    public AnalysisJob submit(String dataPath, String friendName, String apiKey, String model, boolean incremental) {
+        return submit(dataPath, friendName, apiKey, model, incremental, null);
+    }
+
+    /**
+     * 提交分析任务，只分析满足筛选条件的消息
+     *
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否增量分析
+     * @param filter 筛选条件，为空时分析全部文字消息
+     * @return 任务状态
+     * @throws RejectedExecutionException 运行和排队的任务都已满
+     */
+    public AnalysisJob submit(String dataPath, String friendName, String apiKey, String model, boolean incremental,
+                              MessageFilter filter) {
+        purgeExpired();
+
+        AnalysisJob job = new AnalysisJob();
+        job.setId(UUID.randomUUID().toString());
+        job.setFriendName(friendName);
+        job.setModel(model);
+        job.setIncremental(incremental);
+        job.setStatus(AnalysisJob.Status.QUEUED);
+        job.setStage("排队中");
+        job.setCompletedBatches(0);
+        job.setFailedBatches(0);
+        job.setCreatedAt(System.currentTimeMillis());
+
+        JobHandle handle = new JobHandle(job);
+        jobs.put(job.getId(), handle);
+        try {
+            executor.execute(() -> run(handle, dataPath, friendName, apiKey, model, incremental, filter));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            log.warn("分析任务已满，拒绝提交 - 运行中: {}, 排队: {}", executor.getActiveCount(), executor.getQueue().size());
+            throw e;
+        }
+        log.info("已提交分析任务: {}, 好友: {}", job.getId(), friendName);
+        return handle.snapshot();
+    }
+
+    /**
+     * 查询任务状态
+     *
+     * @param jobId 任务ID
+     * @return 任务状态，不存在时返回null
+     */
+    public AnalysisJob get(String jobId) {
+        JobHandle handle = jobs.get(jobId);
+        return handle != null ? handle.snapshot() : null;
+    }
+
+    /**
+     * 订阅任务进度，先补发最近的阶段和批次进度，任务结束后流随之结束
+     *
+     * @param jobId 任务ID
+     * @return 进度事件流，任务不存在时返回null
+     */
+    public Flux<AnalysisProgress> events(String jobId) {
+        JobHandle handle = jobs.get(jobId);
+        return handle != null ? Flux.defer(handle::subscribe) : null;
+    }
+
+    /**
+     * 取消任务，排队中的任务不再执行，运行中的任务取消尚未完成的LLM调用
+     *
+     * @param jobId 任务ID
+     * @return 任务状态，不存在时返回null
+     */
+    public AnalysisJob cancel(String jobId) {
+        JobHandle handle = jobs.get(jobId);
+        if (handle == null) {
+            return null;
+        }
+        handle.cancel();
+        return handle.snapshot();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(JobHandle handle, String dataPath, String friendName, String apiKey, String model,
+                     boolean incremental, MessageFilter filter) {
+        if (!handle.start()) {
+            return;
+        }
+        try {
+            String report = handle.await(analyzeService
+                    .analyzeChatAndGenerateReportReactive(dataPath, friendName, apiKey, model, incremental, filter, handle)
+                    .toFuture());
+            handle.finish(report);
+        } catch (CancellationException e) {
+            log.info("分析任务已取消: {}", handle.job.getId());
+        } catch (Exception e) {
+            log.error("分析任务执行失败: " + handle.job.getId(), e);
+            handle.onProgress(AnalysisProgress.of(AnalysisProgress.Type.FAILED, "分析失败", e.getMessage()));
+            handle.finish(null);
+        }
+    }
+
+    private void purgeExpired() {
+        long deadline = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        jobs.values().removeIf(handle -> handle.isFinishedBefore(deadline));
+
+        // 结束的任务仍保留着报告，超出上限时先清理最早结束的
+        List<Map.Entry<String, Long>> finished = new ArrayList<>();
+        jobs.forEach((id, handle) -> {
+            Long finishedAt = handle.finishedAt();
+            if (finishedAt != null) {
+                finished.add(Map.entry(id, finishedAt));
+            }
+        });
+        int excess = finished.size() - Math.max(0, maxRetained);
+        if (excess <= 0) {
+            return;
+        }
+        finished.sort(Map.Entry.comparingByValue());
+        for (int i = 0; i < excess; i++) {
+            jobs.remove(finished.get(i).getKey());
+        }
+        log.info("结束的任务超过保留上限 {}，已清理 {} 个", maxRetained, excess);
+    }
+
+    /**
+     * 任务运行时状态，同时作为分析进度监听器
+     */
+    private static final class JobHandle implements AnalysisProgressListener {
+        // 给后连接的订阅者补发的进度事件数上限
+        private static final int REPLAY_LIMIT = 256;
+
+        private final AnalysisJob job;
+        // 最近的阶段和批次进度，批次事件不含批次全文
+        private final Deque<AnalysisProgress> history = new ArrayDeque<>();
+        private final List<Sinks.Many<AnalysisProgress>> subscribers = new ArrayList<>();
+        private AnalysisProgress terminal;
+        private CompletableFuture<String> future;
+        private boolean cancelled;
+
+        private JobHandle(AnalysisJob job) {
+            this.job = job;
+        }
+
+        private synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            job.setStatus(AnalysisJob.Status.RUNNING);
+            job.setStartedAt(System.currentTimeMillis());
+            return true;
+        }
+
+        private String await(CompletableFuture<String> analysis) throws Exception {
+            synchronized (this) {
+                if (cancelled) {
+                    analysis.cancel(true);
+                    throw new CancellationException();
+                }
+                future = analysis;
+            }
+            return analysis.get();
+        }
+
+        @Override
+        public synchronized void onProgress(AnalysisProgress progress) {
+            if (isTerminal()) {
+                return;
+            }
+            job.setStage(progress.getStage());
+            if (progress.getTotalBatches() != null) {
+                job.setTotalBatches(progress.getTotalBatches());
+            }
+            switch (progress.getType()) {
+                case BATCH -> {
+                    if (Boolean.TRUE.equals(progress.getBatchFailed())) {
+                        job.setFailedBatches(job.getFailedBatches() + 1);
+                    } else {
+                        job.setCompletedBatches(job.getCompletedBatches() + 1);
+                    }
+                }
+                case FAILED -> job.setError(progress.getContent());
+                default -> {
+                }
+            }
+            switch (progress.getType()) {
+                case STAGE -> remember(progress);
+                case BATCH -> remember(new AnalysisProgress(progress.getType(), progress.getStage(),
+                        progress.getBatchIndex(), progress.getTotalBatches(), progress.getBatchFailed(), null,
+                        progress.getTimestamp()));
+                case FAILED -> terminal = progress;
+                default -> {
+                }
+            }
+            subscribers.forEach(subscriber -> subscriber.tryEmitNext(progress));
+        }
+
+        /**
+         * 新订阅者先收到最近的进度，任务已结束时再收到结束事件
+         */
+        private synchronized Flux<AnalysisProgress> subscribe() {
+            Sinks.Many<AnalysisProgress> subscriber = Sinks.many().unicast().onBackpressureBuffer();
+            history.forEach(subscriber::tryEmitNext);
+            if (isTerminal()) {
+                if (terminal != null) {
+                    subscriber.tryEmitNext(terminal);
+                }
+                subscriber.tryEmitComplete();
+                return subscriber.asFlux();
+            }
+            subscribers.add(subscriber);
+            return subscriber.asFlux().doFinally(signal -> unsubscribe(subscriber));
+        }
+
+        private synchronized void unsubscribe(Sinks.Many<AnalysisProgress> subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        private void remember(AnalysisProgress progress) {
+            history.addLast(progress);
+            if (history.size() > REPLAY_LIMIT) {
+                history.removeFirst();
+            }
+        }
+
+        private void complete(AnalysisProgress progress) {
+            if (progress != null) {
+                terminal = progress;
+                subscribers.forEach(subscriber -> subscriber.tryEmitNext(progress));
+            }
+            subscribers.forEach(Sinks.Many::tryEmitComplete);
+            subscribers.clear();
+        }
+
+        private synchronized void finish(String report) {
+            if (isTerminal()) {
+                return;
+            }
+            job.setFinishedAt(System.currentTimeMillis());
+            if (job.getError() != null) {
+                // 失败事件已经发出
+                job.setStatus(AnalysisJob.Status.FAILED);
+                job.setStage("分析失败");
+                complete(null);
+            } else {
+                job.setStatus(AnalysisJob.Status.SUCCEEDED);
+                job.setStage("分析完成");
+                job.setResult(report);
+                complete(AnalysisProgress.of(AnalysisProgress.Type.COMPLETED, "分析完成", report));
+            }
+        }
+
+        private synchronized void cancel() {
+            if (isTerminal()) {
+                return;
+            }
+            cancelled = true;
+            if (future != null) {
+                future.cancel(true);
+            }
+            job.setStatus(AnalysisJob.Status.CANCELLED);
+            job.setStage("已取消");
+            job.setFinishedAt(System.currentTimeMillis());
+            complete(AnalysisProgress.of(AnalysisProgress.Type.CANCELLED, "已取消", null));
+        }
+
+        private boolean isTerminal() {
+            return job.getFinishedAt() != null;
+        }
+
+        private synchronized Long finishedAt() {
+            return job.getFinishedAt();
+        }
+
+        private synchronized boolean isFinishedBefore(long deadline) {
+            return job.getFinishedAt() != null && job.getFinishedAt() < deadline;
+        }
+
+        private synchronized AnalysisJob snapshot() {
+            return new AnalysisJob(job.getId(), job.getFriendName(), job.getModel(), job.getIncremental(),
+                    job.getStatus(), job.getStage(), job.getTotalBatches(), job.getCompletedBatches(), job.getFailedBatches(),
+                    job.getCreatedAt(), job.getStartedAt(), job.getFinishedAt(), job.getResult(), job.getError());
+        }
+    }
+}
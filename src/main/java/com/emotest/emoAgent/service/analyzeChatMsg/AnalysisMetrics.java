@@ -0,0 +1,244 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分析链路指标
+ *
+ * 集中定义指标名称和标签，各组件只调用这里的方法记录，通过 /actuator/prometheus 暴露。
+ * 计时器同时发布直方图（供Prometheus计算分位数）和p50/p99（供 /actuator/metrics 直接查看）。
+ * 标签中不出现API Key、好友姓名等敏感或高基数的值；模型名来自请求参数，
+ * 只有配置中出现过的模型（默认模型、各提供方和路由中的模型）按原名记录，其余都记为other。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+public class AnalysisMetrics {
+
+    private static final String UNKNOWN_MODEL = "default";
+
+    private static final String OTHER_MODEL = "other";
+
+    private final MeterRegistry registry;
+
+    private final Set<String> knownModels = new HashSet<>();
+
+    public AnalysisMetrics(MeterRegistry registry, LlmProviderProperties providerProperties,
+                           BatchProperties batchProperties, @Value("${dashscope.model}") String defaultModel) {
+        this.registry = registry;
+        knownModels.add(defaultModel);
+        providerProperties.getEndpoints().values().forEach(endpoint -> knownModels.addAll(endpoint.getModels()));
+        LlmProviderProperties.Routing routing = providerProperties.getRouting();
+        knownModels.addAll(routing.getBatchModels());
+        knownModels.addAll(routing.getReportModels());
+        knownModels.addAll(routing.getModelCosts().keySet());
+        knownModels.addAll(batchProperties.getModelTokenBudgets().keySet());
+    }
+
+    /**
+     * 记录一次分片分页查询
+     *
+     * @param shard 分片文件名
+     * @param nanos 查询耗时
+     * @param rows 返回行数
+     */
+    public void recordSqliteQuery(String shard, long nanos, int rows) {
+        timer("chat.sqlite.query", "SQLite消息分页查询耗时", "shard", shard).record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("chat.sqlite.rows")
+                .description("SQLite消息分页查询返回行数")
+                .tag("shard", shard)
+                .register(registry)
+                .record(rows);
+    }
+
+    /**
+     * 记录一次快照读取
+     *
+     * @param nanos 读取耗时
+     * @param rows 读取的消息条数
+     */
+    public void recordSnapshotRead(long nanos, int rows) {
+        timer("chat.snapshot.read", "聊天记录快照读取耗时").record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("chat.snapshot.rows")
+                .description("聊天记录快照每次读取的消息条数")
+                .register(registry)
+                .record(rows);
+    }
+
+    /**
+     * 记录一次联系人索引加载
+     *
+     * @param nanos 加载耗时
+     * @param contacts 联系人数量
+     */
+    public void recordContactIndexLoad(long nanos, int contacts) {
+        timer("chat.contacts.load", "联系人索引加载耗时").record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("chat.contacts.size")
+                .description("联系人索引条目数")
+                .register(registry)
+                .record(contacts);
+    }
+
+    /**
+     * 记录一次分批
+     *
+     * @param nanos 分批耗时
+     * @param messages 消息数
+     * @param batches 批次数
+     */
+    public void recordBatchBuild(long nanos, int messages, int batches) {
+        timer("analysis.batch.build", "按token分批耗时").record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("analysis.batch.count")
+                .description("每次分析的批次数")
+                .register(registry)
+                .record(batches);
+        DistributionSummary.builder("analysis.batch.messages")
+                .description("每次分析的文字消息数")
+                .register(registry)
+                .record(messages);
+    }
+
+    /**
+     * 记录一次LLM HTTP调用（每次重试单独记录）
+     *
+     * @param model 模型名称
+     * @param mode blocking或stream
+     * @param outcome success、rate_limited、timeout、circuit_open、http_xxx或error
+     * @param nanos 调用耗时
+     */
+    public void recordLlmCall(String model, String mode, String outcome, long nanos) {
+        timer("llm.call", "LLM单次调用耗时",
+                "model", modelTag(model), "mode", mode, "outcome", outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录LLM返回的token用量
+     *
+     * @param model 模型名称
+     * @param inputTokens 输入token数，未知时传负数
+     * @param outputTokens 输出token数，未知时传负数
+     */
+    public void recordLlmTokens(String model, long inputTokens, long outputTokens) {
+        if (inputTokens >= 0) {
+            tokens(model, "input").increment(inputTokens);
+        }
+        if (outputTokens >= 0) {
+            tokens(model, "output").increment(outputTokens);
+        }
+    }
+
+    /**
+     * 记录一次重试
+     *
+     * @param model 模型名称
+     * @param reason rate_limited（429）或batch（批次级重试）
+     */
+    public void recordRetry(String model, String reason) {
+        Counter.builder("llm.retries")
+                .description("LLM调用重试次数")
+                .tag("model", modelTag(model))
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 记录一次熔断状态变化
+     *
+     * @param model 模型名称
+     * @param state 变化后的状态：open、half_open或closed
+     */
+    public void recordCircuitTransition(String model, String state) {
+        Counter.builder("llm.circuit.transitions")
+                .description("LLM熔断状态变化次数")
+                .tag("model", modelTag(model))
+                .tag("state", state)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 记录一次对冲请求
+     *
+     * @param model 模型名称
+     * @param result launched（发出）或won（对冲请求先返回）
+     */
+    public void recordHedge(String model, String result) {
+        Counter.builder("llm.hedges")
+                .description("LLM对冲请求次数")
+                .tag("model", modelTag(model))
+                .tag("result", result)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 记录一次响应缓存查询
+     *
+     * @param result memory_hit、disk_hit或miss
+     */
+    public void recordCacheLookup(String result) {
+        Counter.builder("llm.cache.lookups")
+                .description("LLM响应缓存查询次数")
+                .tag("result", result)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 记录任务在调度器中的排队等待时间
+     *
+     * @param nanos 等待时长
+     */
+    public void recordQueueWait(long nanos) {
+        timer("llm.dispatch.wait", "LLM任务排队等待时间").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次完整分析（从查找联系人到报告生成）
+     *
+     * @param mode blocking、reactive
+     * @param outcome success或failure
+     * @param nanos 总耗时
+     */
+    public void recordReport(String mode, String outcome, long nanos) {
+        timer("analysis.report", "端到端生成报告耗时", "mode", mode, "outcome", outcome)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+    }
+
+    private Counter tokens(String model, String type) {
+        return Counter.builder("llm.tokens")
+                .description("LLM token用量")
+                .tag("model", modelTag(model))
+                .tag("type", type)
+                .register(registry);
+    }
+
+    private String modelTag(String model) {
+        if (model == null) {
+            return UNKNOWN_MODEL;
+        }
+        return knownModels.contains(model) ? model : OTHER_MODEL;
+    }
+}
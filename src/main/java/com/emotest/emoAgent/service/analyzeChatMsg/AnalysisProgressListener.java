@@ -0,0 +1,27 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.AnalysisProgress;
+
+/**
+ * 分析进度监听器
+ * 
+ * 回调可能来自不同线程，实现需要自行保证线程安全，且不应阻塞。
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@FunctionalInterface
+public interface AnalysisProgressListener {
+
+    /**
+     * 不关心进度时使用
+     */
+    AnalysisProgressListener NONE = progress -> { };
+
+    /**
+     * 分析进度变化
+     * 
+     * @param progress 进度事件
+     */
+    void onProgress(AnalysisProgress progress);
+}
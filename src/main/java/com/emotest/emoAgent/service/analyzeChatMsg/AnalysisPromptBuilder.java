@@ -0,0 +1,201 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.model.MessageColumns;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 分析提示词构建
+ *
+ * 集中生成批次分析（重叠/接力两种模式）和最终报告的提示词。
+ * 批次提示词按总长度一次分配缓冲区，聊天内容逐条直接写入，不生成每条消息的中间字符串。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+public class AnalysisPromptBuilder {
+
+    /**
+     * 接力模式下每批输出中供下一批使用的摘要小节标题
+     */
+    public static final String CARRY_SECTION_TITLE = "## 上下文摘要";
+
+    private final BatchProperties batchProperties;
+
+    private final ChatMessageFormatter chatMessageFormatter;
+
+    public AnalysisPromptBuilder(BatchProperties batchProperties, ChatMessageFormatter chatMessageFormatter) {
+        this.batchProperties = batchProperties;
+        this.chatMessageFormatter = chatMessageFormatter;
+    }
+
+    /**
+     * 创建批次分析提示词（重叠模式）
+     *
+     * @param batch 本批文字消息
+     * @param batchIndex 批次序号，从1开始
+     * @param totalBatches 批次总数
+     * @return 提示词
+     */
+    public String batchPrompt(MessageColumns.Slice batch, int batchIndex, int totalBatches) {
+        String header = String.format(
+            "你是一位专业的聊天记录分析师，请对以下聊天记录片段进行深入分析。\n\n" +
+            "当前分析：第 %d/%d 批（重叠批次分析）\n" +
+            "注意：此批次可能与前后批次有重叠内容，请重点关注本批次的核心内容，同时考虑上下文连续性。\n\n" +
+            "分析要求：\n" +
+            "1. **对话主题识别**：识别这段对话的主要话题、讨论内容、事件背景\n" +
+            "2. **情感状态分析**：分析双方在这段对话中的情绪状态、情感表达、态度倾向\n" +
+            "3. **沟通模式观察**：观察双方的沟通方式、语言风格、互动模式\n" +
+            "4. **关系动态分析**：分析这段对话中体现的两人关系特征、亲密度、信任度\n" +
+            "5. **关键信息提取**：提取重要的时间节点、关键事件、情感转折点\n" +
+            "6. **潜在问题识别**：识别可能存在的沟通问题、情感冲突、关系隐患\n" +
+            "7. **上下文连续性**：注意与前后对话的连贯性，避免重复分析重叠部分\n\n" +
+            "输出格式：\n" +
+            "## 对话主题\n" +
+            "[详细描述对话的主要内容和背景]\n\n" +
+            "## 情感状态\n" +
+            "- 对方情感：[分析对方的情感状态和表达]\n" +
+            "- 我的情感：[分析我的情感状态和表达]\n\n" +
+            "## 沟通特点\n" +
+            "[分析双方的沟通方式和互动模式]\n\n" +
+            "## 关系体现\n" +
+            "[分析这段对话体现的关系特征]\n\n" +
+            "## 关键信息\n" +
+            "[提取的重要信息和时间节点]\n\n" +
+            "## 潜在问题\n" +
+            "[识别的问题和隐患]\n\n" +
+            "## 上下文连续性\n" +
+            "[简要说明与前后对话的连贯性]\n\n" +
+            "聊天记录：\n",
+            batchIndex, totalBatches
+        );
+        return withChatContent(header, batch);
+    }
+
+    /**
+     * 创建接力模式的分析提示词，携带上一批的上下文摘要
+     *
+     * @param batch 本批文字消息
+     * @param batchIndex 批次序号，从1开始
+     * @param totalBatches 批次总数
+     * @param previousSummary 上一批的上下文摘要，第一批为null
+     * @return 提示词
+     */
+    public String carryBatchPrompt(MessageColumns.Slice batch, int batchIndex, int totalBatches, String previousSummary) {
+        String context = previousSummary == null || previousSummary.isBlank()
+                ? "（这是第一批，没有前情）"
+                : previousSummary;
+        String header = String.format(
+            "你是一位专业的聊天记录分析师，请对以下聊天记录片段进行深入分析。\n\n" +
+            "当前分析：第 %d/%d 批（接力分析，批次之间没有重叠）\n" +
+            "前情摘要（上一批对话的概括，仅作为理解上下文的参考，不要重复分析）：\n%s\n\n" +
+            "分析要求：\n" +
+            "1. **对话主题识别**：识别这段对话的主要话题、讨论内容、事件背景\n" +
+            "2. **情感状态分析**：分析双方在这段对话中的情绪状态、情感表达、态度倾向\n" +
+            "3. **沟通模式观察**：观察双方的沟通方式、语言风格、互动模式\n" +
+            "4. **关系动态分析**：分析这段对话中体现的两人关系特征、亲密度、信任度\n" +
+            "5. **关键信息提取**：提取重要的时间节点、关键事件、情感转折点\n" +
+            "6. **潜在问题识别**：识别可能存在的沟通问题、情感冲突、关系隐患\n\n" +
+            "输出格式（必须先输出上下文摘要）：\n" +
+            "%s\n" +
+            "[用不超过%d字概括本批对话的人物、事件和情感走向，供下一批分析承接上下文]\n\n" +
+            "## 对话主题\n" +
+            "[详细描述对话的主要内容和背景]\n\n" +
+            "## 情感状态\n" +
+            "- 对方情感：[分析对方的情感状态和表达]\n" +
+            "- 我的情感：[分析我的情感状态和表达]\n\n" +
+            "## 沟通特点\n" +
+            "[分析双方的沟通方式和互动模式]\n\n" +
+            "## 关系体现\n" +
+            "[分析这段对话体现的关系特征]\n\n" +
+            "## 关键信息\n" +
+            "[提取的重要信息和时间节点]\n\n" +
+            "## 潜在问题\n" +
+            "[识别的问题和隐患]\n\n" +
+            "聊天记录：\n",
+            batchIndex, totalBatches, context, CARRY_SECTION_TITLE, batchProperties.getCarryTokens()
+        );
+        return withChatContent(header, batch);
+    }
+
+    /**
+     * 创建最终报告提示词
+     *
+     * @param analysisResult 合并后的批次分析结果
+     * @param friendName 好友姓名
+     * @return 提示词
+     */
+    public String finalReportPrompt(String analysisResult, String friendName) {
+        return String.format(
+            "你是一位资深的心理咨询师和人际关系专家，请基于以下多批次聊天分析结果，生成一份专业、全面、深入的聊天关系分析报告。\n\n" +
+            "报告要求：\n" +
+            "1. **关系类型判断**：基于聊天内容、互动模式、情感表达，准确判断两人的关系类型（情侣、朋友、同事、家人等）\n" +
+            "2. **关系质量评估**：评估关系的健康度、稳定性、发展潜力\n" +
+            "3. **情感态度分析**：深入分析双方对彼此的真实情感态度、依赖程度、期望值\n" +
+            "4. **沟通模式诊断**：诊断双方的沟通模式、表达方式、理解能力\n" +
+            "5. **问题识别与建议**：识别关系中存在的问题，提供具体的改进建议\n" +
+            "6. **发展建议**：为关系发展提供专业建议\n\n" +
+            "报告结构：\n" +
+            "=== 聊天关系分析报告 ===\n" +
+            "分析对象：%s\n" +
+            "分析时间：%s\n" +
+            "分析师：AI心理咨询师\n\n" +
+            "## 关系类型判断\n" +
+            "### 关系类型\n" +
+            "[明确判断关系类型，并说明判断依据]\n\n" +
+            "### 关系特征\n" +
+            "[详细描述关系的特征、模式、特点]\n\n" +
+            "### 关系质量评估\n" +
+            "[评估关系的健康度、稳定性、满意度]\n\n" +
+            "## 情感态度深度分析\n" +
+            "### 对方对\"我\"的情感态度\n" +
+            "- 情感依赖度：[分析依赖程度]\n" +
+            "- 信任程度：[分析信任水平]\n" +
+            "- 期望值：[分析对关系的期望]\n" +
+            "- 情感表达方式：[分析情感表达的特点]\n\n" +
+            "### \"我\"对对方的情感态度\n" +
+            "- 情感投入度：[分析情感投入程度]\n" +
+            "- 关心程度：[分析关心和重视程度]\n" +
+            "- 包容度：[分析包容和理解程度]\n" +
+            "- 情感表达方式：[分析情感表达的特点]\n\n" +
+            "## 沟通模式诊断\n" +
+            "### 沟通特点\n" +
+            "[分析双方的沟通方式、语言风格、表达习惯]\n\n" +
+            "### 沟通效果\n" +
+            "[评估沟通的有效性、理解度、共鸣度]\n\n" +
+            "### 沟通问题\n" +
+            "[识别沟通中存在的问题和障碍]\n\n" +
+            "## 问题识别与改进建议\n" +
+            "### 主要问题\n" +
+            "[识别关系中的主要问题和隐患]\n\n" +
+            "### 改进建议\n" +
+            "#### 对\"我\"的建议\n" +
+            "[针对\"我\"的具体改进建议]\n\n" +
+            "#### 对对方的建议\n" +
+            "[针对对方的建议（如果适用）]\n\n" +
+            "#### 关系发展建议\n" +
+            "[对关系发展的整体建议]\n\n" +
+            "## 总结\n" +
+            "[对整体关系的总结和展望]\n\n" +
+            "=== 报告结束 ===\n\n" +
+            "分析数据：\n%s",
+            friendName,
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")),
+            analysisResult
+        );
+    }
+
+    /**
+     * 在提示词头部之后写入本批聊天内容
+     */
+    private String withChatContent(String header, MessageColumns.Slice batch) {
+        StringBuilder prompt = new StringBuilder(header.length() + chatMessageFormatter.batchLength(batch));
+        prompt.append(header);
+        chatMessageFormatter.appendBatch(prompt, batch);
+        return prompt.toString();
+    }
+}
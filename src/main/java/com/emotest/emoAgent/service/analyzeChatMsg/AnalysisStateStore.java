@@ -0,0 +1,111 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.AnalysisState;
+import com.google.gson.Gson;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 联系人分析状态存储
+ * 
+ * 每个 (数据路径, 好友, 筛选条件, 模型) 一个JSON文件，记录已处理到的消息位置、
+ * 已分析部分的摘要和上次的报告，再次分析时只需要处理新增的消息。
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class AnalysisStateStore {
+
+    private final Gson gson = new Gson();
+
+    @Value("${analysis.state-dir:state/analysis}")
+    private String stateDir;
+
+    /**
+     * 读取分析状态
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @return 分析状态，不存在或读取失败时返回null
+     */
+    public AnalysisState load(String dataPath, String friendName) {
+        return load(dataPath, friendName, null, null);
+    }
+
+    /**
+     * 读取指定筛选条件和模型下的分析状态
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param filter 筛选条件（MessageFilter.conditionKey()），为空表示无条件
+     * @param model 请求中的模型，为空表示不区分模型
+     * @return 分析状态，不存在或读取失败时返回null
+     */
+    public AnalysisState load(String dataPath, String friendName, String filter, String model) {
+        Path file = stateFile(dataPath, friendName, filter, model);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            AnalysisState state = gson.fromJson(Files.readString(file, StandardCharsets.UTF_8), AnalysisState.class);
+            log.info("读取分析状态: {}, 已有 {} 个批次结果", file, state.getBatchSummaries().size());
+            return state;
+        } catch (Exception e) {
+            log.warn("读取分析状态失败，将进行全量分析: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 保存分析状态
+     * 
+     * @param state 分析状态
+     */
+    public void save(AnalysisState state) {
+        Path file = stateFile(state.getDataPath(), state.getFriendName(), state.getFilter(), state.getModel());
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.writeString(tmp, gson.toJson(state), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("分析状态已保存到: {}", file);
+        } catch (IOException e) {
+            log.error("保存分析状态失败", e);
+        }
+    }
+
+    private Path stateFile(String dataPath, String friendName, String filter, String model) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(dataPath.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(friendName.getBytes(StandardCharsets.UTF_8));
+            // 无筛选条件时文件名与之前相同，已有的分析状态继续有效
+            if (filter != null && !filter.isEmpty()) {
+                digest.update((byte) 0);
+                digest.update(filter.getBytes(StandardCharsets.UTF_8));
+            }
+            // 换模型时不复用其他模型的摘要和报告
+            if (model != null && !model.isEmpty()) {
+                digest.update((byte) 1);
+                digest.update(model.getBytes(StandardCharsets.UTF_8));
+            }
+            return Paths.get(stateDir, HexFormat.of().formatHex(digest.digest()) + ".json");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+}
@@ -1,23 +1,40 @@
 package com.emotest.emoAgent.service.analyzeChatMsg;
 
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.model.AnalysisProgress;
+import com.emotest.emoAgent.model.AnalysisState;
+import com.emotest.emoAgent.model.BatchRange;
+import com.emotest.emoAgent.model.ChatHistory;
+import com.emotest.emoAgent.model.Contact;
 import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageColumns;
+import com.emotest.emoAgent.model.MessageFilter;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * 聊天分析服务
@@ -35,24 +52,62 @@ public class AnalyzeService {
     @Autowired
     private CallLLM callLLM;
 
-    // 每批处理的聊天记录数量（针对130000 tokens模型优化）
-    private static final int BATCH_SIZE = 180;
+    @Autowired
+    private LlmResponseCache llmResponseCache;
+
+    @Autowired
+    private AnalysisStateStore analysisStateStore;
+
+    @Autowired
+    private TokenBatchBuilder tokenBatchBuilder;
+
+    @Autowired
+    private SummaryTreeReducer summaryTreeReducer;
+
+    @Autowired
+    private BatchProperties batchProperties;
+
+    @Autowired
+    private AnalysisMetrics analysisMetrics;
+
+    @Autowired
+    private AnalysisPromptBuilder analysisPromptBuilder;
+
+    @Autowired
+    private ChatSnapshotStore chatSnapshotStore;
+
+    // 超时、熔断、重试退避和对冲请求（调用速率由LlmRateLimiter按API Key控制）
+    @Autowired
+    private LlmResilience llmResilience;
+
+    @Autowired
+    private BatchCheckpointStore batchCheckpointStore;
+
+    @Autowired
+    private LlmRouter llmRouter;
+
+    @Autowired
+    private TokenEstimator tokenEstimator;
+
+    @Value("${dashscope.model}")
+    private String defaultModel;
+
+    // 批次分析阶段的整体时限，到期后取消未完成的批次，用已完成的批次生成报告
+    @Value("${analysis.max-wall-time:10m}")
+    private Duration maxWallTime;
     
-    // 最大token限制（针对130000 tokens模型）
-    private static final int MAX_TOKENS = 8000;
+    // 响应式链路中单次分析同时在途的批次请求上限
+    private static final int REACTIVE_MAX_CONCURRENCY = 4;
     
-    // 并发线程数（限制为2）
-    private static final int CONCURRENT_THREADS = 2;
+    // 文字消息类型，分析只使用文字消息
+    private static final int TEXT_MESSAGE_TYPE = 1;
     
-    // 重叠度配置（调整为最大重叠）
-    private static final double MIN_OVERLAP_RATIO = 0.3; // 最小重叠比例 30%
-    private static final double MAX_OVERLAP_RATIO = 0.6; // 最大重叠比例 60%
-    private static final int MIN_OVERLAP_SIZE = 30; // 最小重叠条数
-    private static final int MAX_OVERLAP_SIZE = 80; // 最大重叠条数
+    // 报告中标注失败批次时间范围的格式
+    private static final DateTimeFormatter GAP_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
     
-    // API限流配置
-    private static final long API_CALL_DELAY_MS = 2000; // API调用间隔2秒
-    private static final int MAX_RETRY_ATTEMPTS = 3; // 最大重试次数
+    // 上下文摘要小节在下一个小标题处结束
+    private static final String CARRY_SECTION_END = "\n## ";
 
     /**
      * 分析聊天记录并生成报告（使用默认配置）
@@ -75,8 +130,44 @@ public class AnalyzeService {
      * @return 分析结果
      */
     public String analyzeChatAndGenerateReport(String dataPath, String friendName, String apiKey, String model) {
+        return analyzeChatAndGenerateReport(dataPath, friendName, apiKey, model, false);
+    }
+
+    /**
+     * 分析聊天记录并生成报告（支持增量分析）
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息，并与已保存的批次结果合并
+     * @return 分析结果
+     */
+    public String analyzeChatAndGenerateReport(String dataPath, String friendName, String apiKey, String model,
+                                               boolean incremental) {
+        return analyzeChatAndGenerateReport(dataPath, friendName, apiKey, model, incremental, null);
+    }
+
+    /**
+     * 分析满足筛选条件的聊天记录并生成报告
+     * 
+     * 时间范围、消息类型和发送者在读取数据库时筛选，只有满足条件的消息会被读取和分批发送给LLM；
+     * 不同筛选条件的分析状态分开保存。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息，并与已保存的批次结果合并
+     * @param filter 筛选条件，为空时分析全部文字消息
+     * @return 分析结果
+     */
+    public String analyzeChatAndGenerateReport(String dataPath, String friendName, String apiKey, String model,
+                                               boolean incremental, MessageFilter filter) {
+        long start = System.nanoTime();
+        String outcome = "failure";
         try {
-            log.info("开始分析聊天记录，好友: {}, 模型: {}", friendName, model);
+            log.info("开始分析聊天记录，好友: {}, 模型: {}, 增量: {}", friendName, model, incremental);
             
             // 1. 获取联系人信息
             var contacts = loadChatMsgUtil.findContacts(dataPath, friendName);
@@ -84,302 +175,782 @@ public class AnalyzeService {
                 return "未找到指定好友";
             }
             
-            // 2. 获取聊天记录
-            List<Message> allMessages = new ArrayList<>();
-            for (var contact : contacts) {
-                var messages = loadChatMsgUtil.findMessages(dataPath, contact.getUserName());
-                allMessages.addAll(messages);
-            }
+            // 2. 读取上次分析状态，获取聊天记录（增量分析时只读取新消息）
+            AnalysisState state = loadAnalysisState(dataPath, friendName, incremental, filter, model);
+            ChatHistory history = loadChatHistory(dataPath, contacts, state, filter);
             
-            if (allMessages.isEmpty()) {
-                return "未找到聊天记录";
+            // 3. 文字消息已在读取时筛选出行号，没有新的文字消息时沿用上次报告
+            int[] textRows = history.getTextRows();
+            if (textRows.length == 0) {
+                return state.getLastReport() != null ? reuseLastReport(state, history) : "未找到聊天记录";
             }
             
-            log.info("找到 {} 条聊天记录", allMessages.size());
-            
-            // 3. 过滤文字消息并格式化
-            List<String> textMessages = formatTextMessages(allMessages);
+            // 4. 并发分批处理新消息（已有检查点的批次直接复用），成功的结果与已保存的批次结果合并
+            String batchModel = llmRouter.route(LlmRouter.Tier.BATCH, model);
+            String checkpointScope = checkpointScope(state, batchModel);
+            List<BatchOutcome> outcomes = processChatInBatchesConcurrently(history.getMessages(), textRows, apiKey,
+                    batchModel, checkpointScope);
+            List<String> batchResults = new ArrayList<>(state.getBatchSummaries());
+            List<BatchOutcome> failedBatches = collectBatchResults(outcomes, batchResults);
+            String analysisResult = mergeAndCompressResults(batchResults, apiKey, batchModel);
             
-            // 4. 并发分批处理聊天记录（使用自定义API Key和模型）
-            String analysisResult = processChatInBatchesConcurrently(textMessages, apiKey, model);
+            // 5. 生成最终报告（使用自定义API Key和模型），标注失败批次未覆盖的时间段
+            String reportModel = llmRouter.route(LlmRouter.Tier.REPORT, model);
+            String finalReport = generateFinalReport(analysisResult, friendName, apiKey, reportModel)
+                    + gapNote(failedBatches);
             
-            // 5. 生成最终报告（使用自定义API Key和模型）
-            String finalReport = generateFinalReport(analysisResult, friendName, apiKey, model);
-            
-            // 6. 保存报告到文件
+            // 6. 保存报告和分析状态（只保存归并后的摘要）
             saveReportToFile(finalReport, friendName);
+            saveAnalysisProgress(state, history, analysisResult, failedBatches, finalReport, checkpointScope);
             
             log.info("聊天分析完成");
+            outcome = "success";
             return finalReport;
             
         } catch (Exception e) {
             log.error("分析聊天记录失败", e);
             return "分析失败：" + e.getMessage();
+        } finally {
+            analysisMetrics.recordReport("blocking", outcome, System.nanoTime() - start);
         }
     }
 
     /**
-     * 格式化文字消息
+     * 分析聊天记录并生成报告（非阻塞版本）
+     * 
+     * SQLite读取和报告落盘在boundedElastic上执行，LLM调用全程走WebClient，
+     * 不占用请求线程，也不为每次分析单独创建线程池。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息
+     * @return 分析结果
+     */
+    public Mono<String> analyzeChatAndGenerateReportReactive(String dataPath, String friendName, String apiKey, String model,
+                                                             boolean incremental) {
+        return analyzeChatAndGenerateReportReactive(dataPath, friendName, apiKey, model, incremental,
+                AnalysisProgressListener.NONE);
+    }
+
+    /**
+     * 分析聊天记录并生成报告（非阻塞版本，带进度回调）
+     * 
+     * 每进入一个阶段、每完成一个批次都会通知listener；分析失败时先发出FAILED事件，
+     * 再返回"分析失败："开头的说明。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息
+     * @param listener 进度监听器
+     * @return 分析结果
      */
-    private List<String> formatTextMessages(List<Message> messages) {
-        List<String> textMessages = new ArrayList<>();
+    public Mono<String> analyzeChatAndGenerateReportReactive(String dataPath, String friendName, String apiKey, String model,
+                                                             boolean incremental, AnalysisProgressListener listener) {
+        return analyzeChatAndGenerateReportReactive(dataPath, friendName, apiKey, model, incremental, null, listener);
+    }
+
+    /**
+     * 分析满足筛选条件的聊天记录并生成报告（非阻塞版本，带进度回调）
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息
+     * @param filter 筛选条件，为空时分析全部文字消息
+     * @param listener 进度监听器
+     * @return 分析结果
+     */
+    public Mono<String> analyzeChatAndGenerateReportReactive(String dataPath, String friendName, String apiKey, String model,
+                                                             boolean incremental, MessageFilter filter,
+                                                             AnalysisProgressListener listener) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean failed = new AtomicBoolean();
+            AnalysisProgressListener tracking = progress -> {
+                if (progress.getType() == AnalysisProgress.Type.FAILED) {
+                    failed.set(true);
+                }
+                listener.onProgress(progress);
+            };
+            return analyzeReactive(dataPath, friendName, apiKey, model, incremental, filter, tracking)
+                    .doOnSuccess(report -> analysisMetrics.recordReport("reactive",
+                            failed.get() ? "failure" : "success", System.nanoTime() - start));
+        });
+    }
+
+    private Mono<String> analyzeReactive(String dataPath, String friendName, String apiKey, String model,
+                                         boolean incremental, MessageFilter filter, AnalysisProgressListener listener) {
+        log.info("开始分析聊天记录（响应式），好友: {}, 模型: {}, 增量: {}", friendName, model, incremental);
         
-        for (Message msg : messages) {
-            // 只处理文字消息（type=1）
-            if (msg.getType() == 1 && msg.getStrContent() != null && !msg.getStrContent().trim().isEmpty()) {
-                String sender = msg.getIsSender() == 1 ? "我" : "对方";
-                String time = loadChatMsgUtil.formatTime(msg.getCreateTime());
-                String content = msg.getStrContent().trim();
+        return Mono.fromCallable(() -> {
+                    listener.onProgress(AnalysisProgress.stage("查找联系人", null));
+                    return loadChatMsgUtil.findContacts(dataPath, friendName);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(contacts -> {
+                    if (contacts.isEmpty()) {
+                        listener.onProgress(AnalysisProgress.of(AnalysisProgress.Type.FAILED, "查找联系人", "未找到指定好友"));
+                        return Mono.just("未找到指定好友");
+                    }
+                    return analyzeContacts(dataPath, friendName, contacts, apiKey, model, incremental, filter, listener);
+                })
+                .onErrorResume(e -> analysisFailed(e, listener));
+    }
+
+    /**
+     * 分析已确定的一组联系人的聊天记录并生成报告（非阻塞版本）
+     * 
+     * 与按好友姓名分析不同，这里不再查找联系人，只读取给定联系人的消息，
+     * 供批量分析按用户名精确指定联系人时使用。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 报告和分析状态中使用的好友名称
+     * @param contacts 要分析的联系人
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息
+     * @param filter 筛选条件，为空时分析全部文字消息
+     * @param listener 进度监听器
+     * @return 分析结果
+     */
+    public Mono<String> analyzeContactsReactive(String dataPath, String friendName, List<Contact> contacts,
+                                                String apiKey, String model, boolean incremental, MessageFilter filter,
+                                                AnalysisProgressListener listener) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean failed = new AtomicBoolean();
+            AnalysisProgressListener tracking = progress -> {
+                if (progress.getType() == AnalysisProgress.Type.FAILED) {
+                    failed.set(true);
+                }
+                listener.onProgress(progress);
+            };
+            return analyzeContacts(dataPath, friendName, contacts, apiKey, model, incremental, filter, tracking)
+                    .onErrorResume(e -> analysisFailed(e, tracking))
+                    .doOnSuccess(report -> analysisMetrics.recordReport("bulk",
+                            failed.get() ? "failure" : "success", System.nanoTime() - start));
+        });
+    }
+
+    private Mono<String> analyzeContacts(String dataPath, String friendName, List<Contact> contacts, String apiKey,
+                                         String model, boolean incremental, MessageFilter filter,
+                                         AnalysisProgressListener listener) {
+        return Mono.fromCallable(() -> loadAnalysisState(dataPath, friendName, incremental, filter, model))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(state -> Mono.fromCallable(() -> {
+                            listener.onProgress(AnalysisProgress.stage("读取聊天记录", null));
+                            return loadChatHistory(dataPath, contacts, state, filter);
+                        })
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .flatMap(history -> analyzeMessagesReactive(state, history, apiKey, model, listener)));
+    }
+
+    private Mono<String> analysisFailed(Throwable e, AnalysisProgressListener listener) {
+        log.error("分析聊天记录失败", e);
+        listener.onProgress(AnalysisProgress.of(AnalysisProgress.Type.FAILED, "分析失败", e.getMessage()));
+        return Mono.just("分析失败：" + e.getMessage());
+    }
+
+    /**
+     * 流式分析聊天记录
+     * 
+     * 依次发出阶段、批次和最终报告片段事件，最后以COMPLETED（携带完整报告）或FAILED结束，
+     * 取消订阅时同时取消分析。
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息
+     * @return 进度事件流
+     */
+    public Flux<AnalysisProgress> streamChatAnalysis(String dataPath, String friendName, String apiKey, String model,
+                                                     boolean incremental) {
+        return streamChatAnalysis(dataPath, friendName, apiKey, model, incremental, null);
+    }
+
+    /**
+     * 流式分析满足筛选条件的聊天记录
+     * 
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息
+     * @param filter 筛选条件，为空时分析全部文字消息
+     * @return 进度事件流
+     */
+    public Flux<AnalysisProgress> streamChatAnalysis(String dataPath, String friendName, String apiKey, String model,
+                                                     boolean incremental, MessageFilter filter) {
+        return Flux.create(sink -> {
+            AtomicBoolean failed = new AtomicBoolean();
+            AnalysisProgressListener listener = progress -> {
+                if (progress.getType() == AnalysisProgress.Type.FAILED) {
+                    failed.set(true);
+                }
+                sink.next(progress);
+            };
+            Disposable analysis = analyzeChatAndGenerateReportReactive(dataPath, friendName, apiKey, model, incremental,
+                            filter, listener)
+                    .subscribe(report -> {
+                        if (!failed.get()) {
+                            sink.next(AnalysisProgress.of(AnalysisProgress.Type.COMPLETED, "分析完成", report));
+                        }
+                        sink.complete();
+                    }, sink::error);
+            sink.onDispose(analysis);
+        });
+    }
+
+    /**
+     * 对已加载的消息进行分批分析并生成报告（非阻塞版本）
+     */
+    private Mono<String> analyzeMessagesReactive(AnalysisState state, ChatHistory history, String apiKey, String model,
+                                                 AnalysisProgressListener listener) {
+        int[] textRows = history.getTextRows();
+        if (textRows.length == 0 && state.getLastReport() != null) {
+            return Mono.fromCallable(() -> reuseLastReport(state, history))
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+        if (textRows.length == 0) {
+            listener.onProgress(AnalysisProgress.of(AnalysisProgress.Type.FAILED, "读取聊天记录", "未找到聊天记录"));
+            return Mono.just("未找到聊天记录");
+        }
+        
+        String friendName = state.getFriendName();
+        // 批次分析和归并用便宜快速的模型，最终报告用能力更强的模型（未启用路由时都是请求中的模型）
+        String batchModel = llmRouter.route(LlmRouter.Tier.BATCH, model);
+        String reportModel = llmRouter.route(LlmRouter.Tier.REPORT, model);
+        String checkpointScope = checkpointScope(state, batchModel);
+        return processChatInBatchesReactive(history.getMessages(), textRows, apiKey, batchModel, checkpointScope, listener)
+                .flatMap(outcomes -> {
+                    List<String> batchResults = new ArrayList<>(state.getBatchSummaries());
+                    List<BatchOutcome> failedBatches = collectBatchResults(outcomes, batchResults);
+                    listener.onProgress(AnalysisProgress.stage("合并批次结果", null));
+                    return mergeAndCompressResultsReactive(batchResults, apiKey, batchModel, listener)
+                            .doOnNext(analysisResult -> listener.onProgress(AnalysisProgress.stage("生成最终报告", null)))
+                            .flatMap(analysisResult -> generateFinalReportReactive(analysisResult, friendName, apiKey,
+                                            reportModel, listener)
+                                    .map(report -> {
+                                        String gapNote = gapNote(failedBatches);
+                                        if (!gapNote.isEmpty()) {
+                                            listener.onProgress(AnalysisProgress.report(gapNote));
+                                        }
+                                        return report + gapNote;
+                                    })
+                                    .flatMap(finalReport -> Mono.fromCallable(() -> {
+                                                saveReportToFile(finalReport, friendName);
+                                                saveAnalysisProgress(state, history, analysisResult, failedBatches,
+                                                        finalReport, checkpointScope);
+                                                log.info("聊天分析完成");
+                                                return finalReport;
+                                            })
+                                            .subscribeOn(Schedulers.boundedElastic())));
+                });
+    }
+
+    /**
+     * 读取该筛选条件和模型下的分析状态，非增量分析或没有历史状态时返回一个空状态
+     */
+    private AnalysisState loadAnalysisState(String dataPath, String friendName, boolean incremental, MessageFilter filter,
+                                            String model) {
+        String filterKey = filter != null ? filter.conditionKey() : "";
+        String stateModel = model != null ? model : defaultModel;
+        AnalysisState state = incremental ? analysisStateStore.load(dataPath, friendName, filterKey, stateModel) : null;
+        if (state == null) {
+            state = new AnalysisState();
+            state.setDataPath(dataPath);
+            state.setFriendName(friendName);
+            state.setFilter(filterKey);
+            state.setModel(stateModel);
+        }
+        return state;
+    }
+
+    /**
+     * 在筛选条件上限定只读取文字消息
+     */
+    private static MessageFilter textOnly(MessageFilter filter) {
+        return filter != null
+                ? new MessageFilter(filter.getStartTime(), filter.getEndTime(), List.of(TEXT_MESSAGE_TYPE), filter.getIsSender())
+                : new MessageFilter(null, null, List.of(TEXT_MESSAGE_TYPE), null);
+    }
+
+    /**
+     * 流式读取所有匹配联系人的聊天记录（有分析状态时只读取其后的新消息），
+     * 边读边写入列式存储，不在内存中保留原始消息对象。
+     * 已导出快照时从快照读取，数据库没有变化就不再查询SQLite。
+     * 筛选条件和 Type = 1 一起下推到查询中，只读取文字消息
+     */
+    private ChatHistory loadChatHistory(String dataPath, List<Contact> contacts, AnalysisState state, MessageFilter filter) {
+        List<String> userNames = contacts.stream().map(Contact::getUserName).toList();
+        MessageFilter conditions = textOnly(filter);
+        ChatHistory snapshot = chatSnapshotStore.load(dataPath, userNames,
+                state.getLastCreateTime(), state.getLastMsgSvrId(), conditions);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        ChatHistory history = new ChatHistory();
+        
+        try (Stream<Message> messages = loadChatMsgUtil.streamMessages(dataPath, userNames,
+                state.getLastCreateTime(), state.getLastMsgSvrId(), conditions)) {
+            messages.forEach(msg -> {
+                history.setTotalMessages(history.getTotalMessages() + 1);
                 
-                String formattedMessage = String.format("[%s] %s: %s", time, sender, content);
-                textMessages.add(formattedMessage);
-            }
+                // 记录已读取到的位置：最后一秒的最大服务器ID
+                if (history.getLastCreateTime() == null || msg.getCreateTime() > history.getLastCreateTime()) {
+                    history.setLastCreateTime(msg.getCreateTime());
+                    history.setLastMsgSvrId(msg.getMsgSvrId());
+                } else if (msg.getMsgSvrId() > history.getLastMsgSvrId()) {
+                    history.setLastMsgSvrId(msg.getMsgSvrId());
+                }
+                
+                history.getMessages().add(msg);
+            });
         }
         
-        log.info("格式化后得到 {} 条文字消息", textMessages.size());
-        return textMessages;
+        MessageColumns columns = history.getMessages();
+        columns.trimToSize();
+        history.setTextRows(columns.textRows());
+        log.info("找到 {} 条聊天记录，其中 {} 条文字消息，列式存储占用约 {} KB",
+                history.getTotalMessages(), history.getTextRows().length, columns.memoryBytes() / 1024);
+        return history;
+    }
+
+    /**
+     * 没有新的文字消息时沿用上次的报告，只推进已处理位置
+     */
+    private String reuseLastReport(AnalysisState state, ChatHistory history) {
+        log.info("没有新的文字消息，沿用上次的分析报告");
+        if (history.getTotalMessages() > 0) {
+            saveAnalysisState(state, history, state.getBatchSummaries(), state.getLastReport());
+        }
+        return state.getLastReport();
+    }
+
+    /**
+     * 所有批次都成功时保存分析状态并清除检查点；有批次失败时保留检查点且不推进已处理位置，
+     * 再次分析时只需重新处理失败的批次。
+     * 只保存归并后的摘要，下次增量分析时它作为第一段与新批次的结果一起归并
+     */
+    private void saveAnalysisProgress(AnalysisState state, ChatHistory history, String mergedSummary,
+                                      List<BatchOutcome> failedBatches, String finalReport, String checkpointScope) {
+        if (!failedBatches.isEmpty()) {
+            log.warn("{} 个批次分析失败，报告已标注缺失部分；保留检查点，再次分析时只重新处理失败的批次",
+                    failedBatches.size());
+            return;
+        }
+        saveAnalysisState(state, history, List.of(mergedSummary), finalReport);
+        batchCheckpointStore.clear(checkpointScope);
+    }
+
+    /**
+     * 本次分析的批次检查点范围
+     */
+    private String checkpointScope(AnalysisState state, String model) {
+        return batchCheckpointStore.scope(state.getDataPath(), state.getFriendName(), state.getFilter(), model);
+    }
+
+    /**
+     * 把成功批次的结果按顺序追加到batchResults，返回失败的批次；没有任何可用结果时分析失败
+     */
+    private List<BatchOutcome> collectBatchResults(List<BatchOutcome> outcomes, List<String> batchResults) {
+        List<BatchOutcome> failedBatches = new ArrayList<>();
+        for (BatchOutcome outcome : outcomes) {
+            if (outcome.error == null) {
+                batchResults.add(outcome.result);
+            } else {
+                failedBatches.add(outcome);
+            }
+        }
+        if (batchResults.isEmpty() && !failedBatches.isEmpty()) {
+            throw new IllegalStateException("所有批次分析均失败：" + failedBatches.get(0).error);
+        }
+        return failedBatches;
     }
 
     /**
-     * 并发分批处理聊天记录
+     * 报告末尾对失败批次的说明，没有失败时为空字符串
      */
-    private String processChatInBatchesConcurrently(List<String> textMessages) {
-        return processChatInBatchesConcurrently(textMessages, null, null);
+    private String gapNote(List<BatchOutcome> failedBatches) {
+        if (failedBatches.isEmpty()) {
+            return "";
+        }
+        StringBuilder note = new StringBuilder("\n\n---\n注意：以下 ").append(failedBatches.size())
+                .append(" 个批次分析失败，本报告未涵盖这些时间段的聊天记录，再次分析时只会重新处理这些批次：\n");
+        for (BatchOutcome outcome : failedBatches) {
+            note.append("- ").append(GAP_TIME_FORMAT.format(Instant.ofEpochSecond(outcome.firstCreateTime)))
+                    .append(" ~ ").append(GAP_TIME_FORMAT.format(Instant.ofEpochSecond(outcome.lastCreateTime)))
+                    .append("：").append(outcome.error).append('\n');
+        }
+        return note.toString();
     }
 
     /**
-     * 并发分批处理聊天记录（使用自定义API Key和模型）
+     * 保存分析状态，记录已处理到的最后一条消息
      */
-    private String processChatInBatchesConcurrently(List<String> textMessages, String apiKey, String model) {
-        List<List<String>> batches = splitIntoOverlappingBatches(textMessages);
+    private void saveAnalysisState(AnalysisState state, ChatHistory history, List<String> batchSummaries,
+                                   String finalReport) {
+        if (history.getLastCreateTime() != null) {
+            state.setLastCreateTime(history.getLastCreateTime());
+            state.setLastMsgSvrId(history.getLastMsgSvrId());
+        }
+        state.setBatchSummaries(new ArrayList<>(batchSummaries));
+        state.setLastReport(finalReport);
+        state.setUpdatedAt(System.currentTimeMillis());
+        analysisStateStore.save(state);
+    }
+
+    /**
+     * 并发分批处理聊天记录（使用自定义API Key和模型），按批次顺序返回各批次的结果
+     */
+    private List<BatchOutcome> processChatInBatchesConcurrently(MessageColumns columns, int[] textRows, String apiKey,
+                                                                String model, String checkpointScope) {
+        if (batchProperties.getMode() == BatchProperties.Mode.CARRY) {
+            // 接力模式下批次之间有先后依赖，直接复用响应式链路，整体时限在链路中执行
+            return processChatInBatchesReactive(columns, textRows, apiKey, model, checkpointScope,
+                    AnalysisProgressListener.NONE).block();
+        }
+        List<MessageColumns.Slice> batches = splitIntoTokenBatches(columns, textRows, model);
         log.info("将聊天记录分为 {} 批进行并发处理", batches.size());
         
-        // 创建线程池
-        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_THREADS);
-        List<CompletableFuture<String>> futures = new ArrayList<>();
+        List<CompletableFuture<BatchOutcome>> futures = new ArrayList<>();
+        long deadline = wallTimeDeadline();
         
-        // 提交并发任务（带限流控制）
+        // 提交到全局调度器，调用速率由限流器控制，提交线程不再等待
         for (int i = 0; i < batches.size(); i++) {
-            final int batchIndex = i;
-            final List<String> batch = batches.get(i);
-            
-            CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> {
-                return processBatchWithRetry(batch, batchIndex + 1, batches.size(), apiKey, model);
-            }, executor);
-            
-            futures.add(future);
-            
-            // 添加延迟，避免API调用过于频繁
-            if (i > 0 && i % CONCURRENT_THREADS == 0) {
-                try {
-                    Thread.sleep(API_CALL_DELAY_MS);
-                    log.info("添加API调用延迟，已处理 {} 个批次", i);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    log.warn("延迟被中断");
-                }
-            }
+            futures.add(withinWallTime(processBatchReactive(batches.get(i), i + 1, batches.size(), apiKey, model,
+                    checkpointScope, AnalysisProgressListener.NONE), batches.get(i), i + 1, batches.size(), deadline,
+                    AnalysisProgressListener.NONE).toFuture());
         }
         
-        // 等待所有任务完成
+        // 等待所有任务完成；批次失败只影响该批次，超过整体时限的批次已被取消并记为失败
         try {
             CompletableFuture<Void> allFutures = CompletableFuture.allOf(
                 futures.toArray(new CompletableFuture[0])
             );
-            allFutures.get(5, TimeUnit.MINUTES); // 设置超时时间
+            allFutures.get();
+            log.info("所有批次分析完成，开始合并结果");
             
-            // 收集结果
-            List<String> batchResults = new ArrayList<>();
-            for (CompletableFuture<String> future : futures) {
+            List<BatchOutcome> batchResults = new ArrayList<>();
+            for (CompletableFuture<BatchOutcome> future : futures) {
                 batchResults.add(future.get());
             }
-            
-            log.info("所有批次分析完成，开始合并结果");
-            
-            // 合并和压缩结果
-            return mergeAndCompressResults(batchResults);
+            return batchResults;
             
         } catch (Exception e) {
             log.error("并发处理失败", e);
-            return "并发处理失败：" + e.getMessage();
-        } finally {
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
+            // 取消尚未完成的批次，释放调度器中的排队位置
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("并发处理失败：" + e.getMessage(), e);
         }
     }
 
     /**
-     * 将消息列表分割成重叠批次
-     * 使用动态重叠算法确保上下文连续性
+     * 响应式分批处理聊天记录
+     * 使用flatMapSequential限制在途请求数，并保持批次结果顺序
      */
-    private List<List<String>> splitIntoOverlappingBatches(List<String> textMessages) {
-        List<List<String>> batches = new ArrayList<>();
-        
-        if (textMessages.isEmpty()) {
-            return batches;
+    private Mono<List<BatchOutcome>> processChatInBatchesReactive(MessageColumns columns, int[] textRows, String apiKey,
+                                                                  String model, String checkpointScope,
+                                                                  AnalysisProgressListener listener) {
+        List<MessageColumns.Slice> batches = splitIntoTokenBatches(columns, textRows, model);
+        listener.onProgress(AnalysisProgress.stage("批次分析", batches.size()));
+        if (batchProperties.getMode() == BatchProperties.Mode.CARRY) {
+            return processChatInBatchesCarry(batches, apiKey, model, checkpointScope, listener);
         }
+        log.info("将聊天记录分为 {} 批进行响应式处理，单次分析最大在途批次: {}", batches.size(), REACTIVE_MAX_CONCURRENCY);
+        long deadline = wallTimeDeadline();
+        
+        return Flux.range(0, batches.size())
+                .flatMapSequential(i -> withinWallTime(processBatchReactive(batches.get(i), i + 1, batches.size(), apiKey,
+                                        model, checkpointScope, listener), batches.get(i), i + 1, batches.size(), deadline,
+                                listener),
+                        REACTIVE_MAX_CONCURRENCY)
+                .collectList()
+                .doOnNext(batchResults -> log.info("所有批次分析完成，开始合并结果"));
+    }
+
+    /**
+     * 接力模式分批处理：批次不重叠，每批的提示词携带上一批的上下文摘要
+     * 
+     * 要求模型先输出上下文摘要小节，流式读取时一旦该小节结束，下一批即可开始，
+     * 不必等上一批完整输出；结果仍按批次顺序返回。
+     */
+    private Mono<List<BatchOutcome>> processChatInBatchesCarry(List<MessageColumns.Slice> batches, String apiKey,
+                                                               String model, String checkpointScope,
+                                                               AnalysisProgressListener listener) {
+        log.info("将聊天记录分为 {} 批进行接力处理", batches.size());
         
-        // 计算动态重叠大小
-        int overlapSize = calculateDynamicOverlapSize(textMessages.size());
-        log.info("消息总数: {}, 批次大小: {}, 重叠大小: {}", 
-                textMessages.size(), BATCH_SIZE, overlapSize);
+        List<Mono<BatchOutcome>> results = new ArrayList<>();
+        Mono<String> previousCarry = Mono.just("");
+        long deadline = wallTimeDeadline();
+        for (int i = 0; i < batches.size(); i++) {
+            MessageColumns.Slice batch = batches.get(i);
+            int batchIndex = i + 1;
+            Sinks.One<String> carry = Sinks.one();
+            // 等待上一批摘要的时间也计入整体时限；到期后后续批次立即记为失败，不会一直等待
+            results.add(withinWallTime(previousCarry.flatMap(summary ->
+                    processCarryBatch(batch, batchIndex, batches.size(), summary, carry, apiKey, model, checkpointScope,
+                            listener)), batch, batchIndex, batches.size(), deadline, listener));
+            previousCarry = carry.asMono();
+        }
         
-        // 计算步长（每次前进的距离）
-        int stepSize = BATCH_SIZE - overlapSize;
+        // 提前订阅后续批次，让它们在上一批摘要就绪后立即开始
+        return Flux.mergeSequential(results, REACTIVE_MAX_CONCURRENCY, 1)
+                .collectList()
+                .doOnNext(batchResults -> log.info("所有批次分析完成，开始合并结果"));
+    }
+
+    /**
+     * 批次分析阶段的截止时刻（System.nanoTime）
+     */
+    private long wallTimeDeadline() {
+        return System.nanoTime() + maxWallTime.toNanos();
+    }
+
+    /**
+     * 到截止时刻仍未完成的批次被取消并记为失败，在报告中标注未覆盖的时间段，再次分析时只重跑这些批次
+     */
+    private Mono<BatchOutcome> withinWallTime(Mono<BatchOutcome> batchResult, MessageColumns.Slice batch, int batchIndex,
+                                              int totalBatches, long deadline, AnalysisProgressListener listener) {
+        return batchResult
+                .takeUntilOther(Mono.defer(() -> Mono.delay(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))))
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    log.warn("第 {} 批超过整体时限 {} 秒，已取消", batchIndex, maxWallTime.toSeconds());
+                    BatchOutcome outcome = BatchOutcome.failed(batch, "批次 " + batchIndex + " 分析失败：超过整体时限");
+                    listener.onProgress(outcome.progress(batchIndex, totalBatches));
+                    return outcome;
+                }));
+    }
+
+    /**
+     * 接力模式处理单个批次，上下文摘要一旦可用就通过carry发出，结果中去掉摘要小节
+     */
+    private Mono<BatchOutcome> processCarryBatch(MessageColumns.Slice batch, int batchIndex, int totalBatches,
+                                                 String previousSummary, Sinks.One<String> carry, String apiKey,
+                                                 String model, String checkpointScope,
+                                                 AnalysisProgressListener listener) {
+        String prompt = analysisPromptBuilder.carryBatchPrompt(batch, batchIndex, totalBatches, previousSummary);
+        int carryLimit = batchProperties.getCarryTokens();
         
-        // 生成重叠批次
-        int startIndex = 0;
-        int batchIndex = 1;
+        Mono<String> call = Mono.defer(() -> {
+                    log.info("开始处理第 {} 批（接力），包含 {} 条消息", batchIndex, batch.size());
+                    return llmResponseCache.getOrLoad(model, prompt, () -> Mono.defer(() -> {
+                        CarrySummaryScanner scanner = new CarrySummaryScanner();
+                        return callLLM.streamLLM(prompt, apiKey, model)
+                                .doOnNext(chunk -> {
+                                    String summary = scanner.append(chunk);
+                                    if (summary != null) {
+                                        carry.tryEmitValue(tokenEstimator.truncate(summary.trim(), carryLimit));
+                                    }
+                                })
+                                .then(Mono.fromCallable(scanner::output));
+                    }));
+                })
+                .retryWhen(llmResilience.retrySpec()
+                        .doBeforeRetry(signal -> {
+                            analysisMetrics.recordRetry(model, "batch");
+                            log.warn("第 {} 批处理失败，准备第 {} 次重试: {}",
+                                    batchIndex, signal.totalRetries() + 1, signal.failure().getMessage());
+                        }));
         
-        while (startIndex < textMessages.size()) {
-            int endIndex = Math.min(startIndex + BATCH_SIZE, textMessages.size());
-            List<String> batch = textMessages.subList(startIndex, endIndex);
-            
-            log.info("生成批次 {}: 索引范围 [{}, {}), 消息数量: {}", 
-                    batchIndex, startIndex, endIndex, batch.size());
-            
-            batches.add(new ArrayList<>(batch));
-            
-            // 移动到下一个批次
-            startIndex += stepSize;
-            batchIndex++;
-            
-            // 如果剩余消息不足一个完整批次，但还有重叠空间，则调整
-            if (startIndex + BATCH_SIZE > textMessages.size() && startIndex < textMessages.size()) {
-                int remainingSize = textMessages.size() - startIndex;
-                if (remainingSize >= MIN_OVERLAP_SIZE) {
-                    // 创建最后一个批次，包含剩余所有消息
-                    List<String> lastBatch = textMessages.subList(startIndex, textMessages.size());
-                    log.info("生成最终批次 {}: 索引范围 [{}, {}), 消息数量: {}", 
-                            batchIndex, startIndex, textMessages.size(), lastBatch.size());
-                    batches.add(new ArrayList<>(lastBatch));
+        // 检查点中保存含摘要小节的完整输出，续跑时同样可以提取摘要传给下一批
+        return checkpointed(checkpointScope, batch, batchIndex, prompt, call)
+                // 缓存命中、检查点恢复或摘要小节位于末尾时，在完整结果上再提取一次
+                .doOnNext(batchResult -> carry.tryEmitValue(tokenEstimator.truncate(extractCarrySummary(batchResult), carryLimit)))
+                .map(this::removeCarrySection)
+                .doOnNext(batchResult -> log.info("完成第 {} 批分析，结果长度: {}", batchIndex, batchResult.length()))
+                .map(batchResult -> BatchOutcome.succeeded(batch, batchResult))
+                .onErrorResume(e -> batchFailed(checkpointScope, batch, batchIndex, prompt, e))
+                // 失败或取消时也要放行下一批，此时不携带摘要
+                .doFinally(signal -> carry.tryEmitValue(""))
+                .doOnNext(outcome -> listener.onProgress(outcome.progress(batchIndex, totalBatches)));
+    }
+
+    /**
+     * 从完整的批次输出中提取上下文摘要小节
+     * 
+     * @param batchResult 批次输出
+     * @return 摘要；模型没有按格式输出摘要小节时退回为整个输出
+     */
+    private String extractCarrySummary(String batchResult) {
+        int start = batchResult.indexOf(AnalysisPromptBuilder.CARRY_SECTION_TITLE);
+        if (start < 0) {
+            return batchResult.trim();
+        }
+        int contentStart = start + AnalysisPromptBuilder.CARRY_SECTION_TITLE.length();
+        int end = batchResult.indexOf(CARRY_SECTION_END, contentStart);
+        return batchResult.substring(contentStart, end < 0 ? batchResult.length() : end).trim();
+    }
+
+    /**
+     * 在流式输出中查找上下文摘要小节
+     *
+     * 每次只从上次查找停下的位置继续，小节结束（出现下一个小标题）后不再查找，
+     * 整个批次的查找开销与输出长度成线性关系。
+     */
+    private static final class CarrySummaryScanner {
+        private final StringBuilder output = new StringBuilder();
+        private int searchFrom;
+        private int contentStart = -1;
+        private boolean found;
+
+        /**
+         * 追加一段输出
+         *
+         * @return 摘要小节刚结束时返回其内容，否则返回null
+         */
+        private String append(String chunk) {
+            output.append(chunk);
+            if (found) {
+                return null;
+            }
+            if (contentStart < 0) {
+                int start = output.indexOf(AnalysisPromptBuilder.CARRY_SECTION_TITLE, searchFrom);
+                if (start < 0) {
+                    // 标题可能跨两段到达，保留末尾不足一个标题长度的部分下次再查
+                    searchFrom = Math.max(0, output.length() - AnalysisPromptBuilder.CARRY_SECTION_TITLE.length() + 1);
+                    return null;
                 }
-                break;
+                contentStart = start + AnalysisPromptBuilder.CARRY_SECTION_TITLE.length();
+                searchFrom = contentStart;
+            }
+            int end = output.indexOf(CARRY_SECTION_END, searchFrom);
+            if (end < 0) {
+                searchFrom = Math.max(contentStart, output.length() - CARRY_SECTION_END.length() + 1);
+                return null;
             }
+            found = true;
+            return output.substring(contentStart, end);
+        }
+
+        private String output() {
+            return output.toString();
         }
-        
-        log.info("总共生成 {} 个重叠批次", batches.size());
-        return batches;
     }
-    
+
     /**
-     * 计算动态重叠大小
-     * 根据总消息数量和并发数动态调整重叠度
+     * 去掉批次结果中的上下文摘要小节，避免合并时重复
      */
-    private int calculateDynamicOverlapSize(int totalMessages) {
-        // 基础重叠比例：消息越多，重叠比例越大
-        double baseOverlapRatio;
-        
-        if (totalMessages <= 200) {
-            // 少量消息：使用中等重叠
-            baseOverlapRatio = MIN_OVERLAP_RATIO + (MAX_OVERLAP_RATIO - MIN_OVERLAP_RATIO) * 0.3;
-        } else if (totalMessages <= 800) {
-            // 中等消息：线性增长重叠比例
-            baseOverlapRatio = MIN_OVERLAP_RATIO + 
-                (MAX_OVERLAP_RATIO - MIN_OVERLAP_RATIO) * 
-                (totalMessages - 200) / 600.0;
-        } else {
-            // 大量消息：使用最大重叠
-            baseOverlapRatio = MAX_OVERLAP_RATIO;
+    private String removeCarrySection(String batchResult) {
+        int start = batchResult.indexOf(AnalysisPromptBuilder.CARRY_SECTION_TITLE);
+        if (start < 0) {
+            return batchResult;
         }
+        int end = batchResult.indexOf(CARRY_SECTION_END, start + AnalysisPromptBuilder.CARRY_SECTION_TITLE.length());
+        String rest = end < 0 ? "" : batchResult.substring(end + 1);
+        return (batchResult.substring(0, start) + rest).trim();
+    }
+
+    /**
+     * 响应式处理单个批次，可重试的错误按退避策略重试，最终失败时返回失败的批次而不中断整体分析
+     */
+    private Mono<BatchOutcome> processBatchReactive(MessageColumns.Slice batch, int batchIndex, int totalBatches,
+                                                    String apiKey, String model, String checkpointScope,
+                                                    AnalysisProgressListener listener) {
+        String prompt = analysisPromptBuilder.batchPrompt(batch, batchIndex, totalBatches);
         
-        // 由于并发数只有2，增加重叠度以确保更好的连续性
-        baseOverlapRatio = Math.min(MAX_OVERLAP_RATIO, baseOverlapRatio * 1.2);
-        
-        // 计算重叠大小
-        int overlapSize = (int) Math.round(BATCH_SIZE * baseOverlapRatio);
-        
-        // 确保重叠大小在合理范围内
-        overlapSize = Math.max(MIN_OVERLAP_SIZE, Math.min(MAX_OVERLAP_SIZE, overlapSize));
-        
-        // 确保重叠大小不超过批次大小的70%（允许更大重叠）
-        overlapSize = Math.min(overlapSize, (int)(BATCH_SIZE * 0.7));
-        
-        log.info("动态重叠计算 - 总消息: {}, 基础重叠比例: {:.2f}, 最终重叠大小: {} (并发数: {})", 
-                totalMessages, baseOverlapRatio, overlapSize, CONCURRENT_THREADS);
+        Mono<String> call = Mono.defer(() -> {
+                    log.info("开始处理第 {} 批，包含 {} 条消息", batchIndex, batch.size());
+                    // 相同模型和提示词的批次直接复用缓存结果，不占用调度额度
+                    // 最后几个批次耗时过长时发出对冲请求，不让个别慢请求拖长整体耗时
+                    return llmResponseCache.getOrLoad(model, prompt, () -> llmResilience.hedge(model,
+                            () -> callLLM.callLLMAsync(prompt, apiKey, model)));
+                })
+                .doOnNext(batchResult -> log.info("完成第 {} 批分析，结果长度: {}", batchIndex, batchResult.length()))
+                .retryWhen(llmResilience.retrySpec()
+                        .doBeforeRetry(signal -> {
+                            analysisMetrics.recordRetry(model, "batch");
+                            log.warn("第 {} 批处理失败，准备第 {} 次重试: {}",
+                                    batchIndex, signal.totalRetries() + 1, signal.failure().getMessage());
+                        }));
         
-        return overlapSize;
+        return checkpointed(checkpointScope, batch, batchIndex, prompt, call)
+                .map(batchResult -> BatchOutcome.succeeded(batch, batchResult))
+                .onErrorResume(e -> batchFailed(checkpointScope, batch, batchIndex, prompt, e))
+                .doOnNext(outcome -> listener.onProgress(outcome.progress(batchIndex, totalBatches)));
     }
-    
+
     /**
-     * 处理批次并支持重试机制
+     * 已有成功检查点的批次直接返回记录的结果，否则调用LLM并在成功后立即写入检查点
      */
-    private String processBatchWithRetry(List<String> batch, int batchIndex, int totalBatches) {
-        return processBatchWithRetry(batch, batchIndex, totalBatches, null, null);
+    private Mono<String> checkpointed(String checkpointScope, MessageColumns.Slice batch, int batchIndex, String prompt,
+                                      Mono<String> call) {
+        return Mono.fromCallable(() -> batchCheckpointStore.findSucceeded(checkpointScope, batch, prompt))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(checkpoint -> {
+                    log.info("第 {} 批已有检查点，直接复用结果", batchIndex);
+                    return checkpoint.getResult();
+                })
+                .switchIfEmpty(call.flatMap(batchResult -> Mono.fromCallable(() -> {
+                            batchCheckpointStore.saveSucceeded(checkpointScope, batch, batchIndex, prompt, batchResult);
+                            return batchResult;
+                        })
+                        .subscribeOn(Schedulers.boundedElastic())));
     }
 
     /**
-     * 处理批次并支持重试机制（使用自定义API Key和模型）
+     * 批次最终失败：记入检查点，返回失败的批次
      */
-    private String processBatchWithRetry(List<String> batch, int batchIndex, int totalBatches, String apiKey, String model) {
-        int retryCount = 0;
-        
-        while (retryCount < MAX_RETRY_ATTEMPTS) {
-            try {
-                log.info("线程 {} 开始处理第 {} 批，包含 {} 条消息 (重试次数: {})", 
-                        Thread.currentThread().getName(), batchIndex, batch.size(), retryCount);
-                
-                String batchContent = String.join("\n", batch);
-                String prompt = createDetailedAnalysisPrompt(batchContent, batchIndex, totalBatches);
-                
-                // 添加随机延迟，避免同时调用
-                if (retryCount > 0) {
-                    long delay = API_CALL_DELAY_MS + (long)(Math.random() * 1000);
-                    Thread.sleep(delay);
-                    log.info("重试前等待 {} ms", delay);
-                }
-                
-                String batchResult = callLLM.callLLM(prompt, apiKey, model);
-                
-                log.info("线程 {} 完成第 {} 批分析，结果长度: {}", 
-                        Thread.currentThread().getName(), batchIndex, batchResult.length());
-                
-                return batchResult;
-                
-            } catch (Exception e) {
-                retryCount++;
-                log.error("线程 {} 处理第 {} 批时发生错误 (重试 {}/{}): {}", 
-                        Thread.currentThread().getName(), batchIndex, retryCount, MAX_RETRY_ATTEMPTS, e.getMessage());
-                
-                if (retryCount >= MAX_RETRY_ATTEMPTS) {
-                    return "批次 " + batchIndex + " 分析失败（已重试" + MAX_RETRY_ATTEMPTS + "次）：" + e.getMessage();
-                }
-                
-                // 重试前等待更长时间
-                try {
-                    Thread.sleep(API_CALL_DELAY_MS * retryCount);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    return "批次 " + batchIndex + " 处理被中断";
-                }
-            }
+    private Mono<BatchOutcome> batchFailed(String checkpointScope, MessageColumns.Slice batch, int batchIndex,
+                                           String prompt, Throwable e) {
+        String error = batchFailure(batchIndex, e);
+        return Mono.fromCallable(() -> {
+                    batchCheckpointStore.saveFailed(checkpointScope, batch, batchIndex, prompt, error);
+                    return BatchOutcome.failed(batch, error);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 批次最终失败时的说明，写入批次结果
+     */
+    private String batchFailure(int batchIndex, Throwable e) {
+        if (Exceptions.isRetryExhausted(e)) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.error("第 {} 批处理失败（已重试{}次）: {}", batchIndex, llmResilience.maxAttempts(), cause.getMessage());
+            return "批次 " + batchIndex + " 分析失败（已重试" + llmResilience.maxAttempts() + "次）：" + cause.getMessage();
         }
-        
-        return "批次 " + batchIndex + " 处理失败";
+        log.error("第 {} 批处理失败: {}", batchIndex, e.getMessage());
+        return "批次 " + batchIndex + " 分析失败：" + e.getMessage();
     }
 
     /**
-     * 合并和压缩结果
+     * 将消息列表按模型的token预算分割成重叠批次
+     * 重叠部分按token计算，确保上下文连续性
      */
-    private String mergeAndCompressResults(List<String> batchResults) {
-        log.info("开始合并 {} 批分析结果", batchResults.size());
+    private List<MessageColumns.Slice> splitIntoTokenBatches(MessageColumns columns, int[] textRows, String model) {
+        List<MessageColumns.Slice> batches = new ArrayList<>();
         
-        String mergedContent = String.join("\n\n=== 批次分隔 ===\n\n", batchResults);
-        
-        // 如果合并后的内容太长，需要进一步压缩
-        if (mergedContent.length() > MAX_TOKENS * 3) { // 估算字符数
-            log.info("合并内容过长，进行压缩，长度: {}", mergedContent.length());
-            return callLLM.compressContent(mergedContent);
+        for (BatchRange range : tokenBatchBuilder.build(columns, textRows, model)) {
+            log.info("生成批次 {}: 索引范围 [{}, {}), 消息数量: {}, 估算token: {}", 
+                    batches.size() + 1, range.getStart(), range.getEnd(), range.size(), range.getTokens());
+            batches.add(columns.slice(textRows, range.getStart(), range.getEnd()));
         }
         
-        return mergedContent;
+        return batches;
+    }
+    
+    /**
+     * 合并结果，超出合并预算时逐层归并
+     */
+    private String mergeAndCompressResults(List<String> batchResults, String apiKey, String model) {
+        log.info("开始合并 {} 批分析结果", batchResults.size());
+        return summaryTreeReducer.reduce(batchResults, apiKey, model, AnalysisProgressListener.NONE).block();
+    }
+
+    /**
+     * 合并结果，超出合并预算时逐层归并（非阻塞版本）
+     */
+    private Mono<String> mergeAndCompressResultsReactive(List<String> batchResults, String apiKey, String model,
+                                                         AnalysisProgressListener listener) {
+        log.info("开始合并 {} 批分析结果", batchResults.size());
+        return summaryTreeReducer.reduce(batchResults, apiKey, model, listener);
     }
 
     /**
@@ -395,108 +966,23 @@ public class AnalyzeService {
     private String generateFinalReport(String analysisResult, String friendName, String apiKey, String model) {
         log.info("生成最终报告");
         
-        String prompt = createFinalReportPrompt(analysisResult, friendName);
-        return callLLM.callLLM(prompt, apiKey, model);
-    }
-
-    /**
-     * 创建详细的分析提示词（支持重叠批次）
-     */
-    private String createDetailedAnalysisPrompt(String chatContent, int batchIndex, int totalBatches) {
-        return String.format(
-            "你是一位专业的聊天记录分析师，请对以下聊天记录片段进行深入分析。\n\n" +
-            "当前分析：第 %d/%d 批（重叠批次分析）\n" +
-            "注意：此批次可能与前后批次有重叠内容，请重点关注本批次的核心内容，同时考虑上下文连续性。\n\n" +
-            "分析要求：\n" +
-            "1. **对话主题识别**：识别这段对话的主要话题、讨论内容、事件背景\n" +
-            "2. **情感状态分析**：分析双方在这段对话中的情绪状态、情感表达、态度倾向\n" +
-            "3. **沟通模式观察**：观察双方的沟通方式、语言风格、互动模式\n" +
-            "4. **关系动态分析**：分析这段对话中体现的两人关系特征、亲密度、信任度\n" +
-            "5. **关键信息提取**：提取重要的时间节点、关键事件、情感转折点\n" +
-            "6. **潜在问题识别**：识别可能存在的沟通问题、情感冲突、关系隐患\n" +
-            "7. **上下文连续性**：注意与前后对话的连贯性，避免重复分析重叠部分\n\n" +
-            "输出格式：\n" +
-            "## 对话主题\n" +
-            "[详细描述对话的主要内容和背景]\n\n" +
-            "## 情感状态\n" +
-            "- 对方情感：[分析对方的情感状态和表达]\n" +
-            "- 我的情感：[分析我的情感状态和表达]\n\n" +
-            "## 沟通特点\n" +
-            "[分析双方的沟通方式和互动模式]\n\n" +
-            "## 关系体现\n" +
-            "[分析这段对话体现的关系特征]\n\n" +
-            "## 关键信息\n" +
-            "[提取的重要信息和时间节点]\n\n" +
-            "## 潜在问题\n" +
-            "[识别的问题和隐患]\n\n" +
-            "## 上下文连续性\n" +
-            "[简要说明与前后对话的连贯性]\n\n" +
-            "聊天记录：\n%s",
-            batchIndex, totalBatches, chatContent
-        );
-    }
-
-    /**
-     * 创建最终报告提示词
-     */
-    private String createFinalReportPrompt(String analysisResult, String friendName) {
-        return String.format(
-            "你是一位资深的心理咨询师和人际关系专家，请基于以下多批次聊天分析结果，生成一份专业、全面、深入的聊天关系分析报告。\n\n" +
-            "报告要求：\n" +
-            "1. **关系类型判断**：基于聊天内容、互动模式、情感表达，准确判断两人的关系类型（情侣、朋友、同事、家人等）\n" +
-            "2. **关系质量评估**：评估关系的健康度、稳定性、发展潜力\n" +
-            "3. **情感态度分析**：深入分析双方对彼此的真实情感态度、依赖程度、期望值\n" +
-            "4. **沟通模式诊断**：诊断双方的沟通模式、表达方式、理解能力\n" +
-            "5. **问题识别与建议**：识别关系中存在的问题，提供具体的改进建议\n" +
-            "6. **发展建议**：为关系发展提供专业建议\n\n" +
-            "报告结构：\n" +
-            "=== 聊天关系分析报告 ===\n" +
-            "分析对象：%s\n" +
-            "分析时间：%s\n" +
-            "分析师：AI心理咨询师\n\n" +
-            "## 关系类型判断\n" +
-            "### 关系类型\n" +
-            "[明确判断关系类型，并说明判断依据]\n\n" +
-            "### 关系特征\n" +
-            "[详细描述关系的特征、模式、特点]\n\n" +
-            "### 关系质量评估\n" +
-            "[评估关系的健康度、稳定性、满意度]\n\n" +
-            "## 情感态度深度分析\n" +
-            "### 对方对\"我\"的情感态度\n" +
-            "- 情感依赖度：[分析依赖程度]\n" +
-            "- 信任程度：[分析信任水平]\n" +
-            "- 期望值：[分析对关系的期望]\n" +
-            "- 情感表达方式：[分析情感表达的特点]\n\n" +
-            "### \"我\"对对方的情感态度\n" +
-            "- 情感投入度：[分析情感投入程度]\n" +
-            "- 关心程度：[分析关心和重视程度]\n" +
-            "- 包容度：[分析包容和理解程度]\n" +
-            "- 情感表达方式：[分析情感表达的特点]\n\n" +
-            "## 沟通模式诊断\n" +
-            "### 沟通特点\n" +
-            "[分析双方的沟通方式、语言风格、表达习惯]\n\n" +
-            "### 沟通效果\n" +
-            "[评估沟通的有效性、理解度、共鸣度]\n\n" +
-            "### 沟通问题\n" +
-            "[识别沟通中存在的问题和障碍]\n\n" +
-            "## 问题识别与改进建议\n" +
-            "### 主要问题\n" +
-            "[识别关系中的主要问题和隐患]\n\n" +
-            "### 改进建议\n" +
-            "#### 对\"我\"的建议\n" +
-            "[针对\"我\"的具体改进建议]\n\n" +
-            "#### 对对方的建议\n" +
-            "[针对对方的建议（如果适用）]\n\n" +
-            "#### 关系发展建议\n" +
-            "[对关系发展的整体建议]\n\n" +
-            "## 总结\n" +
-            "[对整体关系的总结和展望]\n\n" +
-            "=== 报告结束 ===\n\n" +
-            "分析数据：\n%s",
-            friendName,
-            LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")),
-            analysisResult
-        );
+        String prompt = analysisPromptBuilder.finalReportPrompt(analysisResult, friendName);
+        return callLLM.callLLMAsync(prompt, apiKey, model).block();
+    }
+
+    /**
+     * 生成最终报告（非阻塞版本）
+     * 
+     * 以流式方式调用LLM，每收到一段内容就作为REPORT事件通知listener，结束后返回完整报告。
+     */
+    private Mono<String> generateFinalReportReactive(String analysisResult, String friendName, String apiKey, String model,
+                                                     AnalysisProgressListener listener) {
+        log.info("生成最终报告（流式）");
+        
+        String prompt = analysisPromptBuilder.finalReportPrompt(analysisResult, friendName);
+        return callLLM.streamLLM(prompt, apiKey, model)
+                .doOnNext(chunk -> listener.onProgress(AnalysisProgress.report(chunk)))
+                .collect(Collectors.joining());
     }
 
     /**
@@ -525,4 +1011,35 @@ public class AnalyzeService {
             return null;
         }
     }
+
+    /**
+     * 单个批次的结果：成功时为分析结果，失败时为失败说明
+     */
+    private static final class BatchOutcome {
+        private final String result;
+        private final String error;
+        private final long firstCreateTime;
+        private final long lastCreateTime;
+
+        private BatchOutcome(MessageColumns.Slice batch, String result, String error) {
+            this.result = result;
+            this.error = error;
+            this.firstCreateTime = batch.columns().createTime(batch.row(0));
+            this.lastCreateTime = batch.columns().createTime(batch.row(batch.size() - 1));
+        }
+
+        private static BatchOutcome succeeded(MessageColumns.Slice batch, String result) {
+            return new BatchOutcome(batch, result, null);
+        }
+
+        private static BatchOutcome failed(MessageColumns.Slice batch, String error) {
+            return new BatchOutcome(batch, null, error);
+        }
+
+        private AnalysisProgress progress(int batchIndex, int totalBatches) {
+            return error == null
+                    ? AnalysisProgress.batch(batchIndex, totalBatches, result)
+                    : AnalysisProgress.batchFailed(batchIndex, totalBatches, error);
+        }
+    }
 }
@@ -0,0 +1,182 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.BatchCheckpoint;
+import com.emotest.emoAgent.model.MessageColumns;
+import com.google.gson.Gson;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 批次检查点存储
+ *
+ * 每次分析（数据路径、好友、筛选条件、模型）一个目录，每个批次完成或最终失败时
+ * 立即写入一个JSON文件，文件名为批次的消息范围（首末消息的创建时间和服务器ID）。
+ * 分析中途失败、部分批次失败或进程重启后，再次分析同一好友时已成功的批次直接复用，
+ * 只重新处理缺失和失败的批次；所有批次都成功并保存分析状态后清除检查点。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class BatchCheckpointStore {
+
+    private static final String SUFFIX = ".json";
+
+    private final Gson gson = new Gson();
+
+    @Value("${analysis.checkpoint.enabled:true}")
+    private boolean enabled;
+
+    @Value("${analysis.checkpoint.dir:state/checkpoints}")
+    private String checkpointDir;
+
+    /**
+     * 一次分析的检查点范围
+     *
+     * @param dataPath 微信数据路径
+     * @param friendName 好友姓名
+     * @param filter 筛选条件（MessageFilter.conditionKey()），为空表示无条件
+     * @param model 模型名称
+     * @return 范围标识，未启用时返回null
+     */
+    public String scope(String dataPath, String friendName, String filter, String model) {
+        if (!enabled) {
+            return null;
+        }
+        MessageDigest digest = sha256();
+        for (String part : new String[]{dataPath, friendName, filter, model}) {
+            digest.update((part != null ? part : "").getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 查找批次已成功的检查点
+     *
+     * @param scope 范围标识，为空时不查找
+     * @param batch 批次
+     * @param prompt 本次的提示词，与记录时不同则视为没有检查点
+     * @return 成功的检查点，没有时返回null
+     */
+    public BatchCheckpoint findSucceeded(String scope, MessageColumns.Slice batch, String prompt) {
+        if (scope == null) {
+            return null;
+        }
+        Path file = checkpointFile(scope, batch);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            BatchCheckpoint checkpoint = gson.fromJson(Files.readString(file, StandardCharsets.UTF_8), BatchCheckpoint.class);
+            if (checkpoint.getStatus() != BatchCheckpoint.Status.SUCCEEDED
+                    || !promptHash(prompt).equals(checkpoint.getPromptHash())) {
+                return null;
+            }
+            return checkpoint;
+        } catch (Exception e) {
+            log.warn("读取批次检查点失败，将重新分析该批次: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 记录批次成功
+     */
+    public void saveSucceeded(String scope, MessageColumns.Slice batch, int batchIndex, String prompt, String result) {
+        save(scope, batch, batchIndex, prompt, BatchCheckpoint.Status.SUCCEEDED, result, null);
+    }
+
+    /**
+     * 记录批次最终失败
+     */
+    public void saveFailed(String scope, MessageColumns.Slice batch, int batchIndex, String prompt, String error) {
+        save(scope, batch, batchIndex, prompt, BatchCheckpoint.Status.FAILED, null, error);
+    }
+
+    /**
+     * 清除一次分析的所有检查点
+     *
+     * @param scope 范围标识，为空时忽略
+     */
+    public void clear(String scope) {
+        if (scope == null) {
+            return;
+        }
+        Path dir = Paths.get(checkpointDir, scope);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+            log.info("分析已完成，清除批次检查点: {}", dir);
+        } catch (IOException e) {
+            log.warn("清除批次检查点失败: {}", e.getMessage());
+        }
+    }
+
+    private void save(String scope, MessageColumns.Slice batch, int batchIndex, String prompt,
+                      BatchCheckpoint.Status status, String result, String error) {
+        if (scope == null) {
+            return;
+        }
+        MessageColumns columns = batch.columns();
+        int first = batch.row(0);
+        int last = batch.row(batch.size() - 1);
+        BatchCheckpoint checkpoint = new BatchCheckpoint(batchIndex,
+                columns.createTime(first), columns.msgSvrId(first),
+                columns.createTime(last), columns.msgSvrId(last),
+                batch.size(), promptHash(prompt), status, result, error, System.currentTimeMillis());
+
+        Path file = checkpointFile(scope, batch);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.writeString(tmp, gson.toJson(checkpoint), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 检查点只用于续跑，写入失败不影响本次分析
+            log.warn("保存第 {} 批检查点失败: {}", batchIndex, e.getMessage());
+        }
+    }
+
+    /**
+     * 检查点文件，按批次首末消息的 (创建时间, 服务器ID) 命名
+     */
+    private Path checkpointFile(String scope, MessageColumns.Slice batch) {
+        MessageColumns columns = batch.columns();
+        int first = batch.row(0);
+        int last = batch.row(batch.size() - 1);
+        String range = columns.createTime(first) + "-" + columns.msgSvrId(first)
+                + "_" + columns.createTime(last) + "-" + columns.msgSvrId(last);
+        return Paths.get(checkpointDir, scope, range + SUFFIX);
+    }
+
+    private static String promptHash(String prompt) {
+        return HexFormat.of().formatHex(sha256().digest(prompt.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.AnalysisProgress;
+import com.emotest.emoAgent.model.BulkAnalysisResult;
+import com.emotest.emoAgent.model.Contact;
+import com.emotest.emoAgent.model.ContactReport;
+import com.emotest.emoAgent.model.MessageFilter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多联系人批量分析服务
+ *
+ * 一次请求分析多个联系人：按姓名列表指定，或按消息数选出最活跃的前N个单聊联系人。
+ * 所有联系人共用同一份联系人索引和SQLite只读连接池，不会为每个联系人重新打开数据库；
+ * 各联系人的LLM请求进入同一个调度队列，优先级排在交互式分析之后，
+ * 且排名靠前的联系人先出队，使报告按顺序陆续完成而不是全部拖到最后。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Service
+@Log4j2
+public class BulkAnalysisService {
+
+    private static final int TEXT_MESSAGE_TYPE = 1;
+
+    @Autowired
+    private AnalyzeService analyzeService;
+
+    @Autowired
+    private LoadChatMsgUtil loadChatMsgUtil;
+
+    @Value("${analysis.bulk.max-contacts:50}")
+    private int maxContacts;
+
+    @Value("${analysis.bulk.contact-concurrency:4}")
+    private int contactConcurrency;
+
+    /**
+     * 批量分析
+     *
+     * @param dataPath 微信数据路径
+     * @param friendNames 好友姓名列表，与topN二选一
+     * @param topN 按消息数选取最活跃的前N个单聊联系人
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param incremental 是否只分析上次报告之后的新消息
+     * @param filter 筛选条件，同时用于统计活跃度和分析
+     * @return 各联系人的分析结果
+     * @throws IllegalArgumentException 没有指定联系人、联系人数超过上限或姓名匹配到多个联系人
+     */
+    public Mono<BulkAnalysisResult> analyze(String dataPath, List<String> friendNames, Integer topN, String apiKey,
+                                            String model, boolean incremental, MessageFilter filter) {
+        boolean byName = friendNames != null && !friendNames.isEmpty();
+        if (!byName && (topN == null || topN <= 0)) {
+            throw new IllegalArgumentException("需要指定 friendNames 或 topN");
+        }
+        int requested = byName ? friendNames.size() : topN;
+        if (requested > maxContacts) {
+            throw new IllegalArgumentException("一次最多分析 " + maxContacts + " 个联系人");
+        }
+
+        // 按姓名指定时先确定联系人，有姓名匹配到多个联系人时直接拒绝请求
+        List<Target> named = byName ? targetsByName(dataPath, friendNames) : null;
+
+        long start = System.nanoTime();
+        return Mono.fromCallable(() -> named != null ? named : targetsByActivity(dataPath, topN, filter))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(Flux::fromIterable)
+                .flatMap(target -> analyzeTarget(dataPath, target, apiKey, model, incremental, filter)
+                                .contextWrite(LlmDispatchScheduler.withPriority(LlmDispatchScheduler.BULK_PRIORITY + target.rank)),
+                        Math.max(1, contactConcurrency))
+                .collectList()
+                .map(reports -> {
+                    reports.sort(Comparator.comparingInt(r -> r.rank));
+                    BulkAnalysisResult result = new BulkAnalysisResult();
+                    reports.forEach(r -> result.getReports().add(r.report));
+                    int succeeded = (int) reports.stream()
+                            .filter(r -> r.report.getStatus() == ContactReport.Status.SUCCEEDED)
+                            .count();
+                    result.setSucceeded(succeeded);
+                    result.setFailed(reports.size() - succeeded);
+                    result.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    log.info("批量分析完成，联系人: {}, 成功: {}, 耗时: {}ms",
+                            reports.size(), succeeded, result.getElapsedMs());
+                    return result;
+                });
+    }
+
+    /**
+     * 按完整姓名查找联系人
+     */
+    private List<Target> targetsByName(String dataPath, List<String> friendNames) {
+        List<Target> targets = new ArrayList<>();
+        // 重复的姓名只分析一次
+        for (String friendName : new LinkedHashSet<>(friendNames)) {
+            List<Contact> contacts = loadChatMsgUtil.findContacts(dataPath, friendName);
+            targets.add(new Target(targets.size(), friendName, contacts, null));
+        }
+        return targets;
+    }
+
+    /**
+     * 统计各联系人满足条件的文字消息数，选出最活跃的前N个单聊联系人（不含群聊和公众号）
+     */
+    private List<Target> targetsByActivity(String dataPath, int topN, MessageFilter filter) {
+        MessageFilter conditions = filter != null
+                ? new MessageFilter(filter.getStartTime(), filter.getEndTime(), List.of(TEXT_MESSAGE_TYPE), filter.getIsSender())
+                : new MessageFilter(null, null, List.of(TEXT_MESSAGE_TYPE), null);
+        Map<String, Long> counts = loadChatMsgUtil.countMessagesByTalker(dataPath, conditions);
+
+        List<Target> targets = new ArrayList<>();
+        Map<String, Integer> labelCounts = new HashMap<>();
+        counts.entrySet().stream()
+                .filter(e -> isPrivateChat(e.getKey()))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> {
+                    if (targets.size() >= topN) {
+                        return;
+                    }
+                    Contact contact = loadChatMsgUtil.findContactByUserName(dataPath, e.getKey());
+                    if (contact != null) {
+                        targets.add(new Target(targets.size(), displayName(contact), List.of(contact), e.getValue()));
+                        labelCounts.merge(displayName(contact), 1, Integer::sum);
+                    }
+                });
+
+        // 备注和昵称可能重名，重名时附上用户名，避免报告和分析状态互相覆盖
+        Set<String> duplicated = new LinkedHashSet<>();
+        labelCounts.forEach((label, count) -> {
+            if (count > 1) {
+                duplicated.add(label);
+            }
+        });
+        List<Target> resolved = new ArrayList<>(targets.size());
+        for (Target target : targets) {
+            String label = duplicated.contains(target.friendName)
+                    ? target.friendName + "(" + target.contacts.get(0).getUserName() + ")"
+                    : target.friendName;
+            resolved.add(new Target(target.rank, label, target.contacts, target.messageCount));
+        }
+        log.info("按活跃度选取 {} 个联系人: {}", resolved.size(), resolved.stream().map(t -> t.friendName).toList());
+        return resolved;
+    }
+
+    private Mono<RankedReport> analyzeTarget(String dataPath, Target target, String apiKey, String model,
+                                             boolean incremental, MessageFilter filter) {
+        ContactReport report = new ContactReport();
+        report.setFriendName(target.friendName);
+        report.setUserNames(target.contacts.stream().map(Contact::getUserName).toList());
+        report.setMessageCount(target.messageCount);
+        if (target.contacts.isEmpty()) {
+            report.setStatus(ContactReport.Status.NOT_FOUND);
+            report.setError("未找到指定好友");
+            return Mono.just(new RankedReport(target.rank, report));
+        }
+
+        long start = System.nanoTime();
+        AtomicReference<String> failure = new AtomicReference<>();
+        AnalysisProgressListener listener = progress -> {
+            if (progress.getType() == AnalysisProgress.Type.FAILED) {
+                failure.set(progress.getContent());
+            }
+        };
+        log.info("批量分析第 {} 个联系人: {}", target.rank + 1, target.friendName);
+        return analyzeService.analyzeContactsReactive(dataPath, target.friendName, target.contacts, apiKey, model,
+                        incremental, filter, listener)
+                .map(result -> {
+                    if (failure.get() != null) {
+                        report.setStatus(ContactReport.Status.FAILED);
+                        report.setError(failure.get());
+                    } else {
+                        report.setStatus(ContactReport.Status.SUCCEEDED);
+                        report.setReport(result);
+                    }
+                    report.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    return new RankedReport(target.rank, report);
+                });
+    }
+
+    private static boolean isPrivateChat(String userName) {
+        return !userName.endsWith("@chatroom") && !userName.startsWith("gh_");
+    }
+
+    private static String displayName(Contact contact) {
+        if (contact.getReMark() != null && !contact.getReMark().isBlank()) {
+            return contact.getReMark();
+        }
+        if (contact.getNickName() != null && !contact.getNickName().isBlank()) {
+            return contact.getNickName();
+        }
+        return contact.getUserName();
+    }
+
+    /**
+     * 待分析的联系人，rank为结果中的位置，同时决定调度优先级
+     */
+    private static final class Target {
+        private final int rank;
+        private final String friendName;
+        private final List<Contact> contacts;
+        private final Long messageCount;
+
+        private Target(int rank, String friendName, List<Contact> contacts, Long messageCount) {
+            this.rank = rank;
+            this.friendName = friendName;
+            this.contacts = contacts;
+            this.messageCount = messageCount;
+        }
+    }
+
+    private static final class RankedReport {
+        private final int rank;
+        private final ContactReport report;
+
+        private RankedReport(int rank, ContactReport report) {
+            this.rank = rank;
+            this.report = report;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.emotest.emoAgent.service.analyzeChatMsg;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 /**
  * LLM调用服务接口
  * 
@@ -33,4 +36,37 @@ public interface CallLLM {
      * @return 压缩后的内容
      */
     String compressContent(String content);
+
+    /**
+     * 非阻塞调用LLM进行分析（使用自定义API Key和模型）
+     * 
+     * @param prompt 提示词
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @return LLM响应结果，订阅后先经过限流和调度队列再发起请求
+     */
+    Mono<String> callLLMAsync(String prompt, String apiKey, String model);
+
+    /**
+     * 非阻塞调用LLM进行压缩总结（使用自定义API Key和模型）
+     * 
+     * @param content 需要压缩的内容
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @return 压缩后的内容
+     */
+    Mono<String> compressContentAsync(String content, String apiKey, String model);
+
+    /**
+     * 流式调用LLM（使用自定义API Key和模型）
+     * 
+     * 使用DashScope的SSE增量输出，每收到一段新生成的内容就发出一次，
+     * 所有片段按顺序拼接即为完整结果。
+     * 
+     * @param prompt 提示词
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @return 增量内容片段，订阅后先经过限流和调度队列再发起请求
+     */
+    Flux<String> streamLLM(String prompt, String apiKey, String model);
 }
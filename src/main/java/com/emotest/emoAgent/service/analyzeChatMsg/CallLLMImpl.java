@@ -1,20 +1,40 @@
 package com.emotest.emoAgent.service.analyzeChatMsg;
 
-import com.emotest.emoAgent.model.OpenAIResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Service
 public class CallLLMImpl implements CallLLM {
 
-    private final WebClient webClient;
+    // 收到429时最多按Retry-After重试的次数
+    private static final int MAX_RATE_LIMIT_RETRIES = 3;
+
+    // 429响应未携带Retry-After时的默认等待时长
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(5);
+
+    private final LlmRateLimiter rateLimiter;
+
+    private final TokenEstimator tokenEstimator;
+
+    private final AnalysisMetrics analysisMetrics;
+
+    private final LlmResilience resilience;
+
+    private final LlmProviderRegistry providerRegistry;
+
+    private final LlmDispatchScheduler dispatchScheduler;
 
     @Value("${dashscope.api-key}")
     private String apiKey;
@@ -22,11 +42,15 @@ public class CallLLMImpl implements CallLLM {
     @Value("${dashscope.model}")
     private String model;
 
-    @Value("${dashscope.url}")
-    private String url;
-
-    public CallLLMImpl(WebClient webClient) {
-        this.webClient = webClient;
+    public CallLLMImpl(LlmProviderRegistry providerRegistry, LlmDispatchScheduler dispatchScheduler,
+                       LlmRateLimiter rateLimiter, TokenEstimator tokenEstimator,
+                       AnalysisMetrics analysisMetrics, LlmResilience resilience) {
+        this.providerRegistry = providerRegistry;
+        this.dispatchScheduler = dispatchScheduler;
+        this.rateLimiter = rateLimiter;
+        this.tokenEstimator = tokenEstimator;
+        this.analysisMetrics = analysisMetrics;
+        this.resilience = resilience;
     }
 
     @Override
@@ -37,62 +61,133 @@ public class CallLLMImpl implements CallLLM {
     @Override
     public String callLLM(String prompt, String customApiKey, String customModel) {
         try {
-            String useApiKey = customApiKey != null ? customApiKey : apiKey;
-            String useModel = customModel != null ? customModel : model;
-            
-            log.info("调用DashScope API，模型: {}", useModel);
-            
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", useModel);
-            
-            Map<String, Object> input = new HashMap<>();
-            input.put("messages", new Object[]{
-                Map.of("role", "user", "content", prompt)
-            });
-            requestBody.put("input", input);
-            
-            requestBody.put("parameters", Map.of("result_format", "message"));
-
-            log.info("发送请求到: {}", url);
-            log.debug("请求体: {}", requestBody);
-
-            String response = webClient.post()
-                    .uri(url)
-                    .header("Authorization", "Bearer " + useApiKey)
-                    .header("Content-Type", "application/json")
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            log.info("收到响应，长度: {}", response != null ? response.length() : 0);
-            log.debug("响应内容: {}", response);
-
-            // 解析DashScope响应
-            com.google.gson.JsonObject jsonResponse = new com.google.gson.JsonParser().parse(response).getAsJsonObject();
-            String result = jsonResponse.getAsJsonObject("output")
-                    .getAsJsonArray("choices")
-                    .get(0)
-                    .getAsJsonObject()
-                    .getAsJsonObject("message")
-                    .get("content")
-                    .getAsString();
-            log.info("解析后的结果: {}", result);
-            
-            return result;
-
+            return callLLMAsync(prompt, customApiKey, customModel).block();
         } catch (Exception e) {
-            log.error("调用DashScope API失败", e);
-            throw new RuntimeException("调用DashScope API失败: " + e.getMessage(), e);
+            log.error("调用LLM失败", e);
+            throw new RuntimeException("调用LLM失败: " + e.getMessage(), e);
         }
     }
 
+    @Override
+    public Mono<String> callLLMAsync(String prompt, String customApiKey, String customModel) {
+        String useModel = customModel != null ? customModel : model;
+        LlmProvider provider = providerRegistry.forModel(useModel);
+        String useApiKey = resolveApiKey(provider, customApiKey);
+
+        Mono<String> request = Mono.defer(() -> {
+            log.info("调用 {}，模型: {}", provider.name(), useModel);
+
+            long start = System.nanoTime();
+            // 熔断时直接失败，超时按该模型最近的调用耗时计算
+            return resilience.guard(useModel, provider.call(prompt, useApiKey, useModel))
+                    .doOnSuccess(body -> analysisMetrics.recordLlmCall(useModel, "blocking", "success", System.nanoTime() - start))
+                    .doOnError(e -> analysisMetrics.recordLlmCall(useModel, "blocking", outcomeOf(e), System.nanoTime() - start));
+        });
+
+        // 每次（重）试都先在限流器上等到额度，再排队占用调度额度，被限流的Key等待时不占用并发槽位；
+        // 限流桶和调度器的公平队列都按实际使用的API Key区分；
+        // 429时按Retry-After暂停该Key后再试，429只在这一层重试
+        return rateLimiter.acquire(useApiKey, tokenEstimator.estimate(prompt))
+                .then(dispatchScheduler.submit(useApiKey, () -> request))
+                .doOnError(WebClientResponseException.TooManyRequests.class,
+                        e -> rateLimiter.onRateLimited(useApiKey, parseRetryAfter(e.getHeaders())))
+                .retryWhen(Retry.max(MAX_RATE_LIMIT_RETRIES)
+                        .filter(WebClientResponseException.TooManyRequests.class::isInstance)
+                        .doBeforeRetry(signal -> analysisMetrics.recordRetry(useModel, "rate_limited"))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    @Override
+    public Flux<String> streamLLM(String prompt, String customApiKey, String customModel) {
+        String useModel = customModel != null ? customModel : model;
+        LlmProvider provider = providerRegistry.forModel(useModel);
+        String useApiKey = resolveApiKey(provider, customApiKey);
+
+        Flux<String> request = Flux.defer(() -> {
+            log.info("流式调用 {}，模型: {}", provider.name(), useModel);
+
+            long start = System.nanoTime();
+            return resilience.guardStream(useModel, provider.stream(prompt, useApiKey, useModel))
+                    .doOnComplete(() -> analysisMetrics.recordLlmCall(useModel, "stream", "success", System.nanoTime() - start))
+                    .doOnError(e -> analysisMetrics.recordLlmCall(useModel, "stream", outcomeOf(e), System.nanoTime() - start));
+        });
+
+        // 429只会在响应开始前出现，此时还没有发出任何片段，可以安全地整体重试；
+        // 流式调用在整个输出期间占用一个调度额度
+        return rateLimiter.acquire(useApiKey, tokenEstimator.estimate(prompt))
+                .thenMany(dispatchScheduler.submitMany(useApiKey, () -> request))
+                .doOnError(WebClientResponseException.TooManyRequests.class,
+                        e -> rateLimiter.onRateLimited(useApiKey, parseRetryAfter(e.getHeaders())))
+                .retryWhen(Retry.max(MAX_RATE_LIMIT_RETRIES)
+                        .filter(WebClientResponseException.TooManyRequests.class::isInstance)
+                        .doBeforeRetry(signal -> analysisMetrics.recordRetry(useModel, "rate_limited"))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
     @Override
     public String compressContent(String content) {
-        String prompt = String.format(
+        return callLLM(createCompressPrompt(content));
+    }
+
+    @Override
+    public Mono<String> compressContentAsync(String content, String customApiKey, String customModel) {
+        return callLLMAsync(createCompressPrompt(content), customApiKey, customModel);
+    }
+
+    /**
+     * 提供方配置了自己的API Key时使用它，否则使用请求中的API Key，都没有时使用默认配置
+     */
+    private String resolveApiKey(LlmProvider provider, String customApiKey) {
+        if (provider.apiKey() != null) {
+            return provider.apiKey();
+        }
+        return customApiKey != null ? customApiKey : apiKey;
+    }
+
+    /**
+     * 调用结果分类，用作指标标签
+     */
+    private static String outcomeOf(Throwable e) {
+        if (e instanceof WebClientResponseException.TooManyRequests) {
+            return "rate_limited";
+        }
+        if (e instanceof TimeoutException) {
+            return "timeout";
+        }
+        if (e instanceof LlmResilience.CircuitOpenException) {
+            return "circuit_open";
+        }
+        if (e instanceof WebClientResponseException responseException) {
+            return "http_" + responseException.getStatusCode().value();
+        }
+        return "error";
+    }
+
+    /**
+     * 解析Retry-After响应头，支持秒数和HTTP日期两种格式
+     */
+    static Duration parseRetryAfter(HttpHeaders headers) {
+        String retryAfter = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return DEFAULT_RETRY_AFTER;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime retryAt = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration wait = Duration.between(ZonedDateTime.now(), retryAt);
+                return wait.isNegative() ? Duration.ZERO : wait;
+            } catch (Exception ignored) {
+                return DEFAULT_RETRY_AFTER;
+            }
+        }
+    }
+
+    private String createCompressPrompt(String content) {
+        return String.format(
             "请将以下内容进行压缩总结，保留关键信息，减少冗余内容，但保持逻辑完整性：\n\n%s",
             content
         );
-        return callLLM(prompt);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,268 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageColumns;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * 聊天消息格式化
+ *
+ * 把原始消息或列式存储中的一行转换成发送给LLM的单行文本，格式为 "[yyyy-MM-dd HH:mm:ss] 我/对方: 内容"。
+ * 消息直接写入调用方提供的StringBuilder，整批消息可以一次写进预先按长度分配好的缓冲区，
+ * 不为每条消息生成中间字符串。
+ * 时间格式化缓存当天的日期前缀（到下一个零点或时区偏移变化为止有效），
+ * 时分秒按偏移直接计算，聊天记录按时间顺序处理时几乎总能命中缓存。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+public class ChatMessageFormatter {
+
+    private static final int SECONDS_PER_DAY = 86400;
+
+    // "[" + "yyyy-MM-dd HH:mm:ss" + "] " + ": "
+    private static final int FIXED_LENGTH = 1 + 19 + 2 + 2;
+
+    private static final String SELF = "我";
+
+    private static final String OTHER = "对方";
+
+    private final ZoneRules zoneRules;
+
+    private final DateTimeFormatter datePrefixFormatter;
+
+    /**
+     * 最近一次使用的日期前缀，不可变对象整体替换，多线程共享无需加锁
+     */
+    private volatile DayPrefix cachedDay;
+
+    public ChatMessageFormatter() {
+        ZoneId zone = ZoneId.systemDefault();
+        this.zoneRules = zone.getRules();
+        this.datePrefixFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd ").withZone(zone);
+    }
+
+    /**
+     * 是否为需要分析的文字消息（type=1且内容不全是空白）
+     *
+     * @param msg 原始消息
+     * @return 是否为文字消息
+     */
+    public boolean isText(Message msg) {
+        String content = msg.getStrContent();
+        return msg.getType() != null && msg.getType() == 1 && content != null
+                && contentStart(content) < contentEnd(content);
+    }
+
+    /**
+     * 格式化文字消息
+     *
+     * @param msg 原始消息
+     * @return 格式化后的文本，非文字消息或内容为空时返回null
+     */
+    public String format(Message msg) {
+        if (!isText(msg)) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder(formattedLength(msg));
+        appendTo(line, msg);
+        return line.toString();
+    }
+
+    /**
+     * 把一条文字消息追加到out末尾
+     *
+     * @param out 输出缓冲区
+     * @param msg 原始消息
+     * @return 是否追加（非文字消息不追加）
+     */
+    public boolean appendTo(StringBuilder out, Message msg) {
+        if (!isText(msg)) {
+            return false;
+        }
+        String content = msg.getStrContent();
+        out.append('[');
+        appendTime(out, msg.getCreateTime());
+        out.append("] ").append(sender(msg)).append(": ")
+                .append(content, contentStart(content), contentEnd(content));
+        return true;
+    }
+
+    /**
+     * 一条消息格式化后的长度，非文字消息为0
+     *
+     * @param msg 原始消息
+     * @return 字符数
+     */
+    public int formattedLength(Message msg) {
+        if (!isText(msg)) {
+            return 0;
+        }
+        String content = msg.getStrContent();
+        return FIXED_LENGTH + sender(msg).length() + contentEnd(content) - contentStart(content);
+    }
+
+    /**
+     * 把列式存储中的一条文字消息追加到out末尾
+     *
+     * @param out 输出缓冲区
+     * @param columns 消息列存储
+     * @param row 行号，应为文字消息
+     */
+    public void appendTo(StringBuilder out, MessageColumns columns, int row) {
+        out.append('[');
+        appendTime(out, columns.createTime(row));
+        out.append("] ").append(columns.isSender(row) ? SELF : OTHER).append(": ");
+        columns.appendContent(out, row);
+    }
+
+    /**
+     * 列式存储中的一条文字消息格式化后的长度
+     *
+     * @param columns 消息列存储
+     * @param row 行号，应为文字消息
+     * @return 字符数
+     */
+    public int formattedLength(MessageColumns columns, int row) {
+        return FIXED_LENGTH + (columns.isSender(row) ? SELF : OTHER).length() + columns.contentLength(row);
+    }
+
+    /**
+     * 把一批消息按行追加到out末尾
+     *
+     * @param out 输出缓冲区，建议按 {@link #batchLength(MessageColumns.Slice)} 预先分配容量
+     * @param batch 批次视图
+     */
+    public void appendBatch(StringBuilder out, MessageColumns.Slice batch) {
+        MessageColumns columns = batch.columns();
+        for (int k = 0; k < batch.size(); k++) {
+            if (k > 0) {
+                out.append('\n');
+            }
+            appendTo(out, columns, batch.row(k));
+        }
+    }
+
+    /**
+     * 一批消息按行拼接后的长度
+     *
+     * @param batch 批次视图
+     * @return 字符数
+     */
+    public int batchLength(MessageColumns.Slice batch) {
+        MessageColumns columns = batch.columns();
+        int length = Math.max(0, batch.size() - 1);
+        for (int k = 0; k < batch.size(); k++) {
+            length += formattedLength(columns, batch.row(k));
+        }
+        return length;
+    }
+
+    /**
+     * 格式化时间戳
+     *
+     * @param timestamp 秒级时间戳
+     * @return 格式化的时间字符串
+     */
+    public String formatTime(long timestamp) {
+        StringBuilder time = new StringBuilder(19);
+        appendTime(time, timestamp);
+        return time.toString();
+    }
+
+    /**
+     * 把时间戳按 yyyy-MM-dd HH:mm:ss 追加到out末尾
+     *
+     * @param out 输出缓冲区
+     * @param timestamp 秒级时间戳
+     */
+    public void appendTime(StringBuilder out, long timestamp) {
+        DayPrefix day = cachedDay;
+        if (day == null || timestamp < day.validFrom || timestamp >= day.validUntil) {
+            day = dayPrefix(timestamp);
+            cachedDay = day;
+        }
+        int secondOfDay = (int) Math.floorMod(timestamp + day.offsetSeconds, (long) SECONDS_PER_DAY);
+        out.append(day.prefix);
+        appendTwoDigits(out, secondOfDay / 3600);
+        out.append(':');
+        appendTwoDigits(out, secondOfDay / 60 % 60);
+        out.append(':');
+        appendTwoDigits(out, secondOfDay % 60);
+    }
+
+    /**
+     * 计算时间戳所在的本地日期前缀，以及这个前缀和时区偏移同时有效的时间范围
+     */
+    private DayPrefix dayPrefix(long timestamp) {
+        Instant instant = Instant.ofEpochSecond(timestamp);
+        ZoneOffset offset = zoneRules.getOffset(instant);
+        int offsetSeconds = offset.getTotalSeconds();
+        long localDay = Math.floorDiv(timestamp + offsetSeconds, (long) SECONDS_PER_DAY);
+
+        long validFrom = localDay * SECONDS_PER_DAY - offsetSeconds;
+        long validUntil = validFrom + SECONDS_PER_DAY;
+        // 当天发生夏令时等偏移变化时，缓存只在偏移不变的区间内有效
+        ZoneOffsetTransition previous = zoneRules.previousTransition(instant);
+        if (previous != null && previous.toEpochSecond() > validFrom && previous.toEpochSecond() <= timestamp) {
+            validFrom = previous.toEpochSecond();
+        }
+        ZoneOffsetTransition next = zoneRules.nextTransition(instant);
+        if (next != null && next.toEpochSecond() < validUntil && next.toEpochSecond() > timestamp) {
+            validUntil = next.toEpochSecond();
+        }
+        return new DayPrefix(datePrefixFormatter.format(instant), offsetSeconds, validFrom, validUntil);
+    }
+
+    private static String sender(Message msg) {
+        return msg.getIsSender() != null && msg.getIsSender() == 1 ? SELF : OTHER;
+    }
+
+    private static void appendTwoDigits(StringBuilder out, int value) {
+        out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * 与 String.trim() 相同，跳过开头小于等于空格的字符
+     */
+    private static int contentStart(String content) {
+        int start = 0;
+        while (start < content.length() && content.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int contentEnd(String content) {
+        int end = content.length();
+        while (end > 0 && content.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * 某一天的日期前缀 "yyyy-MM-dd "，在 [validFrom, validUntil) 内有效
+     */
+    private static final class DayPrefix {
+        private final String prefix;
+        private final int offsetSeconds;
+        private final long validFrom;
+        private final long validUntil;
+
+        private DayPrefix(String prefix, int offsetSeconds, long validFrom, long validUntil) {
+            this.prefix = prefix;
+            this.offsetSeconds = offsetSeconds;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+        }
+    }
+}
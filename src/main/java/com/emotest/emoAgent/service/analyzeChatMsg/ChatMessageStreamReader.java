@@ -0,0 +1,465 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageFilter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 消息流式读取器
+ *
+ * 自动发现 Multi 目录下所有 MSG*.db 分片，每个分片按 (CreateTime, LocalId)
+ * 做键集分页，再把各分片按时间归并成一个时间正序的消息流。
+ * 各分片的查询在读取线程池中并行执行，并提前预取下一页；
+ * 任意时刻每个分片最多在内存中保留两页数据，不受聊天记录总量影响。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class ChatMessageStreamReader {
+
+    private static final Pattern SHARD_PATTERN = Pattern.compile("MSG(\\d+)\\.db");
+
+    private static final String SELECT_COLUMNS =
+            "SELECT LocalId, MsgSvrID, Type, SubType, IsSender, CreateTime, StrTalker, StrContent FROM MSG ";
+
+    @Value("${chat.reader.page-size:2000}")
+    private int pageSize;
+
+    private final SqliteConnectionPool connectionPool;
+
+    private final AnalysisMetrics analysisMetrics;
+
+    /**
+     * 分片读取线程池，各分片的分页查询在这里并行执行
+     */
+    private final ExecutorService executor;
+
+    public ChatMessageStreamReader(SqliteConnectionPool connectionPool, AnalysisMetrics analysisMetrics,
+                                   @Value("${chat.reader.parallelism:4}") int parallelism) {
+        this.connectionPool = connectionPool;
+        this.analysisMetrics = analysisMetrics;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread thread = new Thread(r, "chat-reader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 发现所有消息分片，按分片编号排序
+     *
+     * @param dataPath 微信数据路径
+     * @return 分片数据库文件列表
+     */
+    public List<File> discoverShards(String dataPath) {
+        File multiDir = new File(dataPath, "Multi");
+        File[] files = multiDir.listFiles((dir, name) -> SHARD_PATTERN.matcher(name).matches());
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<File> shards = new ArrayList<>(List.of(files));
+        shards.sort(Comparator.comparingInt(ChatMessageStreamReader::shardNumber));
+        return shards;
+    }
+
+    /**
+     * 按时间正序流式读取指定联系人的消息
+     *
+     * 返回的Stream持有数据库连接，使用完毕后必须关闭（try-with-resources）。
+     *
+     * @param dataPath 微信数据路径
+     * @param userNames 联系人用户名
+     * @param sinceCreateTime 只读取该位置之后的消息，为空时读取全部
+     * @param sinceMsgSvrId 与sinceCreateTime同一秒的消息中，只读取服务器ID更大的
+     * @return 消息流
+     */
+    public Stream<Message> stream(String dataPath, List<String> userNames, Long sinceCreateTime, Long sinceMsgSvrId) {
+        return stream(dataPath, userNames, sinceCreateTime, sinceMsgSvrId, null);
+    }
+
+    /**
+     * 按时间正序流式读取指定联系人满足筛选条件的消息
+     *
+     * 时间范围、消息类型和发送者都作为 WHERE 条件下推到每个分片的查询中，
+     * 时间范围走 (StrTalker, CreateTime) / CreateTime 索引的范围扫描，不满足条件的消息不会被读出。
+     * 任一分片查询失败时遍历抛出异常，不会跳过该分片继续返回其他分片的消息。
+     *
+     * @param dataPath 微信数据路径
+     * @param userNames 联系人用户名
+     * @param sinceCreateTime 只读取该位置之后的消息，为空时读取全部
+     * @param sinceMsgSvrId 与sinceCreateTime同一秒的消息中，只读取服务器ID更大的
+     * @param filter 筛选条件，为空时不筛选
+     * @return 消息流
+     */
+    public Stream<Message> stream(String dataPath, List<String> userNames, Long sinceCreateTime, Long sinceMsgSvrId,
+                                  MessageFilter filter) {
+        if (userNames.isEmpty()) {
+            return Stream.empty();
+        }
+        MessageFilter conditions = filter != null ? filter : new MessageFilter();
+        List<ShardCursor> cursors = new ArrayList<>();
+        for (File shard : discoverShards(dataPath)) {
+            ShardCursor cursor = new ShardCursor(shard, userNames, sinceCreateTime, sinceMsgSvrId, conditions);
+            // 所有分片的第一页同时开始读取
+            cursor.prefetch();
+            cursors.add(cursor);
+        }
+        log.info("发现 {} 个消息分片: {}", cursors.size(),
+                cursors.stream().map(c -> c.shard.getName()).collect(Collectors.joining(", ")));
+
+        Iterator<Message> iterator = new MergingIterator(cursors);
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> cursors.forEach(ShardCursor::close));
+    }
+
+    /**
+     * 统计各联系人满足筛选条件的消息数
+     *
+     * 各分片并行执行 GROUP BY StrTalker 聚合查询，再把结果相加。
+     * 任一分片查询失败时抛出异常，不返回部分分片的统计结果。
+     *
+     * @param dataPath 微信数据路径
+     * @param filter 筛选条件，为空时统计全部消息
+     * @return 用户名到消息数的映射
+     */
+    public Map<String, Long> countByTalker(String dataPath, MessageFilter filter) {
+        MessageFilter conditions = filter != null ? filter : new MessageFilter();
+        StringBuilder query = new StringBuilder("SELECT StrTalker, COUNT(*) AS Cnt FROM MSG WHERE 1 = 1 ");
+        appendFilterClause(query, conditions);
+        query.append("GROUP BY StrTalker");
+
+        List<CompletableFuture<Map<String, Long>>> futures = new ArrayList<>();
+        for (File shard : discoverShards(dataPath)) {
+            futures.add(CompletableFuture.supplyAsync(() -> countShard(shard, query.toString(), conditions), executor));
+        }
+        Map<String, Long> counts = new HashMap<>();
+        for (CompletableFuture<Map<String, Long>> future : futures) {
+            Map<String, Long> shardCounts;
+            try {
+                shardCounts = future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+            shardCounts.forEach((talker, count) -> counts.merge(talker, count, Long::sum));
+        }
+        return counts;
+    }
+
+    private Map<String, Long> countShard(File shard, String query, MessageFilter filter) {
+        Map<String, Long> counts = new HashMap<>();
+        long start = System.nanoTime();
+        try (SqliteConnectionPool.Lease lease = connectionPool.borrow(shard.getPath());
+             PreparedStatement stmt = lease.connection().prepareStatement(query)) {
+            bindFilter(stmt, 1, filter);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String talker = rs.getString("StrTalker");
+                    if (talker != null) {
+                        counts.merge(talker, rs.getLong("Cnt"), Long::sum);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            // 与读取消息一致，任一分片失败时整体失败，不返回只统计了部分分片的结果
+            throw new IllegalStateException("统计消息数失败: " + shard.getPath(), e);
+        }
+        analysisMetrics.recordSqliteQuery(shard.getName(), System.nanoTime() - start, counts.size());
+        return counts;
+    }
+
+    /**
+     * 把筛选条件追加为 WHERE 子句中的 AND 条件
+     */
+    private static void appendFilterClause(StringBuilder query, MessageFilter filter) {
+        if (filter.getStartTime() != null) {
+            query.append("AND CreateTime >= ? ");
+        }
+        if (filter.getEndTime() != null) {
+            query.append("AND CreateTime < ? ");
+        }
+        if (hasTypes(filter)) {
+            query.append("AND Type IN (")
+                    .append(String.join(", ", Collections.nCopies(filter.getTypes().size(), "?")))
+                    .append(") ");
+        }
+        if (filter.getIsSender() != null) {
+            query.append("AND IsSender = ? ");
+        }
+    }
+
+    /**
+     * 按 {@link #appendFilterClause} 的顺序绑定参数
+     *
+     * @return 下一个参数的位置
+     */
+    private static int bindFilter(PreparedStatement stmt, int index, MessageFilter filter) throws SQLException {
+        if (filter.getStartTime() != null) {
+            stmt.setLong(index++, filter.getStartTime());
+        }
+        if (filter.getEndTime() != null) {
+            stmt.setLong(index++, filter.getEndTime());
+        }
+        if (hasTypes(filter)) {
+            for (Integer type : filter.getTypes()) {
+                stmt.setInt(index++, type);
+            }
+        }
+        if (filter.getIsSender() != null) {
+            stmt.setInt(index++, filter.getIsSender());
+        }
+        return index;
+    }
+
+    private static boolean hasTypes(MessageFilter filter) {
+        return filter.getTypes() != null && !filter.getTypes().isEmpty();
+    }
+
+    private static int shardNumber(File shard) {
+        Matcher matcher = SHARD_PATTERN.matcher(shard.getName());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * 多分片k路归并
+     */
+    private static final class MergingIterator implements Iterator<Message> {
+        private final PriorityQueue<ShardCursor> heap = new PriorityQueue<>(
+                Comparator.comparingLong((ShardCursor c) -> c.peek().getCreateTime())
+                        .thenComparingInt(c -> c.order));
+
+        private MergingIterator(List<ShardCursor> cursors) {
+            for (ShardCursor cursor : cursors) {
+                if (cursor.peek() != null) {
+                    heap.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public Message next() {
+            ShardCursor cursor = heap.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            Message message = cursor.poll();
+            if (cursor.peek() != null) {
+                heap.add(cursor);
+            }
+            return message;
+        }
+    }
+
+    /**
+     * 单个分片上的分页游标
+     *
+     * 当前页被消费时，下一页已经在读取线程池中预取；同一游标同一时刻最多只有一个查询在执行。
+     */
+    private final class ShardCursor {
+        private final File shard;
+        private final int order;
+        private final List<String> userNames;
+        private final Long sinceCreateTime;
+        private final Long sinceMsgSvrId;
+        private final MessageFilter filter;
+        private final Deque<Message> page = new ArrayDeque<>();
+        private SqliteConnectionPool.Lease lease;
+        private PreparedStatement stmt;
+        private CompletableFuture<List<Message>> pending;
+        private long lastCreateTime = Long.MIN_VALUE;
+        private long lastLocalId = Long.MIN_VALUE;
+        private volatile boolean exhausted;
+        private volatile boolean closed;
+
+        private ShardCursor(File shard, List<String> userNames, Long sinceCreateTime, Long sinceMsgSvrId,
+                            MessageFilter filter) {
+            this.shard = shard;
+            this.order = shardNumber(shard);
+            this.userNames = userNames;
+            this.sinceCreateTime = sinceCreateTime;
+            this.sinceMsgSvrId = sinceMsgSvrId;
+            this.filter = filter;
+        }
+
+        private Message peek() {
+            if (page.isEmpty() && (pending != null || !exhausted)) {
+                if (pending == null) {
+                    prefetch();
+                }
+                List<Message> rows;
+                try {
+                    rows = pending.join();
+                } catch (CompletionException e) {
+                    // 分片读取失败时中止整个读取，不能跳过该分片剩余的消息继续归并，
+                    // 否则已处理位置会越过没读到的消息，增量分析再也不会读到它们
+                    pending = null;
+                    exhausted = true;
+                    throw e.getCause() instanceof RuntimeException cause ? cause : e;
+                }
+                pending = null;
+                page.addAll(rows);
+                if (!exhausted) {
+                    prefetch();
+                }
+            }
+            return page.peekFirst();
+        }
+
+        private Message poll() {
+            peek();
+            return page.pollFirst();
+        }
+
+        private void prefetch() {
+            if (pending == null && !exhausted && !closed) {
+                pending = CompletableFuture.supplyAsync(this::fetchPage, executor);
+            }
+        }
+
+        private List<Message> fetchPage() {
+            if (closed) {
+                return Collections.emptyList();
+            }
+            List<Message> rows = new ArrayList<>(pageSize);
+            try {
+                if (stmt == null) {
+                    lease = connectionPool.borrow(shard.getPath());
+                    stmt = lease.connection().prepareStatement(buildQuery());
+                }
+
+                int index = 1;
+                for (String userName : userNames) {
+                    stmt.setString(index++, userName);
+                }
+                if (sinceCreateTime != null) {
+                    stmt.setLong(index++, sinceCreateTime);
+                    stmt.setLong(index++, sinceCreateTime);
+                    stmt.setLong(index++, sinceMsgSvrId != null ? sinceMsgSvrId : 0L);
+                }
+                index = bindFilter(stmt, index, filter);
+                stmt.setLong(index++, lastCreateTime);
+                stmt.setLong(index++, lastCreateTime);
+                stmt.setLong(index++, lastLocalId);
+                stmt.setInt(index, pageSize);
+
+                long start = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Message msg = new Message();
+                        msg.setLocalId(rs.getInt("LocalId"));
+                        msg.setMsgSvrId(rs.getLong("MsgSvrID"));
+                        msg.setType(rs.getInt("Type"));
+                        msg.setSubType(rs.getInt("SubType"));
+                        msg.setIsSender(rs.getInt("IsSender"));
+                        msg.setCreateTime(rs.getLong("CreateTime"));
+                        msg.setStrTalker(rs.getString("StrTalker"));
+                        msg.setStrContent(rs.getString("StrContent"));
+                        rows.add(msg);
+                    }
+                }
+
+                analysisMetrics.recordSqliteQuery(shard.getName(), System.nanoTime() - start, rows.size());
+
+                if (rows.size() < pageSize) {
+                    exhausted = true;
+                    release();
+                }
+                if (!rows.isEmpty()) {
+                    Message last = rows.get(rows.size() - 1);
+                    lastCreateTime = last.getCreateTime();
+                    lastLocalId = last.getLocalId();
+                }
+            } catch (SQLException e) {
+                exhausted = true;
+                release();
+                throw new IllegalStateException("查询消息失败: " + shard.getPath(), e);
+            }
+            return rows;
+        }
+
+        private String buildQuery() {
+            String placeholders = String.join(", ", Collections.nCopies(userNames.size(), "?"));
+            // 键集条件写成 CreateTime >= ? AND (...) 的形式，便于走CreateTime索引的范围扫描
+            String sinceClause = sinceCreateTime != null
+                    ? "AND CreateTime >= ? AND (CreateTime > ? OR MsgSvrID > ?) " : "";
+            StringBuilder filterClause = new StringBuilder();
+            appendFilterClause(filterClause, filter);
+            return SELECT_COLUMNS +
+                    "WHERE StrTalker IN (" + placeholders + ") " + sinceClause + filterClause +
+                    "AND CreateTime >= ? AND (CreateTime > ? OR LocalId > ?) " +
+                    "ORDER BY CreateTime, LocalId LIMIT ?";
+        }
+
+        private void close() {
+            closed = true;
+            CompletableFuture<List<Message>> inFlight = pending;
+            pending = null;
+            if (inFlight != null) {
+                // 预取中的查询结束后再归还连接，避免连接在查询途中被别人借走
+                inFlight.whenComplete((rows, e) -> release());
+            } else {
+                release();
+            }
+        }
+
+        private void release() {
+            try {
+                if (stmt != null) {
+                    stmt.close();
+                }
+            } catch (SQLException e) {
+                log.warn("关闭分片查询失败: {}", shard.getPath());
+            } finally {
+                stmt = null;
+                if (lease != null) {
+                    lease.close();
+                    lease = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.ChatHistory;
+import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageColumns;
+import com.emotest.emoAgent.model.MessageFilter;
+import com.emotest.emoAgent.model.SnapshotInfo;
+import com.google.gson.Gson;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 聊天记录本地快照
+ *
+ * 把一组联系人（同一好友匹配到的全部用户名）的文字消息导出成只追加的二进制文件，
+ * 之后的分析直接从快照读取，数据库没有变化时完全不打开SQLite。
+ *
+ * 每组联系人三个文件，文件名为 (数据路径, 用户名) 的SHA-256：
+ * <ul>
+ *   <li>.msgs 数据文件：8字节文件头，之后每条消息一条记录
+ *       [int 记录长度][long CreateTime][long MsgSvrID][short Type][byte IsSender][UTF-8内容]，
+ *       记录长度不含自身的4个字节</li>
+ *   <li>.idx 时间索引：每条记录16字节 [long CreateTime][long 记录在数据文件中的偏移]</li>
+ *   <li>.json 元数据：已提交的记录数和文件长度、数据库位置和分片签名，写完数据后原子替换</li>
+ * </ul>
+ * 元数据是提交点：导出中途失败时，超出元数据记录长度的部分在下次导出前截掉。
+ *
+ * 读取时通过 FileChannel.map 映射索引和数据文件，按时间二分查找起点后顺序解码，
+ * 内容从映射区直接解码进 MessageColumns 的字符数组，不经过 Message 对象和中间字符串。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class ChatSnapshotStore {
+
+    private static final byte[] MAGIC = "EMOSNAP1".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int VERSION = 1;
+
+    /**
+     * 记录中内容之前的固定字段长度（不含记录长度本身）
+     */
+    private static final int RECORD_FIELDS = Long.BYTES + Long.BYTES + Short.BYTES + Byte.BYTES;
+
+    private static final int INDEX_ENTRY = Long.BYTES + Long.BYTES;
+
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    /**
+     * 数据文件每次映射的最大长度，超过时按记录边界分段映射
+     */
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+    private static final int TEXT_TYPE = 1;
+
+    private final Gson gson = new Gson();
+
+    private final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    private final ChatMessageStreamReader chatMessageStreamReader;
+
+    private final AnalysisMetrics analysisMetrics;
+
+    @Value("${chat.snapshot.dir:snapshots}")
+    private String snapshotDir;
+
+    @Value("${chat.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.snapshot.auto-export:false}")
+    private boolean autoExport;
+
+    public ChatSnapshotStore(ChatMessageStreamReader chatMessageStreamReader, AnalysisMetrics analysisMetrics) {
+        this.chatMessageStreamReader = chatMessageStreamReader;
+        this.analysisMetrics = analysisMetrics;
+    }
+
+    /**
+     * 导出或更新快照
+     *
+     * 快照不存在时全量导出；已存在且数据库有变化时，只把上次导出位置之后的消息追加到末尾。
+     *
+     * @param dataPath 微信数据路径
+     * @param userNames 联系人用户名
+     * @return 快照信息
+     */
+    public SnapshotInfo export(String dataPath, List<String> userNames) {
+        SnapshotFiles files = files(dataPath, userNames);
+        ReentrantLock lock = locks.computeIfAbsent(files.key, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            Meta meta = refresh(files, dataPath, userNames);
+            return info(meta, meta.lastAppended);
+        } catch (IOException e) {
+            throw new UncheckedIOException("导出聊天记录快照失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从快照加载聊天记录
+     *
+     * 快照存在时先按数据库变化追加新消息，再读取指定位置之后的消息；
+     * 快照不存在且未开启自动导出、或快照功能关闭时返回null，由调用方直接读取数据库。
+     * 快照只保存文字消息，因此返回的消息总数即文字消息数；
+     * 已读取位置取快照对应的数据库位置，包含最后一条文字消息之后的非文字消息。
+     *
+     * @param dataPath 微信数据路径
+     * @param userNames 联系人用户名
+     * @param sinceCreateTime 只读取该位置之后的消息，为空时读取全部
+     * @param sinceMsgSvrId 与sinceCreateTime同一秒的消息中，只读取服务器ID更大的
+     * @return 聊天记录，没有可用快照时返回null
+     */
+    public ChatHistory load(String dataPath, List<String> userNames, Long sinceCreateTime, Long sinceMsgSvrId) {
+        return load(dataPath, userNames, sinceCreateTime, sinceMsgSvrId, null);
+    }
+
+    /**
+     * 从快照加载满足筛选条件的聊天记录
+     *
+     * 时间范围通过索引二分查找确定读取区间，类型和发送者在解码时筛选。
+     *
+     * @param dataPath 微信数据路径
+     * @param userNames 联系人用户名
+     * @param sinceCreateTime 只读取该位置之后的消息，为空时读取全部
+     * @param sinceMsgSvrId 与sinceCreateTime同一秒的消息中，只读取服务器ID更大的
+     * @param filter 筛选条件，为空时不筛选
+     * @return 聊天记录，没有可用快照时返回null
+     */
+    public ChatHistory load(String dataPath, List<String> userNames, Long sinceCreateTime, Long sinceMsgSvrId,
+                            MessageFilter filter) {
+        if (!enabled || userNames.isEmpty()) {
+            return null;
+        }
+        SnapshotFiles files = files(dataPath, userNames);
+        ReentrantLock lock = locks.computeIfAbsent(files.key, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            if (!autoExport && !Files.exists(files.meta)) {
+                return null;
+            }
+            Meta meta = refresh(files, dataPath, userNames);
+            MessageFilter conditions = filter != null ? filter : new MessageFilter();
+            long from = Math.max(sinceCreateTime != null ? sinceCreateTime : Long.MIN_VALUE,
+                    conditions.getStartTime() != null ? conditions.getStartTime() : Long.MIN_VALUE);
+            long to = conditions.getEndTime() != null ? conditions.getEndTime() : Long.MAX_VALUE;
+            MessageColumns columns = read(files, meta, from, to, sinceCreateTime, sinceMsgSvrId, conditions);
+
+            ChatHistory history = new ChatHistory();
+            history.setMessages(columns);
+            history.setTextRows(columns.textRows());
+            history.setTotalMessages(columns.size());
+            history.setLastCreateTime(meta.sourceLastCreateTime);
+            history.setLastMsgSvrId(meta.sourceLastMsgSvrId);
+            log.info("从快照读取 {} 条文字消息（快照共 {} 条）", columns.size(), meta.records);
+            return history;
+        } catch (IOException e) {
+            log.warn("读取聊天记录快照失败，改为读取数据库: {}", e.getMessage());
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按时间范围读取快照中的消息，不检查数据库是否有变化
+     *
+     * @param dataPath 微信数据路径
+     * @param userNames 联系人用户名
+     * @param fromTime 起始时间（包含，秒）
+     * @param toTime 结束时间（不包含，秒）
+     * @return 时间范围内的消息，快照不存在时返回null
+     */
+    public MessageColumns readRange(String dataPath, List<String> userNames, long fromTime, long toTime) {
+        SnapshotFiles files = files(dataPath, userNames);
+        ReentrantLock lock = locks.computeIfAbsent(files.key, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            Meta meta = readMeta(files);
+            if (meta == null) {
+                return null;
+            }
+            return read(files, meta, fromTime, toTime, null, null, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取聊天记录快照失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 数据库有变化时把新消息追加到快照，返回最新的元数据（调用方持有锁）
+     */
+    private Meta refresh(SnapshotFiles files, String dataPath, List<String> userNames) throws IOException {
+        Meta meta = readMeta(files);
+        if (meta != null && !isConsistent(files, meta)) {
+            log.warn("快照文件不完整，重新导出: {}", files.data);
+            meta = null;
+        }
+        String signature = sourceSignature(dataPath);
+        if (meta != null && signature.equals(meta.sourceSignature)) {
+            meta.lastAppended = 0;
+            return meta;
+        }
+        if (meta == null) {
+            meta = new Meta();
+            meta.version = VERSION;
+            meta.userNames = new ArrayList<>(userNames);
+        }
+
+        long start = System.nanoTime();
+        Files.createDirectories(files.data.getParent());
+        long appended;
+        try (FileChannel data = FileChannel.open(files.data, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel index = FileChannel.open(files.index, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // 丢弃上次未提交的部分
+            data.truncate(meta.dataBytes);
+            index.truncate(meta.records * INDEX_ENTRY);
+            if (meta.dataBytes == 0) {
+                data.write(ByteBuffer.wrap(MAGIC), 0);
+                meta.dataBytes = MAGIC.length;
+            }
+            data.position(meta.dataBytes);
+            index.position(meta.records * INDEX_ENTRY);
+            appended = append(data, index, meta, dataPath, userNames);
+            data.force(false);
+            index.force(false);
+        }
+
+        meta.sourceSignature = signature;
+        meta.updatedAt = System.currentTimeMillis();
+        meta.lastAppended = appended;
+        writeMeta(files, meta);
+        log.info("快照已更新: {}, 追加 {} 条，共 {} 条，耗时 {} ms", files.data, appended, meta.records,
+                (System.nanoTime() - start) / 1_000_000);
+        return meta;
+    }
+
+    /**
+     * 从数据库读取上次导出位置之后的消息，文字消息写入数据文件和索引
+     */
+    private long append(FileChannel data, FileChannel index, Meta meta, String dataPath, List<String> userNames)
+            throws IOException {
+        ByteBuffer dataBuffer = ByteBuffer.allocate(WRITE_BUFFER);
+        ByteBuffer indexBuffer = ByteBuffer.allocate(WRITE_BUFFER);
+        long appended = 0;
+        try (Stream<Message> messages = chatMessageStreamReader.stream(dataPath, userNames,
+                meta.sourceLastCreateTime, meta.sourceLastMsgSvrId)) {
+            for (Message msg : (Iterable<Message>) messages::iterator) {
+                long createTime = msg.getCreateTime() != null ? msg.getCreateTime() : 0L;
+                long msgSvrId = msg.getMsgSvrId() != null ? msg.getMsgSvrId() : 0L;
+                // 与分析时相同，记录最后一秒的最大服务器ID
+                if (meta.sourceLastCreateTime == null || createTime > meta.sourceLastCreateTime) {
+                    meta.sourceLastCreateTime = createTime;
+                    meta.sourceLastMsgSvrId = msgSvrId;
+                } else if (msgSvrId > meta.sourceLastMsgSvrId) {
+                    meta.sourceLastMsgSvrId = msgSvrId;
+                }
+
+                if (msg.getType() == null || msg.getType() != TEXT_TYPE || msg.getStrContent() == null) {
+                    continue;
+                }
+                String content = msg.getStrContent().trim();
+                if (content.isEmpty()) {
+                    continue;
+                }
+                byte[] utf8 = content.getBytes(StandardCharsets.UTF_8);
+                int recordLength = RECORD_FIELDS + utf8.length;
+                if (dataBuffer.remaining() < Integer.BYTES + recordLength) {
+                    flush(data, dataBuffer);
+                    if (dataBuffer.capacity() < Integer.BYTES + recordLength) {
+                        dataBuffer = ByteBuffer.allocate(Integer.BYTES + recordLength);
+                    }
+                }
+                if (indexBuffer.remaining() < INDEX_ENTRY) {
+                    flush(index, indexBuffer);
+                }
+
+                indexBuffer.putLong(createTime).putLong(meta.dataBytes);
+                dataBuffer.putInt(recordLength)
+                        .putLong(createTime)
+                        .putLong(msgSvrId)
+                        .putShort(msg.getType().shortValue())
+                        .put((byte) (msg.getIsSender() != null && msg.getIsSender() == 1 ? 1 : 0))
+                        .put(utf8);
+
+                if (meta.records == 0) {
+                    meta.firstCreateTime = createTime;
+                }
+                meta.lastCreateTime = createTime;
+                meta.dataBytes += Integer.BYTES + recordLength;
+                meta.records++;
+                appended++;
+            }
+        }
+        flush(data, dataBuffer);
+        flush(index, indexBuffer);
+        return appended;
+    }
+
+    /**
+     * 映射索引和数据文件，读取 [fromTime, toTime) 内的消息，
+     * 跳过与skipCreateTime同一秒、服务器ID不大于skipMsgSvrId的消息，以及类型或发送者不满足filter的消息
+     */
+    private MessageColumns read(SnapshotFiles files, Meta meta, long fromTime, long toTime,
+                                Long skipCreateTime, Long skipMsgSvrId, MessageFilter filter) throws IOException {
+        long start = System.nanoTime();
+        if (meta.records * INDEX_ENTRY > Integer.MAX_VALUE) {
+            throw new IOException("快照索引超过2GB: " + files.index);
+        }
+        MessageColumns columns;
+        try (FileChannel index = FileChannel.open(files.index, StandardOpenOption.READ);
+             FileChannel data = FileChannel.open(files.data, StandardOpenOption.READ)) {
+            MappedByteBuffer indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, meta.records * INDEX_ENTRY);
+            int records = (int) meta.records;
+            int first = lowerBound(indexMap, records, fromTime);
+            int last = toTime == Long.MAX_VALUE ? records : lowerBound(indexMap, records, toTime);
+            columns = new MessageColumns(Math.max(0, last - first));
+            if (first >= last) {
+                return columns;
+            }
+
+            long offset = recordOffset(indexMap, first);
+            long end = last < records ? recordOffset(indexMap, last) : meta.dataBytes;
+            while (offset < end) {
+                MappedByteBuffer window = data.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(end - offset, MAP_WINDOW));
+                int consumed = decode(window, columns, skipCreateTime, skipMsgSvrId, filter);
+                if (consumed == 0) {
+                    throw new IOException("快照记录损坏，偏移 " + offset + ": " + files.data);
+                }
+                offset += consumed;
+            }
+        }
+        columns.trimToSize();
+        analysisMetrics.recordSnapshotRead(System.nanoTime() - start, columns.size());
+        return columns;
+    }
+
+    /**
+     * 顺序解码映射区中的完整记录，返回已解码的字节数（不完整的末尾记录留给下一段映射）
+     */
+    private static int decode(ByteBuffer window, MessageColumns columns, Long skipCreateTime, Long skipMsgSvrId,
+                              MessageFilter filter) throws IOException {
+        int position = 0;
+        int limit = window.limit();
+        while (limit - position >= Integer.BYTES) {
+            int recordLength = window.getInt(position);
+            if (recordLength < RECORD_FIELDS) {
+                throw new IOException("快照记录长度无效: " + recordLength);
+            }
+            int next = position + Integer.BYTES + recordLength;
+            if (next > limit || next < 0) {
+                break;
+            }
+            int field = position + Integer.BYTES;
+            long createTime = window.getLong(field);
+            long msgSvrId = window.getLong(field + Long.BYTES);
+            boolean skip = skipCreateTime != null && createTime == skipCreateTime
+                    && skipMsgSvrId != null && msgSvrId <= skipMsgSvrId;
+            if (!skip) {
+                short type = window.getShort(field + 2 * Long.BYTES);
+                boolean sender = window.get(field + 2 * Long.BYTES + Short.BYTES) == 1;
+                if (filter == null || filter.matches(type, sender)) {
+                    int contentStart = field + RECORD_FIELDS;
+                    columns.addUtf8(createTime, msgSvrId, type, sender, window.slice(contentStart, next - contentStart));
+                }
+            }
+            position = next;
+        }
+        return position;
+    }
+
+    /**
+     * 第一条创建时间不小于time的记录序号
+     */
+    private static int lowerBound(ByteBuffer index, int records, long time) {
+        int low = 0;
+        int high = records;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.getLong(mid * INDEX_ENTRY) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long recordOffset(ByteBuffer index, int record) {
+        return index.getLong(record * INDEX_ENTRY + Long.BYTES);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 文件长度不小于元数据中已提交的长度，且文件头正确
+     */
+    private boolean isConsistent(SnapshotFiles files, Meta meta) throws IOException {
+        if (meta.version != VERSION || !Files.exists(files.data) || !Files.exists(files.index)) {
+            return false;
+        }
+        if (Files.size(files.data) < meta.dataBytes || Files.size(files.index) < meta.records * INDEX_ENTRY) {
+            return false;
+        }
+        if (meta.dataBytes == 0) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+        try (FileChannel data = FileChannel.open(files.data, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && data.read(header) >= 0) {
+                // 读满文件头
+            }
+        }
+        return header.flip().equals(ByteBuffer.wrap(MAGIC));
+    }
+
+    /**
+     * 各消息分片（含WAL文件）的文件名、长度和修改时间，任一变化即认为数据库有新消息
+     */
+    private String sourceSignature(String dataPath) {
+        StringBuilder signature = new StringBuilder();
+        for (File shard : chatMessageStreamReader.discoverShards(dataPath)) {
+            appendSignature(signature, shard);
+            appendSignature(signature, new File(shard.getPath() + "-wal"));
+        }
+        return signature.toString();
+    }
+
+    private static void appendSignature(StringBuilder signature, File file) {
+        if (file.exists()) {
+            signature.append(file.getName()).append(':').append(file.length())
+                    .append(':').append(file.lastModified()).append(';');
+        }
+    }
+
+    private SnapshotInfo info(Meta meta, long appended) {
+        return new SnapshotInfo(new ArrayList<>(meta.userNames), meta.records, meta.dataBytes, appended,
+                meta.firstCreateTime, meta.lastCreateTime, meta.updatedAt);
+    }
+
+    private Meta readMeta(SnapshotFiles files) {
+        if (!Files.exists(files.meta)) {
+            return null;
+        }
+        try {
+            return gson.fromJson(Files.readString(files.meta, StandardCharsets.UTF_8), Meta.class);
+        } catch (Exception e) {
+            log.warn("读取快照元数据失败，将重新导出: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeMeta(SnapshotFiles files, Meta meta) throws IOException {
+        Path tmp = Files.createTempFile(files.meta.getParent(), files.meta.getFileName().toString(), ".tmp");
+        Files.writeString(tmp, gson.toJson(meta), StandardCharsets.UTF_8);
+        Files.move(tmp, files.meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private SnapshotFiles files(String dataPath, List<String> userNames) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(dataPath.getBytes(StandardCharsets.UTF_8));
+            for (String userName : userNames.stream().sorted().toList()) {
+                digest.update((byte) 0);
+                digest.update(userName.getBytes(StandardCharsets.UTF_8));
+            }
+            String key = HexFormat.of().formatHex(digest.digest());
+            Path dir = Paths.get(snapshotDir);
+            return new SnapshotFiles(key, dir.resolve(key + ".msgs"), dir.resolve(key + ".idx"), dir.resolve(key + ".json"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    private static final class SnapshotFiles {
+        private final String key;
+        private final Path data;
+        private final Path index;
+        private final Path meta;
+
+        private SnapshotFiles(String key, Path data, Path index, Path meta) {
+            this.key = key;
+            this.data = data;
+            this.index = index;
+            this.meta = meta;
+        }
+    }
+
+    /**
+     * 快照元数据，以JSON保存
+     */
+    private static final class Meta {
+        private int version;
+        private List<String> userNames;
+        private long records;
+        private long dataBytes;
+        private Long firstCreateTime;
+        private Long lastCreateTime;
+        /**
+         * 已导出到的数据库位置（包含非文字消息），下次导出从这里之后开始读取
+         */
+        private Long sourceLastCreateTime;
+        private Long sourceLastMsgSvrId;
+        private String sourceSignature;
+        private Long updatedAt;
+        /**
+         * 最近一次更新追加的条数，不保存
+         */
+        private transient long lastAppended;
+    }
+}
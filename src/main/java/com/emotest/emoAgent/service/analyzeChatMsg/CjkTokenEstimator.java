@@ -0,0 +1,57 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * 面向中文聊天记录的token估算器
+ * 
+ * 主流中文模型的分词器里，一个汉字（含全角标点）大约对应一个token，
+ * 数字会被逐位切分，每位计一个token，英文等其他可见字符大约每4个对应一个token，
+ * 空白不计。
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+public class CjkTokenEstimator implements TokenEstimator {
+
+    // 非CJK可见字符每个token对应的字符数
+    private static final int CHARS_PER_TOKEN = 4;
+
+    @Override
+    public int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int cjkChars = 0;
+        int digits = 0;
+        int otherChars = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (isCjk(c)) {
+                cjkChars++;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (!Character.isLowSurrogate(c)) {
+                // 代理对（如emoji）只按高位计一次
+                otherChars++;
+            }
+        }
+        return cjkChars + digits + (otherChars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    private boolean isCjk(char c) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+        return block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || block == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+                || block == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION
+                || block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS
+                || block == Character.UnicodeBlock.HIRAGANA
+                || block == Character.UnicodeBlock.KATAKANA
+                || block == Character.UnicodeBlock.HANGUL_SYLLABLES;
+    }
+}
@@ -0,0 +1,341 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.Contact;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 联系人内存索引
+ *
+ * 每个数据路径在第一次访问时把 MicroMsg.db 的 Contact 表整体读入内存，
+ * 之后的查找只在内存中做子串匹配，不再对Contact表做 LIKE '%name%' 全表扫描。
+ * 除昵称、备注、微信号外，还会匹配拼音首字母和全拼（表中没有拼音列时跳过）；
+ * 模糊匹配只用于自动补全，确定分析对象时使用 {@link #findExact} 完全匹配。
+ * MicroMsg.db 修改时间变化后自动重建。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class ContactIndex {
+
+    // 拼接检索文本时各字段之间的分隔符，避免跨字段误匹配
+    private static final char FIELD_SEPARATOR = '\u0001';
+
+    private static final List<String> PINYIN_COLUMNS =
+            List.of("PYInitial", "QuanPin", "RemarkPYInitial", "RemarkQuanPin");
+
+    @Autowired
+    private SqliteConnectionPool sqliteConnectionPool;
+
+    @Autowired
+    private AnalysisMetrics analysisMetrics;
+
+    private final Map<String, Loading> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * 查找所有匹配的联系人
+     *
+     * @param dataPath 微信数据路径
+     * @param keyword 昵称、备注、微信号或拼音的任意片段
+     * @return 联系人列表，按匹配程度排序
+     */
+    public List<Contact> search(String dataPath, String keyword) {
+        return search(dataPath, keyword, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 查找匹配的联系人
+     *
+     * 完全匹配排在最前，其次是前缀匹配，最后是子串匹配。
+     *
+     * @param dataPath 微信数据路径
+     * @param keyword 昵称、备注、微信号或拼音的任意片段
+     * @param limit 最多返回的条数
+     * @return 联系人列表，按匹配程度排序
+     */
+    public List<Contact> search(String dataPath, String keyword, int limit) {
+        if (keyword == null || keyword.isBlank() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        String needle = keyword.trim().toLowerCase(Locale.ROOT);
+
+        List<Match> matches = new ArrayList<>();
+        for (Entry entry : snapshot(dataPath).entries) {
+            int rank = entry.rank(needle);
+            if (rank >= 0) {
+                matches.add(new Match(entry.contact, rank));
+            }
+        }
+        matches.sort(Comparator.comparingInt(m -> m.rank));
+
+        List<Contact> contacts = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            contacts.add(matches.get(i).contact);
+        }
+        return contacts;
+    }
+
+    /**
+     * 按昵称、备注、微信号或用户名完全匹配联系人（不区分大小写，不匹配拼音）
+     *
+     * 用于确定要分析的联系人；模糊匹配只用于自动补全，避免简短的姓名匹配到许多人。
+     *
+     * @param dataPath 微信数据路径
+     * @param name 完整的昵称、备注、微信号或用户名
+     * @return 完全匹配的联系人
+     */
+    public List<Contact> findExact(String dataPath, String name) {
+        if (name == null || name.isBlank()) {
+            return Collections.emptyList();
+        }
+        String needle = name.trim().toLowerCase(Locale.ROOT);
+
+        List<Contact> contacts = new ArrayList<>();
+        for (Entry entry : snapshot(dataPath).entries) {
+            if (entry.matchesName(needle)) {
+                contacts.add(entry.contact);
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * 按微信用户名精确查找联系人
+     *
+     * @param dataPath 微信数据路径
+     * @param userName 微信用户名（wxid）
+     * @return 联系人，不存在时返回null
+     */
+    public Contact findByUserName(String dataPath, String userName) {
+        return snapshot(dataPath).byUserName.get(userName);
+    }
+
+    /**
+     * 丢弃指定数据路径的索引，下次访问时重建
+     *
+     * @param dataPath 微信数据路径
+     */
+    public void invalidate(String dataPath) {
+        snapshots.remove(microMsgFile(dataPath).getAbsolutePath());
+    }
+
+    private Snapshot snapshot(String dataPath) {
+        File microMsg = microMsgFile(dataPath);
+        String key = microMsg.getAbsolutePath();
+        long lastModified = microMsg.lastModified();
+
+        Loading current = snapshots.get(key);
+        if (current == null || current.lastModified != lastModified) {
+            // map中只放占位，加载在锁外进行；同一数据库同一版本只加载一次，其他请求等待同一个结果
+            Loading fresh = new Loading(lastModified);
+            current = snapshots.compute(key, (k, existing) ->
+                    existing != null && existing.lastModified == lastModified ? existing : fresh);
+            if (current == fresh) {
+                complete(key, fresh);
+            }
+        }
+        try {
+            return current.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待联系人索引加载时被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("加载联系人索引失败: " + key, e.getCause());
+        }
+    }
+
+    private void complete(String key, Loading loading) {
+        try {
+            Snapshot snapshot = load(key, loading.lastModified);
+            if (snapshot.lastModified == Long.MIN_VALUE) {
+                // 不缓存失败结果，下次访问时重试
+                snapshots.remove(key, loading);
+            }
+            loading.future.complete(snapshot);
+        } catch (RuntimeException e) {
+            snapshots.remove(key, loading);
+            loading.future.completeExceptionally(e);
+        }
+    }
+
+    private Snapshot load(String microMsgPath, long lastModified) {
+        long start = System.nanoTime();
+        List<Entry> entries = new ArrayList<>();
+
+        try (SqliteConnectionPool.Lease lease = sqliteConnectionPool.borrow(microMsgPath)) {
+            Connection conn = lease.connection();
+            Set<String> columns = contactColumns(conn);
+            List<String> pinyinColumns = PINYIN_COLUMNS.stream().filter(columns::contains).toList();
+
+            StringBuilder query = new StringBuilder("SELECT UserName, NickName, ReMark, Alias");
+            pinyinColumns.forEach(column -> query.append(", ").append(column));
+            query.append(" FROM Contact");
+
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(query.toString())) {
+                while (rs.next()) {
+                    Contact contact = new Contact();
+                    contact.setUserName(rs.getString("UserName"));
+                    contact.setNickName(rs.getString("NickName"));
+                    contact.setReMark(rs.getString("ReMark"));
+                    contact.setAlias(rs.getString("Alias"));
+
+                    List<String> keys = new ArrayList<>(3 + pinyinColumns.size());
+                    keys.add(contact.getNickName());
+                    keys.add(contact.getReMark());
+                    keys.add(contact.getAlias());
+                    for (String column : pinyinColumns) {
+                        keys.add(rs.getString(column));
+                    }
+                    entries.add(new Entry(contact, keys));
+                }
+            }
+        } catch (SQLException e) {
+            log.error("加载联系人索引失败: " + microMsgPath, e);
+            return new Snapshot(Long.MIN_VALUE, Collections.emptyList());
+        }
+
+        long elapsed = System.nanoTime() - start;
+        analysisMetrics.recordContactIndexLoad(elapsed, entries.size());
+        log.info("联系人索引已建立 - 数据库: {}, 联系人数: {}, 耗时: {}ms",
+                microMsgPath, entries.size(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        return new Snapshot(lastModified, entries);
+    }
+
+    private Set<String> contactColumns(Connection conn) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(Contact)")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+        return columns;
+    }
+
+    private static File microMsgFile(String dataPath) {
+        return new File(dataPath, "MicroMsg.db");
+    }
+
+    /**
+     * 某一版本的索引，加载完成前future未完成
+     */
+    private static final class Loading {
+        private final long lastModified;
+        private final CompletableFuture<Snapshot> future = new CompletableFuture<>();
+
+        private Loading(long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * 某一时刻的索引内容
+     */
+    private static final class Snapshot {
+        private final long lastModified;
+        private final List<Entry> entries;
+        private final Map<String, Contact> byUserName;
+
+        private Snapshot(long lastModified, List<Entry> entries) {
+            this.lastModified = lastModified;
+            this.entries = entries;
+            this.byUserName = new HashMap<>(entries.size() * 2);
+            for (Entry entry : entries) {
+                byUserName.putIfAbsent(entry.contact.getUserName(), entry.contact);
+            }
+        }
+    }
+
+    private static final class Match {
+        private final Contact contact;
+        private final int rank;
+
+        private Match(Contact contact, int rank) {
+            this.contact = contact;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * 索引条目，检索字段预先转成小写并拼接成一个字符串
+     */
+    private static final class Entry {
+        private final Contact contact;
+        private final String[] keys;
+        private final String[] names;
+        private final String haystack;
+
+        private Entry(Contact contact, List<String> rawKeys) {
+            this.contact = contact;
+            this.keys = lowerCase(rawKeys);
+            this.names = lowerCase(List.of(trimToEmpty(contact.getUserName()), trimToEmpty(contact.getNickName()),
+                    trimToEmpty(contact.getReMark()), trimToEmpty(contact.getAlias())));
+            this.haystack = String.join(String.valueOf(FIELD_SEPARATOR), keys);
+        }
+
+        /**
+         * 用户名、昵称、备注或微信号之一与needle完全相同
+         */
+        private boolean matchesName(String needle) {
+            for (String name : names) {
+                if (name.equals(needle)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 匹配程度：0完全匹配，1前缀匹配，2子串匹配，-1不匹配
+         */
+        private int rank(String needle) {
+            if (haystack.indexOf(needle) < 0) {
+                return -1;
+            }
+            int rank = 2;
+            for (String key : keys) {
+                if (key.equals(needle)) {
+                    return 0;
+                }
+                if (key.startsWith(needle)) {
+                    rank = 1;
+                }
+            }
+            return rank;
+        }
+
+        private static String[] lowerCase(List<String> values) {
+            return values.stream()
+                    .filter(v -> v != null && !v.isEmpty())
+                    .map(v -> v.toLowerCase(Locale.ROOT))
+                    .toArray(String[]::new);
+        }
+
+        private static String trimToEmpty(String value) {
+            return value != null ? value.trim() : "";
+        }
+    }
+}
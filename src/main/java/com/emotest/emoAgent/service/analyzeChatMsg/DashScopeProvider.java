@@ -0,0 +1,179 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.LlmCompletion;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 阿里云DashScope文本生成接口
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Slf4j
+public class DashScopeProvider implements LlmProvider {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<>() { };
+
+    private final String name;
+
+    private final WebClient webClient;
+
+    private final String url;
+
+    private final String apiKey;
+
+    private final AnalysisMetrics analysisMetrics;
+
+    /**
+     * @param name 提供方名称
+     * @param webClient WebClient
+     * @param url 文本生成接口地址
+     * @param apiKey 提供方自己的API Key，为空时使用请求中的API Key
+     * @param analysisMetrics 指标
+     */
+    public DashScopeProvider(String name, WebClient webClient, String url, String apiKey, AnalysisMetrics analysisMetrics) {
+        this.name = name;
+        this.webClient = webClient;
+        this.url = url;
+        this.apiKey = apiKey;
+        this.analysisMetrics = analysisMetrics;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String apiKey() {
+        return apiKey;
+    }
+
+    @Override
+    public Mono<String> call(String prompt, String useApiKey, String useModel) {
+        return Mono.defer(() -> {
+            Map<String, Object> requestBody = buildRequestBody(prompt, useModel);
+
+            log.info("发送请求到: {}", url);
+
+            return webClient.post()
+                    .uri(url)
+                    .header("Authorization", "Bearer " + useApiKey)
+                    .header("Content-Type", "application/json")
+                    .bodyValue(requestBody)
+                    .retrieve()
+                    .bodyToMono(DataBuffer.class)
+                    .map(response -> parseResponse(response, useModel));
+        });
+    }
+
+    @Override
+    public Flux<String> stream(String prompt, String useApiKey, String useModel) {
+        return Flux.defer(() -> {
+            Map<String, Object> requestBody = buildRequestBody(prompt, useModel);
+            // 增量输出：每个事件只包含新生成的内容，而不是截至目前的全文
+            requestBody.put("parameters", Map.of("result_format", "message", "incremental_output", true));
+
+            // 每个事件都带有截至目前的用量，结束时以最后一个为准
+            long[] usage = {-1, -1};
+            return webClient.post()
+                    .uri(url)
+                    .header("Authorization", "Bearer " + useApiKey)
+                    .header("Content-Type", "application/json")
+                    .header("X-DashScope-SSE", "enable")
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(requestBody)
+                    .retrieve()
+                    .bodyToFlux(SSE_TYPE)
+                    .<String>handle((event, sink) -> {
+                        if ("error".equals(event.event())) {
+                            sink.error(new IllegalStateException("DashScope流式响应错误: " + event.data()));
+                            return;
+                        }
+                        if (event.data() == null || event.data().isBlank()) {
+                            return;
+                        }
+                        LlmCompletion chunk = read(new StringReader(event.data()));
+                        readUsage(chunk, usage);
+                        if (chunk.getContent() != null && !chunk.getContent().isEmpty()) {
+                            sink.next(chunk.getContent());
+                        }
+                    })
+                    .doOnComplete(() -> analysisMetrics.recordLlmTokens(useModel, usage[0], usage[1]));
+        });
+    }
+
+    /**
+     * 构建DashScope请求体
+     */
+    private Map<String, Object> buildRequestBody(String prompt, String useModel) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", useModel);
+
+        Map<String, Object> input = new HashMap<>();
+        input.put("messages", new Object[]{
+            Map.of("role", "user", "content", prompt)
+        });
+        requestBody.put("input", input);
+
+        requestBody.put("parameters", Map.of("result_format", "message"));
+        return requestBody;
+    }
+
+    /**
+     * 解析DashScope响应，直接从响应字节中读取所需字段并释放缓冲区
+     */
+    private String parseResponse(DataBuffer response, String useModel) {
+        int bytes = response.readableByteCount();
+        LlmCompletion completion = read(new InputStreamReader(response.asInputStream(true), StandardCharsets.UTF_8));
+        long[] usage = {-1, -1};
+        readUsage(completion, usage);
+        analysisMetrics.recordLlmTokens(useModel, usage[0], usage[1]);
+        log.debug("收到响应，{} 字节，输入/输出token: {}/{}，request_id: {}",
+                bytes, usage[0], usage[1], completion.getRequestId());
+
+        if (completion.getContent() == null) {
+            throw new IllegalStateException(name + " 响应中没有内容，request_id: " + completion.getRequestId());
+        }
+        if ("length".equals(completion.getFinishReason())) {
+            log.warn("{} 的输出达到长度上限被截断，request_id: {}", useModel, completion.getRequestId());
+        }
+        return completion.getContent();
+    }
+
+    private static LlmCompletion read(Reader in) {
+        try {
+            return DashScopeResponseReader.read(in);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("DashScope响应格式错误: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 读取响应中的token用量，依次写入input_tokens和output_tokens，缺失时保持原值
+     */
+    private static void readUsage(LlmCompletion completion, long[] usage) {
+        if (completion.getInputTokens() != null) {
+            usage[0] = completion.getInputTokens();
+        }
+        if (completion.getOutputTokens() != null) {
+            usage[1] = completion.getOutputTokens();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.LlmCompletion;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 按流读取DashScope文本生成响应
+ *
+ * 只取 output.choices[0].message.content、finish_reason、usage 和 request_id，
+ * 其余字段直接跳过，不构建整棵JSON树，也不需要先把响应体转成字符串。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+final class DashScopeResponseReader {
+
+    private DashScopeResponseReader() {
+    }
+
+    /**
+     * 读取一个完整响应或一个流式事件
+     *
+     * @param in 响应体
+     * @return 读到的字段，缺失的字段为空
+     */
+    static LlmCompletion read(Reader in) throws IOException {
+        LlmCompletion completion = new LlmCompletion();
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "output" -> readOutput(reader, completion);
+                    case "usage" -> readUsage(reader, completion);
+                    case "request_id" -> completion.setRequestId(nextString(reader));
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return completion;
+    }
+
+    private static void readOutput(JsonReader reader, LlmCompletion completion) throws IOException {
+        if (skipNull(reader)) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("choices".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readChoice(reader, completion);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readChoice(JsonReader reader, LlmCompletion completion) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "finish_reason" -> completion.setFinishReason(nextString(reader));
+                case "message" -> readMessage(reader, completion);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readMessage(JsonReader reader, LlmCompletion completion) throws IOException {
+        if (skipNull(reader)) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("content".equals(reader.nextName())) {
+                completion.setContent(nextString(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readUsage(JsonReader reader, LlmCompletion completion) throws IOException {
+        if (skipNull(reader)) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "input_tokens" -> completion.setInputTokens(nextLong(reader));
+                case "output_tokens" -> completion.setOutputTokens(nextLong(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        return skipNull(reader) ? null : reader.nextString();
+    }
+
+    private static Long nextLong(JsonReader reader) throws IOException {
+        return skipNull(reader) ? null : reader.nextLong();
+    }
+
+    /**
+     * 下一个值为null时消费掉并返回true
+     */
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,278 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.DispatchStats;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.context.Context;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * LLM调用调度器（应用级单例）
+ *
+ * 所有分析的LLM请求都通过这里排队，保证：
+ * 1. 全局同时在途的请求数不超过配置上限；
+ * 2. 按API Key分队列轮询出队，一个超长聊天记录不会饿死其他用户；
+ * 3. 同一队列内按优先级出队（数值小的先出，相同优先级先进先出），
+ *    优先级从订阅上下文中读取，批量分析的请求排在交互式分析之后；
+ * 4. 可以观察到排队深度和排队等待时间。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class LlmDispatchScheduler {
+
+    private static final String DEFAULT_QUEUE_KEY = "default";
+
+    /**
+     * 交互式分析（单个好友的同步、响应式、流式和异步任务）的默认优先级
+     */
+    public static final int INTERACTIVE_PRIORITY = 0;
+
+    /**
+     * 批量分析的基准优先级，第i个联系人为 BULK_PRIORITY + i
+     */
+    public static final int BULK_PRIORITY = 1000;
+
+    private static final String PRIORITY_CONTEXT_KEY = LlmDispatchScheduler.class.getName() + ".priority";
+
+    private static final Comparator<DispatchTask<?>> TASK_ORDER =
+            Comparator.comparingInt((DispatchTask<?> task) -> task.priority).thenComparingLong(task -> task.sequence);
+
+    @Value("${llm.dispatch.max-concurrency:4}")
+    private int maxConcurrency;
+
+    @Autowired
+    private AnalysisMetrics analysisMetrics;
+
+    /**
+     * 每个API Key一个等待队列，队列内按优先级排序
+     */
+    private final Map<String, PriorityQueue<DispatchTask<?>>> queues = new HashMap<>();
+
+    /**
+     * 有待处理任务的队列Key，按轮询顺序排列
+     */
+    private final Deque<String> readyKeys = new ArrayDeque<>();
+
+    private int inFlight;
+    private int queueDepth;
+
+    // 统计信息
+    private long submittedCount;
+    private long startedCount;
+    private long completedCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    /**
+     * 提交一个LLM任务
+     *
+     * 返回的Mono每被订阅一次就排队一次（重试时会重新排到该Key队列末尾），
+     * 取消订阅会把尚未开始的任务移出队列，已开始的任务会被中止。
+     * 订阅上下文中通过 {@link #withPriority(int)} 设置了优先级时按该优先级排队。
+     *
+     * @param apiKey 用于公平排队的API Key，为空时归入默认队列
+     * @param job 真正发起调用的任务，轮到执行时才会被调用
+     * @return 任务结果
+     */
+    public <T> Mono<T> submit(String apiKey, Supplier<Mono<T>> job) {
+        String queueKey = apiKey != null ? apiKey : DEFAULT_QUEUE_KEY;
+        return Mono.create(sink -> {
+            int priority = sink.contextView().getOrDefault(PRIORITY_CONTEXT_KEY, INTERACTIVE_PRIORITY);
+            DispatchTask<T> task = new DispatchTask<>(queueKey, priority, job, sink);
+            sink.onCancel(() -> cancel(task));
+            enqueue(task);
+            drain();
+        });
+    }
+
+    /**
+     * 提交一个流式LLM任务，从开始到输出结束占用一个并发额度
+     *
+     * 排队、优先级和取消的行为与 {@link #submit(String, Supplier)} 相同。
+     *
+     * @param apiKey 用于公平排队的API Key，为空时归入默认队列
+     * @param job 真正发起调用的任务，轮到执行时才会被调用
+     * @return 任务输出
+     */
+    public <T> Flux<T> submitMany(String apiKey, Supplier<Flux<T>> job) {
+        return Flux.create(sink -> {
+            Disposable running = submit(apiKey, () -> job.get().doOnNext(sink::next).then())
+                    .contextWrite(sink.contextView())
+                    .subscribe(ignored -> { }, sink::error, sink::complete);
+            sink.onDispose(running);
+        });
+    }
+
+    /**
+     * 设置调度优先级的订阅上下文，用法：analysis.contextWrite(LlmDispatchScheduler.withPriority(p))
+     *
+     * @param priority 优先级，数值小的先出队
+     * @return 订阅上下文
+     */
+    public static Context withPriority(int priority) {
+        return Context.of(PRIORITY_CONTEXT_KEY, priority);
+    }
+
+    /**
+     * 获取全局并发上限
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * 是否还有空闲的并发额度且没有排队任务，此时多发一个请求不会挤占其他任务
+     */
+    public synchronized boolean hasIdleCapacity() {
+        return queueDepth == 0 && inFlight < maxConcurrency;
+    }
+
+    /**
+     * 获取调度统计信息
+     */
+    public synchronized DispatchStats getStats() {
+        DispatchStats stats = new DispatchStats();
+        stats.setMaxConcurrency(maxConcurrency);
+        stats.setInFlight(inFlight);
+        stats.setQueueDepth(queueDepth);
+        stats.setActiveQueues(queues.size());
+        stats.setSubmitted(submittedCount);
+        stats.setCompleted(completedCount);
+        stats.setAvgWaitMs(startedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / startedCount));
+        stats.setMaxWaitMs(TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+        return stats;
+    }
+
+    private synchronized void enqueue(DispatchTask<?> task) {
+        PriorityQueue<DispatchTask<?>> queue = queues.get(task.queueKey);
+        if (queue == null) {
+            queue = new PriorityQueue<>(TASK_ORDER);
+            queues.put(task.queueKey, queue);
+            readyKeys.addLast(task.queueKey);
+        }
+        task.sequence = submittedCount++;
+        queue.add(task);
+        queueDepth++;
+    }
+
+    /**
+     * 在并发额度内按Key轮询取出任务并启动
+     */
+    private void drain() {
+        List<DispatchTask<?>> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (inFlight < maxConcurrency && !readyKeys.isEmpty()) {
+                String queueKey = readyKeys.pollFirst();
+                PriorityQueue<DispatchTask<?>> queue = queues.get(queueKey);
+                DispatchTask<?> task = queue.poll();
+                queueDepth--;
+                if (queue.isEmpty()) {
+                    queues.remove(queueKey);
+                } else {
+                    readyKeys.addLast(queueKey);
+                }
+
+                long waitNanos = System.nanoTime() - task.enqueuedAt;
+                startedCount++;
+                totalWaitNanos += waitNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+                analysisMetrics.recordQueueWait(waitNanos);
+
+                inFlight++;
+                toStart.add(task);
+            }
+        }
+        toStart.forEach(DispatchTask::start);
+    }
+
+    private void cancel(DispatchTask<?> task) {
+        boolean removed = false;
+        synchronized (this) {
+            PriorityQueue<DispatchTask<?>> queue = queues.get(task.queueKey);
+            if (queue != null && queue.remove(task)) {
+                queueDepth--;
+                removed = true;
+                if (queue.isEmpty()) {
+                    queues.remove(task.queueKey);
+                    readyKeys.remove(task.queueKey);
+                }
+            }
+        }
+        if (!removed) {
+            task.dispose();
+        }
+    }
+
+    private void release() {
+        synchronized (this) {
+            inFlight--;
+            completedCount++;
+        }
+        drain();
+    }
+
+    /**
+     * 排队中的任务
+     */
+    private final class DispatchTask<T> {
+        private final String queueKey;
+        private final int priority;
+        private final Supplier<Mono<T>> job;
+        private final MonoSink<T> sink;
+        private final long enqueuedAt = System.nanoTime();
+        private long sequence;
+        private volatile Disposable running;
+        private volatile boolean disposed;
+
+        private DispatchTask(String queueKey, int priority, Supplier<Mono<T>> job, MonoSink<T> sink) {
+            this.queueKey = queueKey;
+            this.priority = priority;
+            this.job = job;
+            this.sink = sink;
+        }
+
+        private void start() {
+            Mono<T> mono;
+            try {
+                mono = job.get();
+            } catch (Throwable e) {
+                release();
+                sink.error(e);
+                return;
+            }
+            running = mono
+                    .doFinally(signal -> release())
+                    .subscribe(sink::success, sink::error, () -> sink.success());
+            if (disposed) {
+                running.dispose();
+            }
+        }
+
+        private void dispose() {
+            disposed = true;
+            Disposable current = running;
+            if (current != null) {
+                current.dispose();
+            }
+        }
+    }
+}
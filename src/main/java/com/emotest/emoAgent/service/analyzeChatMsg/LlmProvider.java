@@ -0,0 +1,48 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * LLM提供方
+ *
+ * 只负责组装请求、发送和解析响应（并记录token用量）；限流、超时、熔断和重试
+ * 由 {@link CallLLMImpl} 统一处理，与提供方无关。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+public interface LlmProvider {
+
+    /**
+     * 提供方名称，用于日志
+     */
+    String name();
+
+    /**
+     * 提供方自己配置的API Key
+     *
+     * @return API Key，未配置时返回null，此时使用请求中的API Key
+     */
+    String apiKey();
+
+    /**
+     * 单次非流式调用
+     *
+     * @param prompt 提示词
+     * @param apiKey API Key
+     * @param model 模型名称
+     * @return 生成的内容，订阅后才会真正发起请求
+     */
+    Mono<String> call(String prompt, String apiKey, String model);
+
+    /**
+     * 单次流式调用
+     *
+     * @param prompt 提示词
+     * @param apiKey API Key
+     * @param model 模型名称
+     * @return 增量内容片段，按顺序拼接即为完整结果
+     */
+    Flux<String> stream(String prompt, String apiKey, String model);
+}
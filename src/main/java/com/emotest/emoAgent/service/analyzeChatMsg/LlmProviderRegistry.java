@@ -0,0 +1,81 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LLM提供方注册表，按模型名称找到处理它的提供方
+ *
+ * dashscope.* 配置的DashScope为默认提供方，llm.provider.endpoints 中声明的模型
+ * 发往对应的提供方，其余模型都发往DashScope。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class LlmProviderRegistry {
+
+    /**
+     * 默认提供方名称
+     */
+    public static final String DEFAULT_PROVIDER = "dashscope";
+
+    private final LlmProvider defaultProvider;
+
+    private final Map<String, LlmProvider> byModel = new LinkedHashMap<>();
+
+    public LlmProviderRegistry(WebClient webClient, AnalysisMetrics analysisMetrics, LlmProviderProperties properties,
+                               @Value("${dashscope.url}") String dashScopeUrl) {
+        this.defaultProvider = new DashScopeProvider(DEFAULT_PROVIDER, webClient, dashScopeUrl, null, analysisMetrics);
+        properties.getEndpoints().forEach((name, endpoint) -> {
+            LlmProvider provider = create(name, endpoint, webClient, analysisMetrics);
+            for (String model : endpoint.getModels()) {
+                LlmProvider previous = byModel.putIfAbsent(model, provider);
+                if (previous != null) {
+                    throw new IllegalStateException("模型 " + model + " 同时由 " + previous.name() + " 和 " + name + " 提供");
+                }
+            }
+            log.info("注册LLM提供方 {}（{}），模型: {}", name, endpoint.getType(), endpoint.getModels());
+        });
+    }
+
+    /**
+     * 获取处理该模型的提供方
+     *
+     * @param model 模型名称
+     * @return 提供方，未声明的模型返回DashScope
+     */
+    public LlmProvider forModel(String model) {
+        return model != null ? byModel.getOrDefault(model, defaultProvider) : defaultProvider;
+    }
+
+    /**
+     * 各提供方声明的模型
+     */
+    public Set<String> declaredModels() {
+        return Collections.unmodifiableSet(byModel.keySet());
+    }
+
+    private static LlmProvider create(String name, LlmProviderProperties.Endpoint endpoint, WebClient webClient,
+                                      AnalysisMetrics analysisMetrics) {
+        if (endpoint.getType() != LlmProviderProperties.Type.MOCK
+                && (endpoint.getUrl() == null || endpoint.getUrl().isBlank())) {
+            throw new IllegalStateException("LLM提供方 " + name + " 未配置url");
+        }
+        String apiKey = endpoint.getApiKey() != null && !endpoint.getApiKey().isBlank() ? endpoint.getApiKey() : null;
+        return switch (endpoint.getType()) {
+            case DASHSCOPE -> new DashScopeProvider(name, webClient, endpoint.getUrl(), apiKey, analysisMetrics);
+            case OPENAI -> new OpenAICompatibleProvider(name, webClient, endpoint.getUrl(), apiKey, analysisMetrics);
+            case MOCK -> new MockLlmProvider(name, endpoint.getMockLatency(), endpoint.getMockFailureRate());
+        };
+    }
+}
@@ -0,0 +1,151 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * 按API Key限流的令牌桶
+ *
+ * 每个API Key维护两只桶：请求数/分钟（RPM）和token数/分钟（TPM）。
+ * 获取许可时先预扣额度，额度不足时返回需要等待的时长，用Mono.delay
+ * 在定时器上等待，不占用任何线程；等待期间被取消时退还预扣的额度。收到429时按Retry-After暂停该Key。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class LlmRateLimiter {
+
+    private static final String DEFAULT_BUCKET_KEY = "default";
+
+    @Value("${llm.rate-limit.requests-per-minute:60}")
+    private int requestsPerMinute;
+
+    @Value("${llm.rate-limit.tokens-per-minute:100000}")
+    private int tokensPerMinute;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    // 纳秒时钟，测试时替换
+    private LongSupplier clock = System::nanoTime;
+
+    /**
+     * 申请一次调用许可
+     *
+     * @param apiKey API Key，为空时使用默认桶
+     * @param estimatedTokens 本次调用预计消耗的token数
+     * @return 额度就绪时完成的信号
+     */
+    public Mono<Void> acquire(String apiKey, int estimatedTokens) {
+        return Mono.defer(() -> {
+            Bucket bucket = bucket(apiKey);
+            long waitNanos = bucket.reserve(estimatedTokens);
+            if (waitNanos <= 0) {
+                return Mono.empty();
+            }
+            Duration wait = Duration.ofNanos(waitNanos);
+            log.info("触发限流，等待 {} ms 后发起调用", wait.toMillis());
+            // 等待中被取消（批次取消、整体超时）时不会发起调用，预扣的额度还给桶
+            return Mono.delay(wait).then()
+                    .doOnCancel(() -> bucket.refund(estimatedTokens));
+        });
+    }
+
+    /**
+     * 服务端返回429时暂停该API Key的调用
+     *
+     * @param apiKey API Key
+     * @param retryAfter 服务端要求的等待时长
+     */
+    public void onRateLimited(String apiKey, Duration retryAfter) {
+        log.warn("收到限流响应，暂停调用 {} ms", retryAfter.toMillis());
+        bucket(apiKey).pauseFor(retryAfter.toNanos());
+    }
+
+    Bucket bucket(String apiKey) {
+        String bucketKey = apiKey != null ? apiKey : DEFAULT_BUCKET_KEY;
+        return buckets.computeIfAbsent(bucketKey, key -> new Bucket(requestsPerMinute, tokensPerMinute, clock));
+    }
+
+    /**
+     * 单个API Key的RPM/TPM令牌桶
+     */
+    static final class Bucket {
+        private static final double NANOS_PER_MINUTE = 60_000_000_000d;
+
+        private final double requestCapacity;
+        private final double tokenCapacity;
+        private final LongSupplier clock;
+        private double requestTokens;
+        private double tokenTokens;
+        private long lastRefillNanos;
+        private long pausedUntilNanos;
+
+        Bucket(int requestsPerMinute, int tokensPerMinute, LongSupplier clock) {
+            this.requestCapacity = requestsPerMinute;
+            this.tokenCapacity = tokensPerMinute;
+            this.clock = clock;
+            this.requestTokens = requestsPerMinute;
+            this.tokenTokens = tokensPerMinute;
+            this.lastRefillNanos = clock.getAsLong();
+            this.pausedUntilNanos = lastRefillNanos;
+        }
+
+        /**
+         * 预扣额度（允许透支），返回额度回正前需要等待的纳秒数
+         */
+        synchronized long reserve(int estimatedTokens) {
+            long now = clock.getAsLong();
+            refill(now);
+
+            double cost = cost(estimatedTokens);
+            requestTokens -= 1;
+            tokenTokens -= cost;
+
+            long requestWait = requestTokens >= 0 ? 0 : (long) (-requestTokens / requestCapacity * NANOS_PER_MINUTE);
+            long tokenWait = tokenTokens >= 0 ? 0 : (long) (-tokenTokens / tokenCapacity * NANOS_PER_MINUTE);
+            long pauseWait = pausedUntilNanos - now;
+            return Math.max(pauseWait, Math.max(requestWait, tokenWait));
+        }
+
+        /**
+         * 退还一次未使用的预扣，不超过桶容量
+         */
+        synchronized void refund(int estimatedTokens) {
+            refill(clock.getAsLong());
+            requestTokens = Math.min(requestCapacity, requestTokens + 1);
+            tokenTokens = Math.min(tokenCapacity, tokenTokens + cost(estimatedTokens));
+        }
+
+        synchronized void pauseFor(long nanos) {
+            long now = clock.getAsLong();
+            refill(now);
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + nanos);
+            // 服务端已经判定超额，清空剩余额度，恢复后按速率重新积累
+            requestTokens = Math.min(requestTokens, 0);
+            tokenTokens = Math.min(tokenTokens, 0);
+        }
+
+        /**
+         * 单次调用超过桶容量时按容量计，避免永远等不到
+         */
+        private double cost(int estimatedTokens) {
+            return Math.min(Math.max(estimatedTokens, 1), tokenCapacity);
+        }
+
+        private void refill(long now) {
+            double elapsedMinutes = (now - lastRefillNanos) / NANOS_PER_MINUTE;
+            requestTokens = Math.min(requestCapacity, requestTokens + elapsedMinutes * requestCapacity);
+            tokenTokens = Math.min(tokenCapacity, tokenTokens + elapsedMinutes * tokenCapacity);
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.ResilienceProperties;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.SignalType;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * LLM调用容错
+ *
+ * 1. 自适应超时：按模型记录最近成功调用的耗时，超时取高分位耗时的若干倍（限制在上下限之间），
+ *    流式调用按首个事件的耗时计算，之后按事件间隔判断；
+ * 2. 按模型熔断：最近调用的失败率过高时直接失败，不再排队等待一个已经降级的服务，
+ *    熔断一段时间后放行少量探测请求，成功即恢复；
+ * 3. 批次级重试只重试超时、5xx和连接错误，指数退避并加随机抖动；429由 {@link CallLLMImpl} 按Retry-After重试；
+ * 4. 对冲请求：调用耗时超过该模型的分位数、且调度器没有排队任务时（通常是最后几个批次），
+ *    再发一个相同请求，取先返回的结果，避免少数慢请求拖长整体耗时。
+ *
+ * 只有超时、5xx和连接错误计入熔断失败率；4xx（含429）是请求本身或额度的问题，不计入。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class LlmResilience {
+
+    private static final String DEFAULT_MODEL = "default";
+
+    private static final String BLOCKING = "blocking";
+
+    private static final String STREAM = "stream";
+
+    private final ResilienceProperties properties;
+
+    private final AnalysisMetrics analysisMetrics;
+
+    private final LlmDispatchScheduler dispatchScheduler;
+
+    /**
+     * 按 (调用方式, 模型) 记录的耗时样本，流式调用记录首个事件的耗时
+     */
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public LlmResilience(ResilienceProperties properties, AnalysisMetrics analysisMetrics,
+                         LlmDispatchScheduler dispatchScheduler) {
+        this.properties = properties;
+        this.analysisMetrics = analysisMetrics;
+        this.dispatchScheduler = dispatchScheduler;
+    }
+
+    /**
+     * 为一次非流式调用加上熔断检查和自适应超时，并记录耗时和结果
+     *
+     * @param model 模型名称
+     * @param call 单次HTTP调用
+     * @return 熔断时以 {@link CircuitOpenException} 失败，超时以 TimeoutException 失败
+     */
+    public <T> Mono<T> guard(String model, Mono<T> call) {
+        return Mono.defer(() -> {
+            CircuitBreaker breaker = breaker(model);
+            if (!breaker.tryAcquire()) {
+                return Mono.error(new CircuitOpenException(model));
+            }
+            LatencyWindow window = latency(BLOCKING, model);
+            long start = System.nanoTime();
+            return call
+                    .timeout(timeout(window))
+                    .doOnSuccess(value -> {
+                        window.record(System.nanoTime() - start);
+                        onSuccess(model, breaker);
+                    })
+                    .doOnError(e -> onError(model, breaker, e))
+                    .doOnCancel(breaker::release);
+        });
+    }
+
+    /**
+     * 为一次流式调用加上熔断检查和超时：首个事件按分位数计算超时，之后按事件间隔判断
+     *
+     * @param model 模型名称
+     * @param call 单次流式HTTP调用
+     * @return 熔断时以 {@link CircuitOpenException} 失败，超时以 TimeoutException 失败
+     */
+    public <T> Flux<T> guardStream(String model, Flux<T> call) {
+        return Flux.defer(() -> {
+            CircuitBreaker breaker = breaker(model);
+            if (!breaker.tryAcquire()) {
+                return Flux.error(new CircuitOpenException(model));
+            }
+            LatencyWindow window = latency(STREAM, model);
+            Duration idle = properties.getTimeout().getStreamIdle();
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return call
+                    .timeout(Mono.delay(timeout(window)), item -> Mono.delay(idle))
+                    .doOnNext(item -> {
+                        if (first.compareAndSet(true, false)) {
+                            window.record(System.nanoTime() - start);
+                        }
+                    })
+                    .doOnComplete(() -> onSuccess(model, breaker))
+                    .doOnError(e -> onError(model, breaker, e))
+                    .doFinally(signal -> {
+                        if (signal == SignalType.CANCEL) {
+                            breaker.release();
+                        }
+                    });
+        });
+    }
+
+    /**
+     * 对冲调用：调用超过该模型耗时的分位数仍未返回、且调度器有空闲额度时，再发起一次相同调用，
+     * 取先成功的结果并取消另一个。样本不足或未启用时与直接调用相同。
+     *
+     * 第一次调用在对冲发出前失败时直接返回该错误，交给重试处理；对冲发出后两次都失败才返回错误。
+     *
+     * @param model 模型名称
+     * @param call 发起一次调用（通常经过调度器提交），每次调用都会重新执行
+     * @return 先成功的结果
+     */
+    public <T> Mono<T> hedge(String model, Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            Duration delay = hedgeDelay(model);
+            if (delay == null) {
+                return call.get();
+            }
+            return Mono.<T>create(sink -> {
+                HedgeRace<T> race = new HedgeRace<>(sink);
+                sink.onDispose(race.running);
+                race.launch(call, () -> { });
+                race.running.add(Mono.delay(delay).subscribe(tick -> {
+                    if (!dispatchScheduler.hasIdleCapacity()) {
+                        return;
+                    }
+                    log.info("调用超过 {} ms 未返回，发起对冲请求，模型: {}", delay.toMillis(), model);
+                    analysisMetrics.recordHedge(model, "launched");
+                    race.launch(call, () -> analysisMetrics.recordHedge(model, "won"));
+                }));
+            });
+        });
+    }
+
+    /**
+     * 批次级重试策略：只重试 {@link #isRetryable(Throwable)} 的错误，指数退避并加随机抖动
+     */
+    public RetryBackoffSpec retrySpec() {
+        ResilienceProperties.Retry retry = properties.getRetry();
+        return Retry.backoff(Math.max(0, retry.getMaxAttempts() - 1), retry.getBackoff())
+                .maxBackoff(retry.getMaxBackoff())
+                .jitter(retry.getJitter())
+                .filter(this::isRetryable);
+    }
+
+    /**
+     * 最大尝试次数（含第一次）
+     */
+    public int maxAttempts() {
+        return properties.getRetry().getMaxAttempts();
+    }
+
+    /**
+     * 是否值得重试：超时、5xx（501除外）和连接错误
+     */
+    public boolean isRetryable(Throwable e) {
+        if (e instanceof TimeoutException || e instanceof WebClientRequestException) {
+            return true;
+        }
+        if (e instanceof WebClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status >= 500 && status != 501;
+        }
+        return false;
+    }
+
+    /**
+     * 该模型最近成功调用（非流式）耗时的分位数
+     *
+     * @param model 模型名称
+     * @param percentile 分位（0~1）
+     * @return 耗时（纳秒），没有样本时返回-1
+     */
+    public long latencyPercentile(String model, double percentile) {
+        return latency(BLOCKING, model).percentile(percentile, 1);
+    }
+
+    /**
+     * 该模型熔断窗口内的失败率（0~1），没有调用时为0
+     */
+    public double errorRate(String model) {
+        return breaker(model).errorRate();
+    }
+
+    /**
+     * 该模型的熔断状态
+     */
+    public CircuitState circuitState(String model) {
+        return breaker(model).state();
+    }
+
+    /**
+     * 计入熔断失败率的错误：超时、5xx和连接错误
+     */
+    private static boolean isProviderFailure(Throwable e) {
+        if (e instanceof TimeoutException || e instanceof WebClientRequestException) {
+            return true;
+        }
+        return e instanceof WebClientResponseException responseException
+                && responseException.getStatusCode().is5xxServerError();
+    }
+
+    private void onSuccess(String model, CircuitBreaker breaker) {
+        CircuitState changed = breaker.onSuccess();
+        if (changed != null) {
+            transitioned(model, changed);
+        }
+    }
+
+    private void onError(String model, CircuitBreaker breaker, Throwable e) {
+        if (e instanceof TimeoutException) {
+            log.warn("LLM调用超时，模型: {}", modelKey(model));
+        }
+        CircuitState changed = isProviderFailure(e) ? breaker.onFailure() : breaker.onIgnored();
+        if (changed != null) {
+            transitioned(model, changed);
+        }
+    }
+
+    private void transitioned(String model, CircuitState state) {
+        if (state == CircuitState.OPEN) {
+            log.warn("模型 {} 调用失败率过高，熔断 {} 秒", modelKey(model),
+                    properties.getCircuit().getOpenDuration().toSeconds());
+        } else {
+            log.info("模型 {} 熔断状态变为 {}", modelKey(model), state);
+        }
+        analysisMetrics.recordCircuitTransition(model, state.name().toLowerCase());
+    }
+
+    private Duration timeout(LatencyWindow window) {
+        ResilienceProperties.Timeout config = properties.getTimeout();
+        long percentile = window.percentile(config.getPercentile(), config.getMinSamples());
+        if (percentile < 0) {
+            return config.getInitial();
+        }
+        long nanos = (long) (percentile * config.getMultiplier());
+        nanos = Math.max(config.getMin().toNanos(), Math.min(config.getMax().toNanos(), nanos));
+        return Duration.ofNanos(nanos);
+    }
+
+    /**
+     * 对冲延迟，未启用或样本不足时返回null
+     */
+    private Duration hedgeDelay(String model) {
+        ResilienceProperties.Hedge hedge = properties.getHedge();
+        if (!hedge.isEnabled()) {
+            return null;
+        }
+        long percentile = latency(BLOCKING, model).percentile(hedge.getPercentile(), properties.getTimeout().getMinSamples());
+        if (percentile < 0) {
+            return null;
+        }
+        return Duration.ofNanos(Math.max(hedge.getMinDelay().toNanos(), percentile));
+    }
+
+    private LatencyWindow latency(String mode, String model) {
+        return latencies.computeIfAbsent(mode + ":" + modelKey(model),
+                key -> new LatencyWindow(properties.getTimeout().getWindow()));
+    }
+
+    private CircuitBreaker breaker(String model) {
+        return breakers.computeIfAbsent(modelKey(model), key -> new CircuitBreaker(properties.getCircuit()));
+    }
+
+    private static String modelKey(String model) {
+        return model != null ? model : DEFAULT_MODEL;
+    }
+
+    /**
+     * 熔断时调用直接失败
+     */
+    public static class CircuitOpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String model) {
+            super("模型 " + modelKey(model) + " 暂时不可用（已熔断），请稍后重试");
+        }
+    }
+
+    public enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 最近若干次成功调用的耗时（环形缓冲）
+     */
+    private static final class LatencyWindow {
+        private final long[] samples;
+        private int next;
+        private int count;
+
+        private LatencyWindow(int size) {
+            this.samples = new long[Math.max(1, size)];
+        }
+
+        private synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * @return 分位数耗时（纳秒），样本数不足minSamples时返回-1
+         */
+        private long percentile(double percentile, int minSamples) {
+            long[] sorted;
+            synchronized (this) {
+                if (count == 0 || count < minSamples) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+
+    /**
+     * 单个模型的熔断器，按最近windowSize次调用的失败率判断
+     *
+     * 状态变化的方法返回变化后的状态，没有变化时返回null。
+     */
+    private static final class CircuitBreaker {
+        private final ResilienceProperties.Circuit config;
+        private final boolean[] failures;
+        private int next;
+        private int count;
+        private int failureCount;
+        private CircuitState state = CircuitState.CLOSED;
+        private long openedAt;
+        private int probes;
+
+        private CircuitBreaker(ResilienceProperties.Circuit config) {
+            this.config = config;
+            this.failures = new boolean[Math.max(1, config.getWindowSize())];
+        }
+
+        private synchronized boolean tryAcquire() {
+            if (!config.isEnabled() || state == CircuitState.CLOSED) {
+                return true;
+            }
+            if (state == CircuitState.OPEN) {
+                if (System.nanoTime() - openedAt < config.getOpenDuration().toNanos()) {
+                    return false;
+                }
+                state = CircuitState.HALF_OPEN;
+                probes = 0;
+            }
+            if (probes >= Math.max(1, config.getHalfOpenCalls())) {
+                return false;
+            }
+            probes++;
+            return true;
+        }
+
+        /**
+         * 熔断中且已过熔断时长时视为半开，下一次调用即为探测
+         */
+        private synchronized CircuitState state() {
+            if (state == CircuitState.OPEN && System.nanoTime() - openedAt >= config.getOpenDuration().toNanos()) {
+                return CircuitState.HALF_OPEN;
+            }
+            return state;
+        }
+
+        private synchronized double errorRate() {
+            return count == 0 ? 0 : (double) failureCount / count;
+        }
+
+        private synchronized CircuitState onSuccess() {
+            if (state == CircuitState.HALF_OPEN) {
+                reset();
+                state = CircuitState.CLOSED;
+                return state;
+            }
+            record(false);
+            return null;
+        }
+
+        private synchronized CircuitState onFailure() {
+            if (state == CircuitState.HALF_OPEN) {
+                return open();
+            }
+            record(true);
+            if (config.isEnabled() && state == CircuitState.CLOSED && count >= config.getMinCalls()
+                    && failureCount * 100 >= config.getFailureRateThreshold() * count) {
+                return open();
+            }
+            return null;
+        }
+
+        /**
+         * 不计入失败率的错误，半开状态下归还探测名额
+         */
+        private synchronized CircuitState onIgnored() {
+            release();
+            return null;
+        }
+
+        private synchronized void release() {
+            if (state == CircuitState.HALF_OPEN && probes > 0) {
+                probes--;
+            }
+        }
+
+        private CircuitState open() {
+            reset();
+            state = CircuitState.OPEN;
+            openedAt = System.nanoTime();
+            return state;
+        }
+
+        private void record(boolean failure) {
+            if (count == failures.length && failures[next]) {
+                failureCount--;
+            }
+            failures[next] = failure;
+            if (failure) {
+                failureCount++;
+            }
+            next = (next + 1) % failures.length;
+            count = Math.min(count + 1, failures.length);
+        }
+
+        private void reset() {
+            Arrays.fill(failures, false);
+            next = 0;
+            count = 0;
+            failureCount = 0;
+            probes = 0;
+        }
+    }
+
+    /**
+     * 一次对冲调用中的第一次调用和对冲调用，先成功的结果生效
+     */
+    private static final class HedgeRace<T> {
+        private final MonoSink<T> sink;
+        private final Disposable.Composite running = Disposables.composite();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private HedgeRace(MonoSink<T> sink) {
+            this.sink = sink;
+        }
+
+        private void launch(Supplier<Mono<T>> call, Runnable onWin) {
+            pending.incrementAndGet();
+            running.add(Mono.defer(call)
+                    .contextWrite(sink.contextView())
+                    .subscribe(value -> {
+                        if (done.compareAndSet(false, true)) {
+                            onWin.run();
+                            sink.success(value);
+                        }
+                    }, error -> {
+                        if (pending.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+                            sink.error(error);
+                        }
+                    }, () -> {
+                        if (done.compareAndSet(false, true)) {
+                            sink.success();
+                        }
+                    }));
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * LLM响应缓存
+ *
+ * 以 (模型, 提示词) 的SHA-256作为缓存键，分两级：
+ * 1. 内存LRU，按条数和TTL淘汰；
+ * 2. 可选的磁盘目录（默认关闭，设置 llm.cache.disk-dir 后开启），每个键一个文件，重启后仍然有效。
+ *    文件内容是分析结果明文，启动时和每写入一定数量的文件后清理一次：
+ *    删除过期文件，文件数或总大小超出上限时按写入时间从旧到新删除。
+ * 命中时直接返回结果，不会进入调度器，也不会调用CallLLM。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class LlmResponseCache {
+
+    @Value("${llm.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${llm.cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${llm.cache.ttl-hours:168}")
+    private long ttlHours;
+
+    /**
+     * 磁盘缓存目录，为空时只使用内存缓存
+     */
+    @Value("${llm.cache.disk-dir:}")
+    private String diskDir;
+
+    @Value("${llm.cache.disk-max-entries:10000}")
+    private int diskMaxEntries;
+
+    @Value("${llm.cache.disk-max-mb:512}")
+    private long diskMaxMb;
+
+    // 每写入这么多个文件清理一次磁盘缓存
+    private static final int SWEEP_EVERY_WRITES = 100;
+
+    private static final String CACHE_SUFFIX = ".txt";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final AtomicInteger writesSinceSweep = new AtomicInteger();
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    @Value("${dashscope.model}")
+    private String defaultModel;
+
+    @Autowired
+    private AnalysisMetrics analysisMetrics;
+
+    private final Map<String, CacheEntry> memory = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    @PostConstruct
+    public void init() {
+        if (enabled && isDiskEnabled()) {
+            // 目录可能很大，不阻塞启动
+            Schedulers.boundedElastic().schedule(this::sweepDisk);
+        }
+    }
+
+    /**
+     * 读取缓存，未命中时调用loader并回填
+     *
+     * @param model 模型名称，为空时按默认模型计算缓存键
+     * @param prompt 提示词
+     * @param loader 未命中时真正调用LLM的逻辑
+     * @return LLM响应结果
+     */
+    public Mono<String> getOrLoad(String model, String prompt, Supplier<Mono<String>> loader) {
+        if (!enabled) {
+            return Mono.defer(loader);
+        }
+        String key = cacheKey(model != null ? model : defaultModel, prompt);
+
+        return Mono.defer(() -> {
+            String cached = getFromMemory(key);
+            if (cached != null) {
+                log.info("LLM缓存命中（内存）: {}", key);
+                analysisMetrics.recordCacheLookup("memory_hit");
+                return Mono.just(cached);
+            }
+            return readFromDisk(key)
+                    .doOnNext(value -> {
+                        log.info("LLM缓存命中（磁盘）: {}", key);
+                        analysisMetrics.recordCacheLookup("disk_hit");
+                        putToMemory(key, value);
+                    })
+                    .switchIfEmpty(Mono.defer(() -> {
+                                analysisMetrics.recordCacheLookup("miss");
+                                return loader.get();
+                            })
+                            .flatMap(value -> {
+                                putToMemory(key, value);
+                                return writeToDisk(key, value).thenReturn(value);
+                            }));
+        });
+    }
+
+    private synchronized String getFromMemory(String key) {
+        CacheEntry entry = memory.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry.createdAt)) {
+            memory.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private synchronized void putToMemory(String key, String value) {
+        memory.put(key, new CacheEntry(value, System.currentTimeMillis()));
+    }
+
+    private boolean isDiskEnabled() {
+        return diskDir != null && !diskDir.isBlank();
+    }
+
+    private Mono<String> readFromDisk(String key) {
+        if (!isDiskEnabled()) {
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> {
+                    Path file = Paths.get(diskDir, key + CACHE_SUFFIX);
+                    if (!Files.exists(file)) {
+                        return null;
+                    }
+                    if (isExpired(Files.getLastModifiedTime(file).toMillis())) {
+                        Files.deleteIfExists(file);
+                        return null;
+                    }
+                    return Files.readString(file, StandardCharsets.UTF_8);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(IOException.class, e -> {
+                    log.warn("读取磁盘缓存失败: {}", e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> writeToDisk(String key, String value) {
+        if (!isDiskEnabled()) {
+            return Mono.empty();
+        }
+        return Mono.<Void>fromRunnable(() -> {
+                    try {
+                        Path dir = Paths.get(diskDir);
+                        Files.createDirectories(dir);
+                        // 先写临时文件再原子替换，避免并发读到半个文件
+                        Path tmp = Files.createTempFile(dir, key, TEMP_SUFFIX);
+                        Files.writeString(tmp, value, StandardCharsets.UTF_8);
+                        Files.move(tmp, dir.resolve(key + CACHE_SUFFIX),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        log.warn("写入磁盘缓存失败: {}", e.getMessage());
+                    }
+                    if (writesSinceSweep.incrementAndGet() >= SWEEP_EVERY_WRITES) {
+                        sweepDisk();
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 清理磁盘缓存：删除过期文件和残留的临时文件，超出条数或大小上限时从最早写入的开始删除
+     */
+    private void sweepDisk() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            writesSinceSweep.set(0);
+            Path dir = Paths.get(diskDir);
+            if (!Files.isDirectory(dir)) {
+                return;
+            }
+            List<CachedFile> files = new ArrayList<>();
+            int expired = 0;
+            try (Stream<Path> paths = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) paths::iterator) {
+                    String name = file.getFileName().toString();
+                    if (!name.endsWith(CACHE_SUFFIX) && !name.endsWith(TEMP_SUFFIX)) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    long modifiedAt = attributes.lastModifiedTime().toMillis();
+                    // 临时文件只可能是写入中途退出留下的，存在超过一小时即删除
+                    boolean stale = name.endsWith(TEMP_SUFFIX)
+                            ? System.currentTimeMillis() - modifiedAt > TimeUnit.HOURS.toMillis(1)
+                            : isExpired(modifiedAt);
+                    if (stale) {
+                        Files.deleteIfExists(file);
+                        expired++;
+                    } else if (name.endsWith(CACHE_SUFFIX)) {
+                        files.add(new CachedFile(file, modifiedAt, attributes.size()));
+                    }
+                }
+            }
+
+            long maxBytes = diskMaxMb * 1024 * 1024;
+            long totalBytes = files.stream().mapToLong(file -> file.size).sum();
+            int evicted = 0;
+            if (files.size() > diskMaxEntries || totalBytes > maxBytes) {
+                files.sort(Comparator.comparingLong(file -> file.modifiedAt));
+                int remaining = files.size();
+                for (CachedFile file : files) {
+                    if (remaining <= diskMaxEntries && totalBytes <= maxBytes) {
+                        break;
+                    }
+                    Files.deleteIfExists(file.path);
+                    remaining--;
+                    totalBytes -= file.size;
+                    evicted++;
+                }
+            }
+            if (expired > 0 || evicted > 0) {
+                log.info("清理磁盘缓存：删除过期文件 {} 个，超出上限删除 {} 个，剩余 {} 个共 {} KB",
+                        expired, evicted, files.size() - evicted, totalBytes / 1024);
+            }
+        } catch (IOException e) {
+            log.warn("清理磁盘缓存失败: {}", e.getMessage());
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private boolean isExpired(long createdAt) {
+        return System.currentTimeMillis() - createdAt > TimeUnit.HOURS.toMillis(ttlHours);
+    }
+
+    private String cacheKey(String model, String prompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(prompt.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    /**
+     * 磁盘缓存文件
+     */
+    private static final class CachedFile {
+        private final Path path;
+        private final long modifiedAt;
+        private final long size;
+
+        private CachedFile(Path path, long modifiedAt, long size) {
+            this.path = path;
+            this.modifiedAt = modifiedAt;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 内存缓存条目
+     */
+    private static final class CacheEntry {
+        private final String value;
+        private final long createdAt;
+
+        private CacheEntry(String value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+}
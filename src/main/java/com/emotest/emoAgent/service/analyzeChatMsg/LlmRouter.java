@@ -0,0 +1,123 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import com.emotest.emoAgent.model.ModelHealth;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按任务选择模型
+ *
+ * 批次分析和归并调用次数多、单次内容少，发往便宜快速的模型；最终报告只有一次，
+ * 发往能力更强的模型。每个层级在候选模型中选得分最低的一个：
+ * 得分 = 相对单价 ÷ (1 - 失败率) × max(1, 中位耗时 ÷ 期望耗时)，
+ * 即按失败重试后的期望成本计价，耗时超出期望时按比例加重；已熔断的模型不参与选择。
+ * 没有耗时样本的模型不加重，新加入的模型也会被选到。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class LlmRouter {
+
+    /**
+     * 调用所属的任务层级
+     */
+    public enum Tier {
+        /** 批次分析和归并 */
+        BATCH,
+        /** 最终报告 */
+        REPORT
+    }
+
+    // 失败率接近1时避免除以0
+    private static final double MIN_SUCCESS_RATE = 0.05;
+
+    private final LlmProviderProperties properties;
+
+    private final LlmResilience resilience;
+
+    private final LlmProviderRegistry providerRegistry;
+
+    @Value("${dashscope.model}")
+    private String defaultModel;
+
+    public LlmRouter(LlmProviderProperties properties, LlmResilience resilience, LlmProviderRegistry providerRegistry) {
+        this.properties = properties;
+        this.resilience = resilience;
+        this.providerRegistry = providerRegistry;
+    }
+
+    /**
+     * 为一次分析中该层级的调用选择模型
+     *
+     * @param tier 任务层级
+     * @param requestedModel 请求中的模型
+     * @return 选中的模型；未启用路由或该层级没有候选模型时返回请求中的模型
+     */
+    public String route(Tier tier, String requestedModel) {
+        LlmProviderProperties.Routing routing = properties.getRouting();
+        List<String> candidates = tier == Tier.BATCH ? routing.getBatchModels() : routing.getReportModels();
+        if (!routing.isEnabled() || candidates.isEmpty()) {
+            return requestedModel;
+        }
+
+        String best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (String candidate : candidates) {
+            if (resilience.circuitState(candidate) == LlmResilience.CircuitState.OPEN) {
+                continue;
+            }
+            double score = score(candidate);
+            if (score < bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            // 全部熔断时仍选第一个，调用会直接失败并按批次记录
+            best = candidates.get(0);
+            log.warn("{} 的候选模型均已熔断，使用 {}", tier, best);
+        } else {
+            log.info("{} 路由到模型 {}，得分: {}", tier, best, String.format("%.3f", bestScore));
+        }
+        return best;
+    }
+
+    /**
+     * 所有已知模型（各提供方声明的、路由候选和默认模型）的实时状态
+     */
+    public List<ModelHealth> models() {
+        LlmProviderProperties.Routing routing = properties.getRouting();
+        Set<String> models = new LinkedHashSet<>();
+        models.add(defaultModel);
+        models.addAll(providerRegistry.declaredModels());
+        models.addAll(routing.getBatchModels());
+        models.addAll(routing.getReportModels());
+
+        List<ModelHealth> health = new ArrayList<>(models.size());
+        for (String model : models) {
+            long p50 = resilience.latencyPercentile(model, 0.5);
+            health.add(new ModelHealth(providerRegistry.forModel(model).name(), model, routing.costOf(model),
+                    p50 < 0 ? null : TimeUnit.NANOSECONDS.toMillis(p50), resilience.errorRate(model),
+                    resilience.circuitState(model).name(), score(model)));
+        }
+        return health;
+    }
+
+    private double score(String model) {
+        LlmProviderProperties.Routing routing = properties.getRouting();
+        double successRate = Math.max(MIN_SUCCESS_RATE, 1 - resilience.errorRate(model));
+        long p50 = resilience.latencyPercentile(model, 0.5);
+        double latencyFactor = p50 < 0 ? 1 : Math.max(1, (double) p50 / routing.getLatencyTarget().toNanos());
+        return routing.costOf(model) / successRate * latencyFactor;
+    }
+}
@@ -2,17 +2,19 @@ package com.emotest.emoAgent.service.analyzeChatMsg;
 
 import com.emotest.emoAgent.model.Contact;
 import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageFilter;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.File;
-import java.sql.*;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * 微信聊天记录加载工具类
@@ -25,116 +27,131 @@ import java.util.List;
 public class LoadChatMsgUtil {
 
     /**
-     * 查找联系人
+     * 查找好友消息时展示的最近消息条数
+     */
+    private static final int DISPLAY_LIMIT = 20;
+
+    @Autowired
+    private ChatMessageStreamReader chatMessageStreamReader;
+
+    @Autowired
+    private ContactIndex contactIndex;
+
+    @Autowired
+    private ChatMessageFormatter chatMessageFormatter;
+
+    /**
+     * 查找要分析的联系人
+     * 
+     * 只接受与昵称、备注、微信号或用户名完全相同的姓名，不做拼音和子串匹配，
+     * 避免简短的姓名匹配到多个联系人并把他们的聊天记录混在一起分析。
      * 
      * @param dataPath 微信数据路径
      * @param friendName 好友姓名
-     * @return 联系人列表
+     * @return 联系人列表，未找到时为空，最多一个
+     * @throws IllegalArgumentException 姓名同时匹配多个联系人，消息中列出所有候选
      */
     public List<Contact> findContacts(String dataPath, String friendName) {
-        List<Contact> contacts = new ArrayList<>();
-        String microMsgPath = dataPath + File.separator + "MicroMsg.db";
-        
-        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + microMsgPath)) {
-            String query = "SELECT UserName, NickName, ReMark, Alias FROM Contact " +
-                          "WHERE NickName LIKE ? OR ReMark LIKE ? OR Alias LIKE ?";
-            
-            try (PreparedStatement stmt = conn.prepareStatement(query)) {
-                String pattern = "%" + friendName + "%";
-                stmt.setString(1, pattern);
-                stmt.setString(2, pattern);
-                stmt.setString(3, pattern);
-                
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        Contact contact = new Contact();
-                        contact.setUserName(rs.getString("UserName"));
-                        contact.setNickName(rs.getString("NickName"));
-                        contact.setReMark(rs.getString("ReMark"));
-                        contact.setAlias(rs.getString("Alias"));
-                        contacts.add(contact);
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            log.error("查找联系人失败", e);
+        List<Contact> contacts = contactIndex.findExact(dataPath, friendName);
+        if (contacts.size() > 1) {
+            String candidates = contacts.stream()
+                    .map(c -> String.format("%s(备注: %s, 微信号: %s, 用户名: %s)",
+                            c.getNickName(), c.getReMark(), c.getAlias(), c.getUserName()))
+                    .collect(Collectors.joining("; "));
+            throw new IllegalArgumentException("'" + friendName + "' 匹配到 " + contacts.size()
+                    + " 个联系人，请改用备注、微信号或用户名指定: " + candidates);
         }
-        
         return contacts;
     }
-    
 
+    /**
+     * 联系人自动补全
+     * 
+     * @param dataPath 微信数据路径
+     * @param keyword 已输入的部分姓名或拼音
+     * @param limit 最多返回的条数
+     * @return 联系人列表，按匹配程度排序
+     */
+    public List<Contact> suggestContacts(String dataPath, String keyword, int limit) {
+        return contactIndex.search(dataPath, keyword, limit);
+    }
 
     /**
      * 查找消息记录
      * 
      * @param dataPath 微信数据路径
      * @param userName 用户名
-     * @return 消息列表
+     * @return 消息列表（按时间正序）
      */
     public List<Message> findMessages(String dataPath, String userName) {
-        List<Message> allMessages = new ArrayList<>();
-        
-        // 查找MSG0.db
-        String msg0Path = dataPath + File.separator + "Multi" + File.separator + "MSG0.db";
-        File msg0File = new File(msg0Path);
-        if (msg0File.exists()) {
-            List<Message> messages = queryMessages(msg0Path, userName);
-            if (messages != null) {
-                allMessages.addAll(messages);
-            }
-        }
-        
-        // 查找MSG1.db
-        String msg1Path = dataPath + File.separator + "Multi" + File.separator + "MSG1.db";
-        File msg1File = new File(msg1Path);
-        if (msg1File.exists()) {
-            List<Message> messages = queryMessages(msg1Path, userName);
-            if (messages != null) {
-                allMessages.addAll(messages);
-            }
-        }
-        
-        return allMessages;
+        return findMessages(dataPath, userName, null, null);
     }
 
     /**
-     * 查询消息
+     * 查找指定位置之后的消息记录（用于增量分析）
      * 
-     * @param dbPath 数据库路径
+     * @param dataPath 微信数据路径
      * @param userName 用户名
-     * @return 消息列表
+     * @param sinceCreateTime 已处理的最后一条消息的创建时间，为空时查询全部
+     * @param sinceMsgSvrId 已处理的最后一条消息的服务器ID
+     * @return 消息列表（按时间正序）
      */
-    private List<Message> queryMessages(String dbPath, String userName) {
-        List<Message> messages = new ArrayList<>();
-        
-        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbPath)) {
-            String query = "SELECT LocalId, MsgSvrID, Type, SubType, IsSender, CreateTime, StrTalker, StrContent " +
-                          "FROM MSG WHERE StrTalker = ? ORDER BY CreateTime DESC LIMIT 1000";
-            
-            try (PreparedStatement stmt = conn.prepareStatement(query)) {
-                stmt.setString(1, userName);
-                
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        Message msg = new Message();
-                        msg.setLocalId(rs.getInt("LocalId"));
-                        msg.setMsgSvrId(rs.getLong("MsgSvrID"));
-                        msg.setType(rs.getInt("Type"));
-                        msg.setSubType(rs.getInt("SubType"));
-                        msg.setIsSender(rs.getInt("IsSender"));
-                        msg.setCreateTime(rs.getLong("CreateTime"));
-                        msg.setStrTalker(rs.getString("StrTalker"));
-                        msg.setStrContent(rs.getString("StrContent"));
-                        messages.add(msg);
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            log.error("查询消息失败: " + dbPath, e);
+    public List<Message> findMessages(String dataPath, String userName, Long sinceCreateTime, Long sinceMsgSvrId) {
+        try (Stream<Message> messages = streamMessages(dataPath, List.of(userName), sinceCreateTime, sinceMsgSvrId)) {
+            return messages.collect(Collectors.toCollection(ArrayList::new));
         }
-        
-        return messages;
+    }
+
+    /**
+     * 流式读取所有消息分片中指定联系人的消息
+     * 
+     * 消息按时间正序逐页读取，内存占用与聊天记录总量无关；返回的Stream使用完毕后必须关闭。
+     * 
+     * @param dataPath 微信数据路径
+     * @param userNames 联系人用户名
+     * @param sinceCreateTime 已处理的最后一条消息的创建时间，为空时读取全部
+     * @param sinceMsgSvrId 已处理的最后一条消息的服务器ID
+     * @return 消息流
+     */
+    public Stream<Message> streamMessages(String dataPath, List<String> userNames, Long sinceCreateTime, Long sinceMsgSvrId) {
+        return chatMessageStreamReader.stream(dataPath, userNames, sinceCreateTime, sinceMsgSvrId);
+    }
+
+    /**
+     * 流式读取指定联系人满足筛选条件的消息，条件在SQL中执行
+     * 
+     * @param dataPath 微信数据路径
+     * @param userNames 联系人用户名
+     * @param sinceCreateTime 已处理的最后一条消息的创建时间，为空时读取全部
+     * @param sinceMsgSvrId 已处理的最后一条消息的服务器ID
+     * @param filter 筛选条件（时间范围、消息类型、发送者）
+     * @return 消息流
+     */
+    public Stream<Message> streamMessages(String dataPath, List<String> userNames, Long sinceCreateTime, Long sinceMsgSvrId,
+                                          MessageFilter filter) {
+        return chatMessageStreamReader.stream(dataPath, userNames, sinceCreateTime, sinceMsgSvrId, filter);
+    }
+
+    /**
+     * 统计各联系人满足筛选条件的消息数，用于选出最活跃的联系人
+     * 
+     * @param dataPath 微信数据路径
+     * @param filter 筛选条件
+     * @return 用户名到消息数的映射
+     */
+    public Map<String, Long> countMessagesByTalker(String dataPath, MessageFilter filter) {
+        return chatMessageStreamReader.countByTalker(dataPath, filter);
+    }
+
+    /**
+     * 按微信用户名查找联系人
+     * 
+     * @param dataPath 微信数据路径
+     * @param userName 微信用户名
+     * @return 联系人，不存在时返回null
+     */
+    public Contact findContactByUserName(String dataPath, String userName) {
+        return contactIndex.findByUserName(dataPath, userName);
     }
 
     /**
@@ -144,9 +161,7 @@ public class LoadChatMsgUtil {
      * @return 格式化的时间字符串
      */
     public String formatTime(Long timestamp) {
-        LocalDateTime dateTime = LocalDateTime.ofInstant(
-            Instant.ofEpochSecond(timestamp), ZoneId.systemDefault());
-        return dateTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        return chatMessageFormatter.formatTime(timestamp);
     }
 
     /**
@@ -176,6 +191,8 @@ public class LoadChatMsgUtil {
     /**
      * 查找好友消息（主方法）
      * 
+     * 流式读取全部记录，只保留最近的 {@value #DISPLAY_LIMIT} 条按时间倒序展示。
+     * 
      * @param dataPath 微信数据路径
      * @param friendName 好友姓名
      * @return 查找结果
@@ -184,7 +201,12 @@ public class LoadChatMsgUtil {
         StringBuilder result = new StringBuilder();
         
         // 1. 首先在MicroMsg.db中查找好友信息
-        List<Contact> contacts = findContacts(dataPath, friendName);
+        List<Contact> contacts;
+        try {
+            contacts = findContacts(dataPath, friendName);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage() + "\n";
+        }
         
         if (contacts.isEmpty()) {
             result.append("未找到名为 '").append(friendName).append("' 的好友\n");
@@ -204,23 +226,34 @@ public class LoadChatMsgUtil {
             result.append(String.format("\n=== 查找与 %s (%s) 的聊天记录 ===\n", 
                 contact.getNickName(), contact.getUserName()));
             
-            List<Message> messages = findMessages(dataPath, contact.getUserName());
+            // 只保留最近的 DISPLAY_LIMIT 条，按时间倒序展示
+            Deque<Message> latest = new ArrayDeque<>();
+            long total = 0;
+            try (Stream<Message> messages = streamMessages(dataPath, List.of(contact.getUserName()), null, null)) {
+                Iterator<Message> iterator = messages.iterator();
+                while (iterator.hasNext()) {
+                    latest.addFirst(iterator.next());
+                    if (latest.size() > DISPLAY_LIMIT) {
+                        latest.removeLast();
+                    }
+                    total++;
+                }
+            }
             
-            result.append("找到 ").append(messages.size()).append(" 条聊天记录:\n");
+            result.append("找到 ").append(total).append(" 条聊天记录:\n");
             
-            int displayCount = Math.min(messages.size(), 20);
-            for (int i = 0; i < displayCount; i++) {
-                Message msg = messages.get(i);
+            int i = 0;
+            for (Message msg : latest) {
                 String msgTime = formatTime(msg.getCreateTime());
                 String sender = getSenderLabel(msg.getIsSender());
                 String content = truncateContent(msg.getStrContent(), 50);
                 
                 result.append(String.format("%d. [%s] %s: %s (类型:%d)\n",
-                    i + 1, msgTime, sender, content, msg.getType()));
+                    ++i, msgTime, sender, content, msg.getType()));
             }
             
-            if (messages.size() > 20) {
-                result.append("... 还有 ").append(messages.size() - 20).append(" 条记录\n");
+            if (total > DISPLAY_LIMIT) {
+                result.append("... 还有 ").append(total - DISPLAY_LIMIT).append(" 条更早的记录\n");
             }
         }
         
@@ -0,0 +1,97 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 本地模拟提供方，不发起网络请求
+ *
+ * 按配置的耗时返回固定格式的内容，可按比例返回503，用于在没有API Key的环境下
+ * 测试分批、路由、熔断和续跑。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+public class MockLlmProvider implements LlmProvider {
+
+    // 流式输出时每个片段的字符数
+    private static final int CHUNK_CHARS = 16;
+
+    private final String name;
+
+    private final Duration latency;
+
+    private final double failureRate;
+
+    /**
+     * @param name 提供方名称
+     * @param latency 每次调用的耗时
+     * @param failureRate 返回503的比例（0~1）
+     */
+    public MockLlmProvider(String name, Duration latency, double failureRate) {
+        this.name = name;
+        this.latency = latency;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String apiKey() {
+        return null;
+    }
+
+    @Override
+    public Mono<String> call(String prompt, String apiKey, String model) {
+        return Mono.delay(latency).flatMap(tick -> failed() ? Mono.error(unavailable()) : Mono.just(reply(prompt, model)));
+    }
+
+    @Override
+    public Flux<String> stream(String prompt, String apiKey, String model) {
+        return Mono.delay(latency).flatMapMany(tick -> {
+            if (failed()) {
+                return Flux.error(unavailable());
+            }
+            String reply = reply(prompt, model);
+            List<String> chunks = new ArrayList<>();
+            for (int i = 0; i < reply.length(); i += CHUNK_CHARS) {
+                chunks.add(reply.substring(i, Math.min(reply.length(), i + CHUNK_CHARS)));
+            }
+            return Flux.fromIterable(chunks);
+        });
+    }
+
+    private boolean failed() {
+        return failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate;
+    }
+
+    private WebClientResponseException unavailable() {
+        return WebClientResponseException.create(HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable",
+                HttpHeaders.EMPTY, new byte[0], null);
+    }
+
+    /**
+     * 模拟回复：带上模型名和提示词开头，接力模式的提示词会得到上下文摘要小节
+     */
+    private static String reply(String prompt, String model) {
+        String head = prompt.substring(0, Math.min(prompt.length(), 60)).replace('\n', ' ');
+        StringBuilder reply = new StringBuilder();
+        if (prompt.contains(AnalysisPromptBuilder.CARRY_SECTION_TITLE)) {
+            reply.append(AnalysisPromptBuilder.CARRY_SECTION_TITLE).append('\n')
+                    .append("模拟摘要（").append(prompt.length()).append("字）\n");
+        }
+        reply.append("## 模拟分析（").append(model).append("）\n").append(head);
+        return reply.toString();
+    }
+}
@@ -0,0 +1,175 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.OpenAIResponse;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OpenAI兼容的 /chat/completions 接口（OpenAI、DeepSeek、vLLM、Ollama等）
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Slf4j
+public class OpenAICompatibleProvider implements LlmProvider {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<>() { };
+
+    // 流式响应的结束标记
+    private static final String DONE = "[DONE]";
+
+    private static final Gson GSON = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+
+    private final String name;
+
+    private final WebClient webClient;
+
+    private final String url;
+
+    private final String apiKey;
+
+    private final AnalysisMetrics analysisMetrics;
+
+    /**
+     * @param name 提供方名称
+     * @param webClient WebClient
+     * @param url /chat/completions 的完整地址
+     * @param apiKey 提供方自己的API Key，为空时使用请求中的API Key
+     * @param analysisMetrics 指标
+     */
+    public OpenAICompatibleProvider(String name, WebClient webClient, String url, String apiKey,
+                                    AnalysisMetrics analysisMetrics) {
+        this.name = name;
+        this.webClient = webClient;
+        this.url = url;
+        this.apiKey = apiKey;
+        this.analysisMetrics = analysisMetrics;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String apiKey() {
+        return apiKey;
+    }
+
+    @Override
+    public Mono<String> call(String prompt, String useApiKey, String useModel) {
+        return Mono.defer(() -> {
+            log.info("发送请求到: {}", url);
+            return webClient.post()
+                    .uri(url)
+                    .header("Authorization", "Bearer " + useApiKey)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(buildRequestBody(prompt, useModel, false))
+                    .retrieve()
+                    .bodyToMono(DataBuffer.class)
+                    .map(body -> {
+                        OpenAIResponse response = parse(body);
+                        recordUsage(useModel, response.getUsage());
+                        String content = content(response, false);
+                        if (content == null) {
+                            throw new IllegalStateException(name + " 响应中没有内容");
+                        }
+                        return content;
+                    });
+        });
+    }
+
+    @Override
+    public Flux<String> stream(String prompt, String useApiKey, String useModel) {
+        return Flux.defer(() -> {
+            // 用量只在最后一个事件中返回
+            OpenAIResponse.Usage[] usage = {null};
+            return webClient.post()
+                    .uri(url)
+                    .header("Authorization", "Bearer " + useApiKey)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(buildRequestBody(prompt, useModel, true))
+                    .retrieve()
+                    .bodyToFlux(SSE_TYPE)
+                    .<String>handle((event, sink) -> {
+                        String data = event.data();
+                        if (data == null || data.isBlank() || DONE.equals(data.trim())) {
+                            return;
+                        }
+                        OpenAIResponse chunk = GSON.fromJson(data, OpenAIResponse.class);
+                        if (chunk.getUsage() != null) {
+                            usage[0] = chunk.getUsage();
+                        }
+                        String content = content(chunk, true);
+                        if (content != null && !content.isEmpty()) {
+                            sink.next(content);
+                        }
+                    })
+                    .doOnComplete(() -> recordUsage(useModel, usage[0]));
+        });
+    }
+
+    /**
+     * 直接从响应字节反序列化并释放缓冲区
+     */
+    private OpenAIResponse parse(DataBuffer body) {
+        try (Reader in = new InputStreamReader(body.asInputStream(true), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(in, OpenAIResponse.class);
+        } catch (IOException e) {
+            throw new IllegalStateException(name + " 响应读取失败", e);
+        }
+    }
+
+    private Map<String, Object> buildRequestBody(String prompt, String useModel, boolean stream) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", useModel);
+        requestBody.put("messages", List.of(Map.of("role", "user", "content", prompt)));
+        if (stream) {
+            requestBody.put("stream", true);
+            requestBody.put("stream_options", Map.of("include_usage", true));
+        }
+        return requestBody;
+    }
+
+    /**
+     * 第一个选择的内容，流式响应取delta，否则取message
+     */
+    private static String content(OpenAIResponse response, boolean stream) {
+        if (response.getChoices() == null || response.getChoices().length == 0) {
+            return null;
+        }
+        OpenAIResponse.Choice choice = response.getChoices()[0];
+        OpenAIResponse.Message message = stream ? choice.getDelta() : choice.getMessage();
+        return message != null ? message.getContent() : null;
+    }
+
+    private void recordUsage(String useModel, OpenAIResponse.Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        analysisMetrics.recordLlmTokens(useModel,
+                usage.getPromptTokens() != null ? usage.getPromptTokens() : -1,
+                usage.getCompletionTokens() != null ? usage.getCompletionTokens() : -1);
+    }
+}
@@ -0,0 +1,163 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteOpenMode;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SQLite只读连接池
+ *
+ * 每个数据库文件一组空闲连接，跨请求复用。连接以 SQLITE_OPEN_READONLY 打开，
+ * 并开启mmap和较大的页缓存；数据库文件被替换（修改时间变化）时丢弃旧连接。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class SqliteConnectionPool {
+
+    @Value("${chat.sqlite.max-idle-per-db:4}")
+    private int maxIdlePerDb;
+
+    @Value("${chat.sqlite.mmap-size:268435456}")
+    private long mmapSize;
+
+    @Value("${chat.sqlite.cache-size-kib:65536}")
+    private int cacheSizeKib;
+
+    private final Map<String, DbPool> pools = new HashMap<>();
+
+    /**
+     * 借出一个只读连接，使用完毕后关闭Lease即归还
+     *
+     * @param dbPath 数据库文件路径
+     * @return 连接租约
+     * @throws SQLException 打开连接失败
+     */
+    public Lease borrow(String dbPath) throws SQLException {
+        File file = new File(dbPath);
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+
+        DbPool pool;
+        synchronized (this) {
+            pool = pools.computeIfAbsent(key, k -> new DbPool());
+        }
+
+        Connection connection = pool.poll(lastModified);
+        if (connection == null) {
+            connection = open(key);
+        }
+        return new Lease(pool, connection, lastModified);
+    }
+
+    /**
+     * 关闭所有空闲连接
+     */
+    @PreDestroy
+    public synchronized void closeAll() {
+        pools.values().forEach(DbPool::clear);
+        pools.clear();
+    }
+
+    private Connection open(String dbPath) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        config.setOpenMode(SQLiteOpenMode.READONLY);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(mmapSize));
+        // 负数表示以KiB为单位
+        config.setCacheSize(-cacheSizeKib);
+        config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        log.debug("打开只读连接: {}", dbPath);
+        return config.createConnection("jdbc:sqlite:" + dbPath);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("关闭连接失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 单个数据库文件的空闲连接
+     */
+    private final class DbPool {
+        private final Deque<Connection> idle = new ArrayDeque<>();
+        private long lastModified;
+
+        private synchronized Connection poll(long currentModified) throws SQLException {
+            if (currentModified != lastModified) {
+                // 数据库文件已变化，旧连接看到的可能是旧文件
+                clear();
+                lastModified = currentModified;
+            }
+            while (!idle.isEmpty()) {
+                Connection connection = idle.pollFirst();
+                if (!connection.isClosed()) {
+                    return connection;
+                }
+            }
+            return null;
+        }
+
+        private void release(Connection connection, long openedAt) {
+            synchronized (this) {
+                if (openedAt == lastModified && idle.size() < maxIdlePerDb) {
+                    idle.addFirst(connection);
+                    return;
+                }
+            }
+            closeQuietly(connection);
+        }
+
+        private synchronized void clear() {
+            idle.forEach(SqliteConnectionPool::closeQuietly);
+            idle.clear();
+        }
+    }
+
+    /**
+     * 连接租约，关闭时把连接归还到池中
+     */
+    public static final class Lease implements AutoCloseable {
+        private final DbPool pool;
+        private final Connection connection;
+        private final long openedAt;
+        private boolean released;
+
+        private Lease(DbPool pool, Connection connection, long openedAt) {
+            this.pool = pool;
+            this.connection = connection;
+            this.openedAt = openedAt;
+        }
+
+        /**
+         * 获取连接，不要直接关闭它
+         */
+        public Connection connection() {
+            return connection;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                pool.release(connection, openedAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.model.AnalysisProgress;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 批次摘要逐层归并
+ *
+ * 所有批次结果拼接后不超过合并预算时直接返回；否则把相邻的摘要每k段分成一组，
+ * 各组并行调用LLM合并成一段，逐层进行，直到整体落在预算内。
+ * 每次调用的输入不超过合并预算，单次调用耗时有上限，每层的并行度为 n/k。
+ * 各段都接近预算、按预算无法合并任意两段时，改为相邻两段强制合并，保证每层摘要数都会减少；
+ * 合并输入超出预算时按比例截断各段。合并失败、只剩一段仍超预算或达到层数上限时，
+ * 截断各段并标注省略，返回的内容始终不超过合并预算。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class SummaryTreeReducer {
+
+    private static final String SEPARATOR = "\n\n=== 批次分隔 ===\n\n";
+
+    private static final String CLIP_MARKER = "\n……（超出合并预算，其余内容已省略）";
+
+    // 归并层数上限，防止摘要无法继续缩短时无限循环
+    private static final int MAX_LEVELS = 8;
+
+    private final CallLLM callLLM;
+
+    private final LlmDispatchScheduler dispatchScheduler;
+
+    private final LlmResponseCache llmResponseCache;
+
+    private final TokenEstimator tokenEstimator;
+
+    private final BatchProperties batchProperties;
+
+    public SummaryTreeReducer(CallLLM callLLM, LlmDispatchScheduler dispatchScheduler, LlmResponseCache llmResponseCache,
+                              TokenEstimator tokenEstimator, BatchProperties batchProperties) {
+        this.callLLM = callLLM;
+        this.dispatchScheduler = dispatchScheduler;
+        this.llmResponseCache = llmResponseCache;
+        this.tokenEstimator = tokenEstimator;
+        this.batchProperties = batchProperties;
+    }
+
+    /**
+     * 把批次摘要归并到合并预算以内
+     *
+     * @param summaries 按时间顺序排列的批次摘要
+     * @param apiKey 阿里云DashScope API Key
+     * @param model 模型名称
+     * @param listener 进度监听器，每开始一层归并通知一次
+     * @return 归并后的内容，不超过合并预算
+     */
+    public Mono<String> reduce(List<String> summaries, String apiKey, String model, AnalysisProgressListener listener) {
+        return reduceLevel(new ArrayList<>(summaries), 1, apiKey, model, listener);
+    }
+
+    private Mono<String> reduceLevel(List<String> summaries, int level, String apiKey, String model,
+                                     AnalysisProgressListener listener) {
+        int budget = batchProperties.getMergeTokenBudget();
+        int[] tokens = summaries.stream().mapToInt(tokenEstimator::estimate).toArray();
+        int totalTokens = 0;
+        for (int t : tokens) {
+            totalTokens += t;
+        }
+
+        if (totalTokens <= budget) {
+            return Mono.just(String.join(SEPARATOR, summaries));
+        }
+        if (summaries.size() == 1 || level > MAX_LEVELS) {
+            log.warn("第 {} 层归并后仍超出预算，截断剩余 {} 段摘要，估算token: {}", level, summaries.size(), totalTokens);
+            return Mono.just(fit(summaries, budget));
+        }
+
+        List<List<String>> groups = group(summaries, tokens, budget);
+        if (groups.size() == summaries.size()) {
+            log.info("第 {} 层归并 - 各段都接近预算，改为相邻两段强制合并", level);
+            groups = pair(summaries);
+        }
+        log.info("第 {} 层归并 - 摘要数: {}, 估算token: {}, 分组数: {}", level, summaries.size(), totalTokens, groups.size());
+        listener.onProgress(AnalysisProgress.stage("合并批次结果（第" + level + "层，" + summaries.size() + "段→" + groups.size() + "段）", null));
+
+        return Flux.fromIterable(groups)
+                .flatMapSequential(group -> mergeGroup(group, apiKey, model), dispatchScheduler.getMaxConcurrency())
+                .collectList()
+                .flatMap(merged -> reduceLevel(merged, level + 1, apiKey, model, listener));
+    }
+
+    /**
+     * 把相邻摘要分组：每组最多k段，且拼接后不超过预算；单段超出预算时独立成组
+     */
+    private List<List<String>> group(List<String> summaries, int[] tokens, int budget) {
+        int fanIn = Math.max(2, batchProperties.getMergeFanIn());
+        List<List<String>> groups = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int currentTokens = 0;
+
+        for (int i = 0; i < summaries.size(); i++) {
+            if (!current.isEmpty() && (current.size() >= fanIn || currentTokens + tokens[i] > budget)) {
+                groups.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(summaries.get(i));
+            currentTokens += tokens[i];
+        }
+        groups.add(current);
+        return groups;
+    }
+
+    /**
+     * 把相邻摘要两两分组，段数为奇数时最后一段独立成组；合并时输入会被截断到预算以内
+     */
+    private List<List<String>> pair(List<String> summaries) {
+        List<List<String>> groups = new ArrayList<>();
+        for (int i = 0; i < summaries.size(); i += 2) {
+            groups.add(summaries.subList(i, Math.min(i + 2, summaries.size())));
+        }
+        return groups;
+    }
+
+    /**
+     * 合并一组摘要；只有一段且不超预算时原样保留，调用失败时退回为截断到预算以内的拼接
+     */
+    private Mono<String> mergeGroup(List<String> group, String apiKey, String model) {
+        int budget = batchProperties.getMergeTokenBudget();
+        if (group.size() == 1 && tokenEstimator.estimate(group.get(0)) <= budget) {
+            return Mono.just(group.get(0));
+        }
+
+        String content = fit(group, budget);
+        String prompt = createMergePrompt(content, group.size());
+        return llmResponseCache.getOrLoad(model, prompt, () -> callLLM.callLLMAsync(prompt, apiKey, model))
+                .onErrorResume(e -> {
+                    log.error("合并 {} 段摘要失败，保留截断后的原文: {}", group.size(), e.getMessage());
+                    return Mono.just(content);
+                });
+    }
+
+    /**
+     * 拼接各段摘要，总量超出预算时截断较长的段
+     *
+     * 预算扣除分隔符后在各段间分配：短于平均份额的段保持原样，剩余份额由较长的段平分，
+     * 超出份额的段截断并标注省略。
+     */
+    private String fit(List<String> parts, int budget) {
+        int n = parts.size();
+        int[] tokens = parts.stream().mapToInt(tokenEstimator::estimate).toArray();
+        int remaining = Math.max(0, budget - (n - 1) * tokenEstimator.estimate(SEPARATOR));
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> tokens[i]));
+
+        String[] fitted = new String[n];
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            int share = remaining / (n - k);
+            fitted[i] = tokens[i] <= share ? parts.get(i) : clip(parts.get(i), share);
+            remaining -= Math.min(tokens[i], share);
+        }
+        return String.join(SEPARATOR, fitted);
+    }
+
+    /**
+     * 截断到maxTokens以内，末尾标注省略
+     */
+    private String clip(String text, int maxTokens) {
+        int contentTokens = maxTokens - tokenEstimator.estimate(CLIP_MARKER);
+        if (contentTokens <= 0) {
+            return tokenEstimator.truncate(text, maxTokens);
+        }
+        return tokenEstimator.truncate(text, contentTokens) + CLIP_MARKER;
+    }
+
+    private String createMergePrompt(String content, int parts) {
+        return String.format(
+            "以下是同一段聊天记录按时间顺序分批分析得到的 %d 段结果，请将它们合并为一段完整的分析摘要。\n\n" +
+            "要求：\n" +
+            "1. 按时间顺序保留关键事件、情感转折点和重要时间节点\n" +
+            "2. 合并各段对情感状态、沟通特点、关系体现的判断，去掉重复内容\n" +
+            "3. 保留各段识别出的潜在问题，不要遗漏\n" +
+            "4. 保持原有的小标题结构（对话主题、情感状态、沟通特点、关系体现、关键信息、潜在问题）\n\n" +
+            "待合并的分析结果：\n%s",
+            parts, content
+        );
+    }
+}
@@ -0,0 +1,146 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.model.BatchRange;
+import com.emotest.emoAgent.model.MessageColumns;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 按token预算分批
+ *
+ * 每批尽量装满模型的token预算，相邻批次之间保留指定token数的重叠，
+ * 重叠部分同样按token而不是消息条数计算。接力模式下批次不重叠。
+ *
+ * @author emoAgent
+ * @version 1.0.0
+ */
+@Component
+@Log4j2
+public class TokenBatchBuilder {
+
+    // 消息之间的换行分隔符计入的token数
+    private static final int SEPARATOR_TOKENS = 1;
+
+    private final TokenEstimator tokenEstimator;
+
+    private final BatchProperties batchProperties;
+
+    @Value("${dashscope.model}")
+    private String defaultModel;
+
+    private final ChatMessageFormatter chatMessageFormatter;
+
+    private final AnalysisMetrics analysisMetrics;
+
+    public TokenBatchBuilder(TokenEstimator tokenEstimator, BatchProperties batchProperties,
+                             ChatMessageFormatter chatMessageFormatter, AnalysisMetrics analysisMetrics) {
+        this.tokenEstimator = tokenEstimator;
+        this.batchProperties = batchProperties;
+        this.chatMessageFormatter = chatMessageFormatter;
+        this.analysisMetrics = analysisMetrics;
+    }
+
+    /**
+     * 按模型的token预算对消息分批
+     *
+     * @param messages 格式化后的消息
+     * @param model 模型名称，为空时使用默认模型的预算
+     * @return 批次范围列表
+     */
+    public List<BatchRange> build(List<? extends CharSequence> messages, String model) {
+        long start = System.nanoTime();
+        int[] costs = new int[messages.size()];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = tokenEstimator.estimate(messages.get(i)) + SEPARATOR_TOKENS;
+        }
+        return build(costs, model, start);
+    }
+
+    /**
+     * 按模型的token预算对列式存储中的文字消息分批
+     *
+     * 每条消息按发送给LLM时的格式写入同一个复用的缓冲区再估算token，不生成格式化后的字符串。
+     *
+     * @param columns 消息列存储
+     * @param rows 参与分批的行号，按时间顺序排列
+     * @param model 模型名称，为空时使用默认模型的预算
+     * @return 批次范围列表，范围是rows数组中的位置
+     */
+    public List<BatchRange> build(MessageColumns columns, int[] rows, String model) {
+        long start = System.nanoTime();
+        int[] costs = new int[rows.length];
+        StringBuilder line = new StringBuilder(256);
+        for (int i = 0; i < costs.length; i++) {
+            line.setLength(0);
+            chatMessageFormatter.appendTo(line, columns, rows[i]);
+            costs[i] = tokenEstimator.estimate(line) + SEPARATOR_TOKENS;
+        }
+        return build(costs, model, start);
+    }
+
+    private List<BatchRange> build(int[] costs, String model, long startNanos) {
+        int budget = batchProperties.tokenBudgetFor(model != null ? model : defaultModel);
+        List<BatchRange> batches;
+        if (batchProperties.getMode() == BatchProperties.Mode.CARRY) {
+            // 接力模式不重叠，为上一批的摘要预留预算
+            batches = build(costs.length, i -> costs[i], Math.max(1, budget - batchProperties.getCarryTokens()), 0);
+        } else {
+            batches = build(costs.length, i -> costs[i], budget, batchProperties.getOverlapTokens());
+        }
+        analysisMetrics.recordBatchBuild(System.nanoTime() - startNanos, costs.length, batches.size());
+        return batches;
+    }
+
+    /**
+     * 按token预算分批
+     *
+     * @param count 消息总数
+     * @param tokenCost 第i条消息的token数
+     * @param budget 每批token预算
+     * @param overlapTokens 相邻批次重叠的token数
+     * @return 批次范围列表
+     */
+    public List<BatchRange> build(int count, IntUnaryOperator tokenCost, int budget, int overlapTokens) {
+        List<BatchRange> batches = new ArrayList<>();
+        // 重叠不超过预算的一半，保证每批至少有一半是新消息
+        int maxOverlap = Math.min(overlapTokens, budget / 2);
+        int start = 0;
+
+        while (start < count) {
+            // 装满当前批次，单条超出预算的消息也单独成批
+            int end = start;
+            int tokens = 0;
+            while (end < count && (end == start || tokens + tokenCost.applyAsInt(end) <= budget)) {
+                tokens += tokenCost.applyAsInt(end);
+                end++;
+            }
+            batches.add(new BatchRange(start, end, tokens));
+
+            if (end >= count) {
+                break;
+            }
+
+            // 从批次末尾往回取不超过maxOverlap的消息作为下一批的开头，且保证向前推进；
+            // 重叠部分还要给下一条新消息留出预算，避免下一批只有重叠没有新消息
+            int nextStart = end;
+            int overlap = 0;
+            int nextCost = tokenCost.applyAsInt(end);
+            while (nextStart - 1 > start && overlap + tokenCost.applyAsInt(nextStart - 1) <= maxOverlap
+                    && overlap + tokenCost.applyAsInt(nextStart - 1) + nextCost <= budget) {
+                nextStart--;
+                overlap += tokenCost.applyAsInt(nextStart);
+            }
+            start = nextStart;
+        }
+
+        log.info("按token分批完成 - 消息总数: {}, 每批预算: {}, 重叠token: {}, 批次数: {}",
+                count, budget, overlapTokens, batches.size());
+        return batches;
+    }
+}
@@ -0,0 +1,45 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+/**
+ * token数估算接口
+ * 
+ * 默认实现为 {@link CjkTokenEstimator}，如需接入模型自带的分词器，
+ * 注册一个 @Primary 的实现即可替换。
+ * 
+ * @author emoAgent
+ * @version 1.0.0
+ */
+public interface TokenEstimator {
+    
+    /**
+     * 估算文本的token数
+     * 
+     * @param text 文本
+     * @return token数
+     */
+    int estimate(CharSequence text);
+
+    /**
+     * 截取不超过maxTokens的最长前缀
+     * 
+     * @param text 文本
+     * @param maxTokens token上限
+     * @return 原文本或其前缀
+     */
+    default String truncate(String text, int maxTokens) {
+        if (estimate(text) <= maxTokens) {
+            return text;
+        }
+        int low = 0;
+        int high = text.length();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (estimate(text.subSequence(0, mid)) <= maxTokens) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return text.substring(0, low);
+    }
+}
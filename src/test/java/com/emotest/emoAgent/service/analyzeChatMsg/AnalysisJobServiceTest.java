@@ -0,0 +1,99 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.AnalysisJob;
+import com.emotest.emoAgent.model.AnalysisProgress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AnalysisJobServiceTest {
+
+    private AnalyzeService analyzeService;
+
+    private AnalysisJobService jobService;
+
+    @BeforeEach
+    void setUp() {
+        analyzeService = mock(AnalyzeService.class);
+        jobService = new AnalysisJobService(1, 1);
+        ReflectionTestUtils.setField(jobService, "analyzeService", analyzeService);
+        ReflectionTestUtils.setField(jobService, "retentionMinutes", 60L);
+        ReflectionTestUtils.setField(jobService, "maxRetained", 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobService.shutdown();
+    }
+
+    @Test
+    void failedBatchesAreCountedSeparately() throws InterruptedException {
+        when(analyzeService.analyzeChatAndGenerateReportReactive(anyString(), anyString(), anyString(), anyString(),
+                anyBoolean(), any(), any())).thenAnswer(invocation -> {
+                    AnalysisProgressListener listener = invocation.getArgument(6);
+                    listener.onProgress(AnalysisProgress.stage("分批分析", 3));
+                    listener.onProgress(AnalysisProgress.batch(1, 3, "结果1"));
+                    listener.onProgress(AnalysisProgress.batchFailed(2, 3, "批次 2 分析失败"));
+                    listener.onProgress(AnalysisProgress.batch(3, 3, "结果3"));
+                    return Mono.just("报告");
+                });
+
+        AnalysisJob job = await(jobService.submit("data", "小红", "k", "m", false).getId());
+
+        assertEquals(AnalysisJob.Status.SUCCEEDED, job.getStatus());
+        assertEquals(3, job.getTotalBatches());
+        assertEquals(2, job.getCompletedBatches());
+        assertEquals(1, job.getFailedBatches());
+
+        // 之后订阅的客户端也能区分失败的批次
+        List<AnalysisProgress> replay = jobService.events(job.getId()).collectList().block(Duration.ofSeconds(5));
+        List<Boolean> batchFailed = replay.stream()
+                .filter(progress -> progress.getType() == AnalysisProgress.Type.BATCH)
+                .map(AnalysisProgress::getBatchFailed)
+                .toList();
+        assertEquals(List.of(false, true, false), batchFailed);
+    }
+
+    @Test
+    void failedJobIsNotReportedAsFullyCompleted() throws InterruptedException {
+        when(analyzeService.analyzeChatAndGenerateReportReactive(anyString(), anyString(), anyString(), anyString(),
+                anyBoolean(), any(), any())).thenAnswer(invocation -> {
+                    AnalysisProgressListener listener = invocation.getArgument(6);
+                    listener.onProgress(AnalysisProgress.stage("分批分析", 2));
+                    listener.onProgress(AnalysisProgress.batchFailed(1, 2, "批次 1 分析失败"));
+                    listener.onProgress(AnalysisProgress.batchFailed(2, 2, "批次 2 分析失败"));
+                    return Mono.error(new IllegalStateException("所有批次分析失败"));
+                });
+
+        AnalysisJob job = await(jobService.submit("data", "小红", "k", "m", false).getId());
+
+        assertEquals(AnalysisJob.Status.FAILED, job.getStatus());
+        assertEquals(0, job.getCompletedBatches());
+        assertEquals(2, job.getFailedBatches());
+        assertTrue(job.getError().contains("所有批次分析失败"));
+    }
+
+    private AnalysisJob await(String id) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            AnalysisJob job = jobService.get(id);
+            if (job.getFinishedAt() != null) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("任务没有结束: " + id);
+    }
+}
@@ -0,0 +1,156 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChatMessageStreamReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path multiDir;
+
+    private SqliteConnectionPool connectionPool;
+
+    private ChatMessageStreamReader reader;
+
+    @BeforeEach
+    void setUp() throws IOException, SQLException {
+        multiDir = Files.createDirectories(tempDir.resolve("Multi"));
+        // 各分片的时间交错，并且同一秒内有多条消息；消息内容为 "分片-LocalId"
+        shard(0,
+                row(1, 100, 1, "a", 1),
+                row(2, 100, 1, "a", 2),
+                row(3, 100, 1, "b", 3),
+                row(4, 300, 3, "a", 4),
+                row(5, 300, 1, "a", 5),
+                row(6, 500, 1, "a", 6));
+        shard(1,
+                row(1, 100, 1, "a", 11),
+                row(2, 200, 1, "a", 12),
+                row(3, 300, 1, "a", 13),
+                row(4, 300, 1, "b", 14),
+                row(5, 400, 1, "a", 15));
+        // 分片按编号而不是文件名排序，MSG10 在 MSG1 之后
+        shard(10,
+                row(1, 50, 1, "a", 21),
+                row(2, 300, 1, "a", 22),
+                row(3, 600, 1, "a", 23));
+
+        connectionPool = new SqliteConnectionPool();
+        ReflectionTestUtils.setField(connectionPool, "maxIdlePerDb", 4);
+        ReflectionTestUtils.setField(connectionPool, "mmapSize", 0L);
+        ReflectionTestUtils.setField(connectionPool, "cacheSizeKib", 1024);
+
+        reader = new ChatMessageStreamReader(connectionPool, new AnalysisMetrics(new SimpleMeterRegistry(),
+                new LlmProviderProperties(), new BatchProperties(), "m"), 2);
+        // 每页2条，同一秒的消息会跨页
+        ReflectionTestUtils.setField(reader, "pageSize", 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        reader.shutdown();
+        connectionPool.closeAll();
+    }
+
+    @Test
+    void mergesShardsInTimeOrder() {
+        assertEquals(List.of("10-1", "0-1", "0-2", "1-1", "1-2", "0-4", "0-5", "1-3", "10-2", "1-5", "0-6", "10-3"),
+                read(List.of("a"), null, null, null));
+    }
+
+    @Test
+    void readsMultipleTalkersAcrossPages() {
+        assertEquals(List.of("10-1", "0-1", "0-2", "0-3", "1-1", "1-2", "0-4", "0-5", "1-3", "1-4", "10-2",
+                        "1-5", "0-6", "10-3"),
+                read(List.of("a", "b"), null, null, null));
+    }
+
+    @Test
+    void resumesAfterPositionWithinSameSecond() {
+        // 同一秒的消息中只读取服务器ID更大的
+        assertEquals(List.of("0-5", "1-3", "10-2", "1-5", "0-6", "10-3"),
+                read(List.of("a"), 300L, 4L, null));
+        assertEquals(List.of("1-5", "0-6", "10-3"), read(List.of("a"), 300L, 22L, null));
+    }
+
+    @Test
+    void pushesFilterDownToEveryShard() {
+        MessageFilter filter = new MessageFilter(100L, 500L, List.of(1), null);
+
+        assertEquals(List.of("0-1", "0-2", "1-1", "1-2", "0-5", "1-3", "10-2", "1-5"),
+                read(List.of("a"), null, null, filter));
+    }
+
+    @Test
+    void countsAcrossShards() {
+        assertEquals(Map.of("a", 12L, "b", 2L), reader.countByTalker(tempDir.toString(), null));
+        assertEquals(Map.of("a", 3L, "b", 1L),
+                reader.countByTalker(tempDir.toString(), new MessageFilter(300L, 400L, List.of(1), null)));
+    }
+
+    @Test
+    void brokenShardFailsReadAndCount() throws IOException {
+        Files.writeString(multiDir.resolve("MSG2.db"), "不是数据库文件".repeat(100));
+
+        assertThrows(IllegalStateException.class, () -> read(List.of("a"), null, null, null));
+        assertThrows(IllegalStateException.class, () -> reader.countByTalker(tempDir.toString(), null));
+    }
+
+    private List<String> read(List<String> userNames, Long sinceCreateTime, Long sinceMsgSvrId, MessageFilter filter) {
+        try (Stream<Message> messages = reader.stream(tempDir.toString(), userNames, sinceCreateTime, sinceMsgSvrId,
+                filter)) {
+            return messages.map(Message::getStrContent).toList();
+        }
+    }
+
+    private void shard(int number, Object[]... rows) throws SQLException {
+        String url = "jdbc:sqlite:" + multiDir.resolve("MSG" + number + ".db");
+        try (Connection connection = DriverManager.getConnection(url)) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE MSG (LocalId INTEGER PRIMARY KEY, MsgSvrID INTEGER, Type INTEGER, "
+                        + "SubType INTEGER, IsSender INTEGER, CreateTime INTEGER, StrTalker TEXT, StrContent TEXT)");
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO MSG VALUES (?, ?, ?, 0, 0, ?, ?, ?)")) {
+                for (Object[] row : rows) {
+                    stmt.setInt(1, (Integer) row[0]);
+                    stmt.setLong(2, (Long) row[4]);
+                    stmt.setInt(3, (Integer) row[2]);
+                    stmt.setLong(4, (Long) row[1]);
+                    stmt.setString(5, (String) row[3]);
+                    stmt.setString(6, number + "-" + row[0]);
+                    stmt.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static Object[] row(int localId, long createTime, int type, String talker, long msgSvrId) {
+        return new Object[]{localId, createTime, type, talker, msgSvrId};
+    }
+}
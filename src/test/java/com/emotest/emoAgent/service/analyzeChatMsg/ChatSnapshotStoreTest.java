@@ -0,0 +1,179 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import com.emotest.emoAgent.model.ChatHistory;
+import com.emotest.emoAgent.model.Message;
+import com.emotest.emoAgent.model.MessageColumns;
+import com.emotest.emoAgent.model.SnapshotInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChatSnapshotStoreTest {
+
+    private static final List<String> USER_NAMES = List.of("wxid_friend");
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * 模拟的数据库，按 (CreateTime, MsgSvrID) 升序排列
+     */
+    private final List<Message> database = new ArrayList<>();
+
+    private String dataPath;
+
+    private Path shard;
+
+    private Path snapshotDir;
+
+    private ChatSnapshotStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dataPath = tempDir.resolve("data").toString();
+        shard = Files.createDirectories(tempDir.resolve("data/Multi")).resolve("MSG0.db");
+        Files.writeString(shard, "v1");
+        snapshotDir = tempDir.resolve("snapshots");
+
+        ChatMessageStreamReader reader = mock(ChatMessageStreamReader.class);
+        when(reader.discoverShards(anyString())).thenAnswer(invocation -> List.of(shard.toFile()));
+        when(reader.stream(anyString(), anyList(), any(), any())).thenAnswer(invocation ->
+                since(invocation.getArgument(2), invocation.getArgument(3)));
+
+        store = new ChatSnapshotStore(reader, new AnalysisMetrics(new SimpleMeterRegistry(),
+                new LlmProviderProperties(), new BatchProperties(), "m"));
+        ReflectionTestUtils.setField(store, "snapshotDir", snapshotDir.toString());
+        ReflectionTestUtils.setField(store, "enabled", true);
+    }
+
+    @Test
+    void exportedMessagesReadBack() throws IOException {
+        addMessage(100, 1, 1, 0, "你好");
+        addMessage(100, 2, 3, 0, "[图片]");
+        addMessage(200, 3, 1, 1, "  在吗  ");
+        addMessage(300, 4, 1, 0, "😀 emoji");
+
+        SnapshotInfo info = store.export(dataPath, USER_NAMES);
+        assertEquals(3, info.getRecords());
+        assertEquals(100L, info.getFirstCreateTime());
+        assertEquals(300L, info.getLastCreateTime());
+        assertTrue(Files.exists(file(".msgs")) && Files.exists(file(".idx")) && Files.exists(file(".json")));
+
+        ChatHistory history = store.load(dataPath, USER_NAMES, null, null);
+        MessageColumns columns = history.getMessages();
+        assertEquals(3, columns.size());
+        assertEquals("你好", columns.content(0));
+        assertEquals("在吗", columns.content(1));
+        assertTrue(columns.isSender(1));
+        assertEquals("😀 emoji", columns.content(2));
+        assertEquals(300L, columns.createTime(2));
+        assertEquals(4L, columns.msgSvrId(2));
+        assertEquals(300L, history.getLastCreateTime());
+
+        MessageColumns range = store.readRange(dataPath, USER_NAMES, 150, 300);
+        assertEquals(1, range.size());
+        assertEquals("在吗", range.content(0));
+
+        // 同一秒中只读取服务器ID更大的消息
+        ChatHistory since = store.load(dataPath, USER_NAMES, 100L, 1L);
+        assertEquals(2, since.getMessages().size());
+    }
+
+    @Test
+    void appendsOnlyNewMessagesWhenDatabaseChanges() throws IOException {
+        addMessage(100, 1, 1, 0, "第一条");
+        store.export(dataPath, USER_NAMES);
+
+        addMessage(200, 2, 1, 1, "第二条");
+        addMessage(300, 3, 1, 0, "第三条");
+        // 数据库没有变化时不追加
+        assertEquals(0, store.export(dataPath, USER_NAMES).getAppendedRecords());
+
+        Files.writeString(shard, "v2 changed");
+        SnapshotInfo info = store.export(dataPath, USER_NAMES);
+        assertEquals(2, info.getAppendedRecords());
+        assertEquals(3, info.getRecords());
+
+        MessageColumns columns = store.load(dataPath, USER_NAMES, null, null).getMessages();
+        assertEquals(List.of("第一条", "第二条", "第三条"), contents(columns));
+    }
+
+    @Test
+    void uncommittedTailIsTruncatedBeforeNextExport() throws IOException {
+        addMessage(100, 1, 1, 0, "已提交");
+        SnapshotInfo committed = store.export(dataPath, USER_NAMES);
+
+        // 模拟导出中途失败：数据和索引已写入一部分，元数据还没有更新
+        Files.write(file(".msgs"), new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        Files.write(file(".idx"), new byte[]{9, 9, 9}, StandardOpenOption.APPEND);
+
+        // 元数据之外的部分不会被读到
+        assertEquals(List.of("已提交"), contents(store.readRange(dataPath, USER_NAMES, 0, Long.MAX_VALUE)));
+
+        addMessage(200, 2, 1, 0, "新消息");
+        Files.writeString(shard, "v2 changed");
+        SnapshotInfo info = store.export(dataPath, USER_NAMES);
+
+        assertEquals(2, info.getRecords());
+        assertEquals(List.of("已提交", "新消息"), contents(store.load(dataPath, USER_NAMES, null, null).getMessages()));
+        assertEquals(info.getDataBytes(), Files.size(file(".msgs")));
+        assertEquals(2L * 16, Files.size(file(".idx")));
+        assertTrue(info.getDataBytes() > committed.getDataBytes());
+    }
+
+    @Test
+    void snapshotWithoutMetadataIsNotUsed() throws IOException {
+        addMessage(100, 1, 1, 0, "你好");
+        store.export(dataPath, USER_NAMES);
+
+        Files.delete(file(".json"));
+
+        assertNull(store.load(dataPath, USER_NAMES, null, null));
+        assertNull(store.readRange(dataPath, USER_NAMES, 0, Long.MAX_VALUE));
+    }
+
+    private void addMessage(long createTime, long msgSvrId, int type, int isSender, String content) {
+        database.add(new Message(database.size() + 1, msgSvrId, type, 0, isSender, createTime, "wxid_friend", content));
+    }
+
+    private Stream<Message> since(Long sinceCreateTime, Long sinceMsgSvrId) {
+        return new ArrayList<>(database).stream().filter(msg -> sinceCreateTime == null
+                || msg.getCreateTime() > sinceCreateTime
+                || msg.getCreateTime().equals(sinceCreateTime) && msg.getMsgSvrId() > sinceMsgSvrId);
+    }
+
+    private Path file(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(snapshotDir)) {
+            return files.filter(path -> path.toString().endsWith(suffix)).findFirst().orElseThrow();
+        }
+    }
+
+    private static List<String> contents(MessageColumns columns) {
+        List<String> contents = new ArrayList<>();
+        for (int row = 0; row < columns.size(); row++) {
+            contents.add(columns.content(row));
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,103 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import com.emotest.emoAgent.model.Contact;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContactIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SqliteConnectionPool connectionPool;
+
+    private ContactIndex contactIndex;
+
+    private LoadChatMsgUtil loadChatMsgUtil;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("MicroMsg.db"));
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE Contact (UserName TEXT, NickName TEXT, ReMark TEXT, Alias TEXT, "
+                    + "PYInitial TEXT, QuanPin TEXT)");
+            stmt.execute("INSERT INTO Contact VALUES "
+                    + "('wxid_1', '李雷', '', 'lilei88', 'LL', 'lilei'), "
+                    + "('wxid_2', '李丽', '同事小李', '', 'LL', 'lili'), "
+                    + "('wxid_3', 'Li', '', '', 'LI', 'li'), "
+                    + "('wxid_4', '小红', '', 'xh', 'XH', 'xiaohong'), "
+                    + "('wxid_5', '小红', '', '', 'XH', 'xiaohong')");
+        }
+
+        connectionPool = new SqliteConnectionPool();
+        ReflectionTestUtils.setField(connectionPool, "maxIdlePerDb", 4);
+        ReflectionTestUtils.setField(connectionPool, "mmapSize", 0L);
+        ReflectionTestUtils.setField(connectionPool, "cacheSizeKib", 1024);
+
+        contactIndex = new ContactIndex();
+        ReflectionTestUtils.setField(contactIndex, "sqliteConnectionPool", connectionPool);
+        ReflectionTestUtils.setField(contactIndex, "analysisMetrics", new AnalysisMetrics(new SimpleMeterRegistry(),
+                new LlmProviderProperties(), new BatchProperties(), "m"));
+
+        loadChatMsgUtil = new LoadChatMsgUtil();
+        ReflectionTestUtils.setField(loadChatMsgUtil, "contactIndex", contactIndex);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionPool.closeAll();
+    }
+
+    @Test
+    void suggestMatchesPinyinAndSubstrings() {
+        // 完全匹配在前，其次是前缀匹配
+        assertEquals(List.of("wxid_3", "wxid_1", "wxid_2"), userNames(loadChatMsgUtil.suggestContacts(dir(), "li", 10)));
+        assertEquals(List.of("wxid_3"), userNames(loadChatMsgUtil.suggestContacts(dir(), "li", 1)));
+    }
+
+    @Test
+    void analysisMatchesOnlyWholeNames() {
+        // 拼音和子串不参与匹配，"li" 只匹配昵称为 Li 的联系人
+        assertEquals(List.of("wxid_3"), userNames(loadChatMsgUtil.findContacts(dir(), " li ")));
+        assertEquals(List.of("wxid_1"), userNames(loadChatMsgUtil.findContacts(dir(), "LILEI88")));
+        assertEquals(List.of("wxid_2"), userNames(loadChatMsgUtil.findContacts(dir(), "同事小李")));
+        assertEquals(List.of("wxid_5"), userNames(loadChatMsgUtil.findContacts(dir(), "wxid_5")));
+        assertTrue(loadChatMsgUtil.findContacts(dir(), "lili").isEmpty());
+        assertTrue(loadChatMsgUtil.findContacts(dir(), "李").isEmpty());
+    }
+
+    @Test
+    void ambiguousNameListsCandidates() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> loadChatMsgUtil.findContacts(dir(), "小红"));
+
+        assertTrue(e.getMessage().contains("wxid_4") && e.getMessage().contains("wxid_5"), e.getMessage());
+        // 换用唯一的微信号即可指定
+        assertEquals(List.of("wxid_4"), userNames(loadChatMsgUtil.findContacts(dir(), "xh")));
+    }
+
+    private String dir() {
+        return tempDir.toString();
+    }
+
+    private static List<String> userNames(List<Contact> contacts) {
+        return contacts.stream().map(Contact::getUserName).toList();
+    }
+}
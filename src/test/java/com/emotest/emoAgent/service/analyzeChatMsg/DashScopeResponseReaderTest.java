@@ -0,0 +1,104 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.model.LlmCompletion;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DashScopeResponseReaderTest {
+
+    @Test
+    void readsFullResponse() throws IOException {
+        LlmCompletion completion = read("""
+                {"output":{"choices":[
+                    {"finish_reason":"stop","message":{"role":"assistant","content":"完整报告\\n第二行"}},
+                    {"finish_reason":"stop","message":{"role":"assistant","content":"第二个选择"}}]},
+                 "usage":{"input_tokens":120,"output_tokens":45,"total_tokens":165},
+                 "request_id":"req-1"}
+                """);
+
+        assertEquals("完整报告\n第二行", completion.getContent());
+        assertEquals("stop", completion.getFinishReason());
+        assertEquals(120L, completion.getInputTokens());
+        assertEquals(45L, completion.getOutputTokens());
+        assertEquals("req-1", completion.getRequestId());
+    }
+
+    @Test
+    void readsIncrementalStreamEvent() throws IOException {
+        LlmCompletion completion = read("""
+                {"output":{"choices":[{"message":{"content":"增量","role":"assistant"},"finish_reason":"null"}]},
+                 "usage":{"input_tokens":10,"output_tokens":3}}
+                """);
+
+        assertEquals("增量", completion.getContent());
+        assertEquals("null", completion.getFinishReason());
+        assertEquals(3L, completion.getOutputTokens());
+        assertNull(completion.getRequestId());
+    }
+
+    @Test
+    void skipsUnknownFieldsAndNestedValues() throws IOException {
+        LlmCompletion completion = read("""
+                {"status_code":200,"extra":{"a":[1,{"b":null}]},
+                 "output":{"text":null,"choices":[{"index":0,"logprobs":{"content":[1,2]},
+                     "message":{"tool_calls":[{"id":"x"}],"content":"正文"}}]},
+                 "usage":{"output_tokens_details":{"reasoning_tokens":5},"output_tokens":7},
+                 "request_id":"req-2"}
+                """);
+
+        assertEquals("正文", completion.getContent());
+        assertNull(completion.getFinishReason());
+        assertNull(completion.getInputTokens());
+        assertEquals(7L, completion.getOutputTokens());
+        assertEquals("req-2", completion.getRequestId());
+    }
+
+    @Test
+    void toleratesNullOutputAndUsage() throws IOException {
+        LlmCompletion completion = read("""
+                {"output":null,"usage":null,"request_id":"req-3"}
+                """);
+
+        assertNull(completion.getContent());
+        assertNull(completion.getInputTokens());
+        assertNull(completion.getOutputTokens());
+        assertEquals("req-3", completion.getRequestId());
+    }
+
+    @Test
+    void toleratesMissingOrNullContent() throws IOException {
+        assertNull(read("""
+                {"output":{"choices":[{"finish_reason":"stop","message":{"role":"assistant"}}]}}
+                """).getContent());
+        assertNull(read("""
+                {"output":{"choices":[{"finish_reason":"stop","message":{"content":null}}]}}
+                """).getContent());
+        assertNull(read("""
+                {"output":{"choices":[{"finish_reason":"stop","message":null}]}}
+                """).getContent());
+        assertNull(read("""
+                {"output":{"choices":[]}}
+                """).getContent());
+        assertNull(read("""
+                {"output":{"choices":null}}
+                """).getContent());
+        assertNull(read("{}").getContent());
+    }
+
+    @Test
+    void rejectsTruncatedResponse() {
+        assertThrows(IOException.class, () -> read("""
+                {"output":{"choices":[{"message":{"content":"截断
+                """));
+    }
+
+    private static LlmCompletion read(String json) throws IOException {
+        return DashScopeResponseReader.read(new StringReader(json));
+    }
+}
@@ -0,0 +1,132 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmDispatchSchedulerTest {
+
+    private LlmDispatchScheduler scheduler;
+
+    private final List<String> started = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new LlmDispatchScheduler();
+        ReflectionTestUtils.setField(scheduler, "maxConcurrency", 1);
+        ReflectionTestUtils.setField(scheduler, "analysisMetrics", new AnalysisMetrics(new SimpleMeterRegistry(),
+                new LlmProviderProperties(), new BatchProperties(), "m"));
+    }
+
+    @Test
+    void dequeuesKeysRoundRobin() {
+        Sinks.One<String> gate = occupySlot();
+        submit("a", "a1");
+        submit("a", "a2");
+        submit("a", "a3");
+        submit("b", "b1");
+        submit("b", "b2");
+
+        gate.tryEmitValue("done");
+
+        assertEquals(List.of("a1", "b1", "a2", "b2", "a3"), started);
+        assertEquals(0, scheduler.getStats().getQueueDepth());
+        assertEquals(0, scheduler.getStats().getInFlight());
+    }
+
+    @Test
+    void dequeuesByPriorityThenFifoWithinKey() {
+        Sinks.One<String> gate = occupySlot();
+        submit("a", "low", 5);
+        submit("a", "high1", 1);
+        submit("a", "default", LlmDispatchScheduler.INTERACTIVE_PRIORITY);
+        submit("a", "high2", 1);
+
+        gate.tryEmitValue("done");
+
+        assertEquals(List.of("default", "high1", "high2", "low"), started);
+    }
+
+    @Test
+    void cancellingQueuedTaskReleasesQueueDepth() {
+        Sinks.One<String> gate = occupySlot();
+        Disposable cancelled = submit("a", "cancelled");
+        submit("b", "kept");
+        assertEquals(2, scheduler.getStats().getQueueDepth());
+
+        cancelled.dispose();
+        assertEquals(1, scheduler.getStats().getQueueDepth());
+
+        gate.tryEmitValue("done");
+        assertEquals(List.of("kept"), started);
+        assertEquals(0, scheduler.getStats().getQueueDepth());
+        assertEquals(0, scheduler.getStats().getActiveQueues());
+    }
+
+    @Test
+    void cancellingRunningTaskFreesSlot() {
+        Disposable running = scheduler.submit("x", () -> Sinks.<String>one().asMono()).subscribe();
+        submit("a", "next");
+        assertEquals(1, scheduler.getStats().getInFlight());
+        assertTrue(started.isEmpty());
+
+        running.dispose();
+
+        assertEquals(List.of("next"), started);
+        assertEquals(0, scheduler.getStats().getInFlight());
+    }
+
+    @Test
+    void streamingTaskHoldsSlotUntilOutputCompletes() {
+        Sinks.Many<String> output = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> received = new ArrayList<>();
+        scheduler.submitMany("a", output::asFlux).subscribe(received::add);
+        submit("b", "next");
+
+        output.tryEmitNext("chunk1");
+        output.tryEmitNext("chunk2");
+        assertEquals(List.of("chunk1", "chunk2"), received);
+        assertTrue(started.isEmpty());
+
+        output.tryEmitComplete();
+        assertEquals(List.of("next"), started);
+        assertEquals(0, scheduler.getStats().getInFlight());
+    }
+
+    /**
+     * 占用唯一的并发额度，直到返回的gate发出值
+     */
+    private Sinks.One<String> occupySlot() {
+        Sinks.One<String> gate = Sinks.one();
+        scheduler.submit("gate", gate::asMono).subscribe();
+        assertEquals(1, scheduler.getStats().getInFlight());
+        return gate;
+    }
+
+    private Disposable submit(String key, String name) {
+        return scheduler.submit(key, () -> job(name)).subscribe();
+    }
+
+    private Disposable submit(String key, String name, int priority) {
+        return scheduler.submit(key, () -> job(name))
+                .contextWrite(LlmDispatchScheduler.withPriority(priority))
+                .subscribe();
+    }
+
+    private Mono<String> job(String name) {
+        started.add(name);
+        return Mono.just(name);
+    }
+}
@@ -0,0 +1,128 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(1_000 * SECOND);
+
+    private LlmRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new LlmRateLimiter();
+        ReflectionTestUtils.setField(limiter, "requestsPerMinute", 2);
+        ReflectionTestUtils.setField(limiter, "tokensPerMinute", 600);
+        ReflectionTestUtils.setField(limiter, "clock", (LongSupplier) now::get);
+    }
+
+    @Test
+    void requestBudgetRefillsAtConfiguredRate() {
+        LlmRateLimiter.Bucket bucket = limiter.bucket("k");
+        assertEquals(0, bucket.reserve(1));
+        assertEquals(0, bucket.reserve(1));
+        // 每分钟2次，透支1次需要等30秒
+        assertEquals(30 * SECOND, bucket.reserve(1));
+
+        now.addAndGet(30 * SECOND);
+        // 30秒补回1次额度，刚好还清透支，新的一次仍需等30秒
+        assertEquals(30 * SECOND, bucket.reserve(1));
+
+        now.addAndGet(10 * 60 * SECOND);
+        // 补充不超过桶容量
+        assertEquals(0, bucket.reserve(1));
+        assertEquals(0, bucket.reserve(1));
+        assertEquals(30 * SECOND, bucket.reserve(1));
+    }
+
+    @Test
+    void tokenBudgetIsCappedAtCapacity() {
+        LlmRateLimiter.Bucket bucket = limiter.bucket("k");
+        assertEquals(0, bucket.reserve(300));
+        // 还剩300，本次600透支300，按每分钟600补充需要30秒
+        assertEquals(30 * SECOND, bucket.reserve(600));
+
+        now.addAndGet(10 * 60 * SECOND);
+        // 超过容量的单次调用按容量计，等待不超过一分钟
+        LlmRateLimiter.Bucket other = limiter.bucket("other");
+        assertEquals(0, other.reserve(100_000));
+        assertEquals(60 * SECOND, other.reserve(100_000));
+    }
+
+    @Test
+    void bucketsAreKeptPerApiKey() {
+        limiter.bucket("a").reserve(1);
+        limiter.bucket("a").reserve(1);
+        assertEquals(0, limiter.bucket("b").reserve(1));
+        assertEquals(0, limiter.bucket(null).reserve(1));
+    }
+
+    @Test
+    void cancelledWaitRefundsReservation() {
+        LlmRateLimiter.Bucket bucket = limiter.bucket("k");
+        bucket.reserve(1);
+        bucket.reserve(1);
+
+        CompletableFuture<Void> waiting = limiter.acquire("k", 100).toFuture();
+        assertFalse(waiting.isDone());
+        waiting.cancel(true);
+
+        // 取消的那次已退还，下一次只需等透支1次的30秒，而不是60秒
+        assertEquals(30 * SECOND, bucket.reserve(1));
+    }
+
+    @Test
+    void immediateAcquireCompletesWithoutWaiting() {
+        Disposable acquired = limiter.acquire("k", 1).subscribe();
+        assertTrue(acquired.isDisposed());
+    }
+
+    @Test
+    void rateLimitedResponsePausesKey() {
+        LlmRateLimiter.Bucket bucket = limiter.bucket("k");
+        limiter.onRateLimited("k", Duration.ofSeconds(90));
+
+        // 暂停期间剩余额度清空，等待至少到暂停结束
+        assertEquals(90 * SECOND, bucket.reserve(1));
+        now.addAndGet(90 * SECOND);
+        assertEquals(0, bucket.reserve(1));
+        assertEquals(0, limiter.bucket("other").reserve(1));
+    }
+
+    @Test
+    void parsesRetryAfterHeader() {
+        assertEquals(Duration.ofSeconds(7), CallLLMImpl.parseRetryAfter(retryAfter("7")));
+        assertEquals(Duration.ofSeconds(5), CallLLMImpl.parseRetryAfter(new HttpHeaders()));
+        assertEquals(Duration.ofSeconds(5), CallLLMImpl.parseRetryAfter(retryAfter("soon")));
+        assertEquals(Duration.ZERO, CallLLMImpl.parseRetryAfter(retryAfter(
+                ZonedDateTime.now().minusMinutes(1).format(DateTimeFormatter.RFC_1123_DATE_TIME))));
+
+        Duration wait = CallLLMImpl.parseRetryAfter(retryAfter(
+                ZonedDateTime.now().plusSeconds(120).format(DateTimeFormatter.RFC_1123_DATE_TIME)));
+        assertTrue(wait.compareTo(Duration.ofSeconds(100)) > 0 && wait.compareTo(Duration.ofSeconds(121)) < 0, wait::toString);
+    }
+
+    private static HttpHeaders retryAfter(String value) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, value);
+        return headers;
+    }
+}
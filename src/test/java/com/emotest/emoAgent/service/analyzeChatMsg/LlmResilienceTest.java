@@ -0,0 +1,149 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import com.emotest.emoAgent.config.ResilienceProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmResilienceTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(200);
+
+    private ResilienceProperties properties;
+
+    private LlmResilience resilience;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ResilienceProperties();
+        ResilienceProperties.Circuit circuit = properties.getCircuit();
+        circuit.setWindowSize(4);
+        circuit.setMinCalls(4);
+        circuit.setFailureRateThreshold(50);
+        circuit.setOpenDuration(OPEN_DURATION);
+        circuit.setHalfOpenCalls(1);
+
+        AnalysisMetrics metrics = new AnalysisMetrics(new SimpleMeterRegistry(), new LlmProviderProperties(),
+                new BatchProperties(), "m");
+        resilience = new LlmResilience(properties, metrics, new LlmDispatchScheduler());
+    }
+
+    @Test
+    void circuitOpensOnFailureRateAndClosesAfterProbe() throws InterruptedException {
+        call(Mono.just("ok"));
+        call(Mono.just("ok"));
+        call(Mono.error(status(503)));
+        assertEquals(LlmResilience.CircuitState.CLOSED, resilience.circuitState("m"));
+
+        // 最近4次中失败2次，达到50%
+        call(Mono.error(status(500)));
+        assertEquals(LlmResilience.CircuitState.OPEN, resilience.circuitState("m"));
+        assertTrue(call(Mono.just("ok")) instanceof LlmResilience.CircuitOpenException);
+        // 熔断按模型区分
+        assertEquals(LlmResilience.CircuitState.CLOSED, resilience.circuitState("other"));
+
+        Thread.sleep(OPEN_DURATION.toMillis() + 50);
+        assertEquals(LlmResilience.CircuitState.HALF_OPEN, resilience.circuitState("m"));
+
+        // 4xx不计入失败，归还探测名额，仍为半开
+        call(Mono.error(status(400)));
+        assertEquals(LlmResilience.CircuitState.HALF_OPEN, resilience.circuitState("m"));
+
+        assertEquals("ok", call(Mono.just("ok")));
+        assertEquals(LlmResilience.CircuitState.CLOSED, resilience.circuitState("m"));
+        assertEquals(0.0, resilience.errorRate("m"));
+    }
+
+    @Test
+    void failedProbeReopensCircuit() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            call(Mono.error(new WebClientRequestException(new IOException("refused"), HttpMethod.POST,
+                    URI.create("http://localhost"), new HttpHeaders())));
+        }
+        assertEquals(LlmResilience.CircuitState.OPEN, resilience.circuitState("m"));
+
+        Thread.sleep(OPEN_DURATION.toMillis() + 50);
+        call(Mono.error(status(502)));
+        assertEquals(LlmResilience.CircuitState.OPEN, resilience.circuitState("m"));
+        assertTrue(call(Mono.just("ok")) instanceof LlmResilience.CircuitOpenException);
+    }
+
+    @Test
+    void clientErrorsDoNotOpenCircuit() {
+        for (int i = 0; i < 8; i++) {
+            call(Mono.error(status(429)));
+        }
+        assertEquals(LlmResilience.CircuitState.CLOSED, resilience.circuitState("m"));
+        assertEquals(0.0, resilience.errorRate("m"));
+    }
+
+    @Test
+    void retriesOnlyTimeoutsServerAndConnectionErrors() {
+        assertTrue(resilience.isRetryable(new TimeoutException()));
+        assertTrue(resilience.isRetryable(new WebClientRequestException(new IOException("reset"), HttpMethod.POST,
+                URI.create("http://localhost"), new HttpHeaders())));
+        assertTrue(resilience.isRetryable(status(500)));
+        assertTrue(resilience.isRetryable(status(503)));
+        assertFalse(resilience.isRetryable(status(501)));
+        assertFalse(resilience.isRetryable(status(400)));
+        assertFalse(resilience.isRetryable(status(429)));
+        assertFalse(resilience.isRetryable(new LlmResilience.CircuitOpenException("m")));
+        assertFalse(resilience.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    void timeoutFollowsLatencyPercentile() {
+        ResilienceProperties.Timeout timeout = properties.getTimeout();
+        timeout.setInitial(Duration.ofMillis(100));
+        timeout.setMinSamples(3);
+        timeout.setPercentile(0.99);
+        timeout.setMultiplier(10);
+        timeout.setMin(Duration.ofMillis(10));
+        timeout.setMax(Duration.ofSeconds(5));
+
+        // 样本不足时使用初始超时
+        assertEquals(-1, resilience.latencyPercentile("m", 0.99));
+        assertTrue(call(Mono.delay(Duration.ofMillis(400))) instanceof TimeoutException);
+
+        for (int i = 0; i < 3; i++) {
+            call(Mono.delay(Duration.ofMillis(30)));
+        }
+        long percentile = resilience.latencyPercentile("m", 0.99);
+        assertTrue(percentile >= TimeUnit.MILLISECONDS.toNanos(30), String.valueOf(percentile));
+
+        // 超时为分位数的10倍（约300ms以上），超过初始超时的调用也能完成
+        assertEquals(0L, call(Mono.delay(Duration.ofMillis(200))));
+
+        // 超时不超过上限
+        timeout.setMax(Duration.ofMillis(100));
+        assertTrue(call(Mono.delay(Duration.ofMillis(400))) instanceof TimeoutException);
+    }
+
+    /**
+     * 经过熔断和超时执行一次调用，返回结果或错误
+     */
+    private Object call(Mono<?> call) {
+        return resilience.guard("m", call).cast(Object.class).onErrorResume(Mono::just).block();
+    }
+
+    private static WebClientResponseException status(int status) {
+        return WebClientResponseException.create(status, "status " + status, new HttpHeaders(), new byte[0], null);
+    }
+}
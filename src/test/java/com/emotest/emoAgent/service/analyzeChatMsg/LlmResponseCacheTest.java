@@ -0,0 +1,171 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmResponseCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void memoryHitSkipsLoader() {
+        LlmResponseCache cache = cache(null, 10);
+
+        assertEquals("结果1", get(cache, "m", "p"));
+        assertEquals("结果1", get(cache, "m", "p"));
+        assertEquals(1, loads.get());
+
+        // 缓存键包含模型
+        assertEquals("结果2", get(cache, "other", "p"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void disabledCacheAlwaysLoads() {
+        LlmResponseCache cache = cache(null, 10);
+        ReflectionTestUtils.setField(cache, "enabled", false);
+
+        get(cache, "m", "p");
+        get(cache, "m", "p");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void memoryEvictsLeastRecentlyUsed() {
+        LlmResponseCache cache = cache(null, 2);
+        get(cache, "m", "a");
+        get(cache, "m", "b");
+        get(cache, "m", "a");
+        get(cache, "m", "c");
+        assertEquals(3, loads.get());
+
+        // b最久未使用，已被淘汰
+        get(cache, "m", "a");
+        assertEquals(3, loads.get());
+        get(cache, "m", "b");
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void memoryOnlyByDefaultWritesNothingToDisk() throws IOException {
+        LlmResponseCache cache = cache(null, 10);
+        get(cache, "m", "p");
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void diskTierSurvivesRestart() {
+        Path dir = tempDir.resolve("llm");
+        get(cache(dir, 10), "m", "p");
+
+        // 新实例相当于重启，内存为空，从磁盘命中
+        assertEquals("结果1", get(cache(dir, 10), "m", "p"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void expiredDiskEntryIsReloaded() throws IOException {
+        Path dir = tempDir.resolve("llm");
+        get(cache(dir, 10), "m", "p");
+        for (Path file : list(dir)) {
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofHours(200))));
+        }
+
+        assertEquals("结果2", get(cache(dir, 10), "m", "p"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void sweepRemovesExpiredAndStaleFilesThenEvictsOldest() throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("llm"));
+        Instant now = Instant.now();
+        write(dir.resolve("expired.txt"), now.minus(Duration.ofHours(200)));
+        write(dir.resolve("old.txt"), now.minus(Duration.ofHours(3)));
+        write(dir.resolve("middle.txt"), now.minus(Duration.ofHours(2)));
+        write(dir.resolve("new.txt"), now.minus(Duration.ofHours(1)));
+        write(dir.resolve("left.tmp"), now.minus(Duration.ofHours(2)));
+        write(dir.resolve("writing.tmp"), now);
+        write(dir.resolve("other.log"), now.minus(Duration.ofHours(500)));
+
+        LlmResponseCache cache = cache(dir, 10);
+        ReflectionTestUtils.setField(cache, "diskMaxEntries", 2);
+        ReflectionTestUtils.invokeMethod(cache, "sweepDisk");
+
+        assertEquals(List.of("middle.txt", "new.txt", "other.log", "writing.tmp"),
+                list(dir).stream().map(path -> path.getFileName().toString()).sorted().toList());
+    }
+
+    @Test
+    void sweepEvictsBySize() throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("llm"));
+        Instant now = Instant.now();
+        for (int i = 0; i < 3; i++) {
+            Path file = dir.resolve(i + ".txt");
+            Files.write(file, new byte[600 * 1024]);
+            Files.setLastModifiedTime(file, FileTime.from(now.minus(Duration.ofMinutes(10 - i))));
+        }
+
+        LlmResponseCache cache = cache(dir, 10);
+        ReflectionTestUtils.setField(cache, "diskMaxMb", 1L);
+        ReflectionTestUtils.invokeMethod(cache, "sweepDisk");
+
+        List<Path> left = list(dir);
+        assertEquals(1, left.size());
+        assertEquals("2.txt", left.get(0).getFileName().toString());
+        assertFalse(Files.exists(dir.resolve("0.txt")));
+        assertTrue(Files.exists(dir.resolve("2.txt")));
+    }
+
+    private LlmResponseCache cache(Path diskDir, int maxEntries) {
+        LlmResponseCache cache = new LlmResponseCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(cache, "ttlHours", 168L);
+        ReflectionTestUtils.setField(cache, "diskDir", diskDir != null ? diskDir.toString() : "");
+        ReflectionTestUtils.setField(cache, "diskMaxEntries", 10000);
+        ReflectionTestUtils.setField(cache, "diskMaxMb", 512L);
+        ReflectionTestUtils.setField(cache, "defaultModel", "m");
+        ReflectionTestUtils.setField(cache, "analysisMetrics", new AnalysisMetrics(new SimpleMeterRegistry(),
+                new LlmProviderProperties(), new BatchProperties(), "m"));
+        return cache;
+    }
+
+    private String get(LlmResponseCache cache, String model, String prompt) {
+        return cache.getOrLoad(model, prompt, () -> Mono.fromCallable(() -> "结果" + loads.incrementAndGet())).block();
+    }
+
+    private static void write(Path file, Instant modifiedAt) throws IOException {
+        Files.writeString(file, file.getFileName().toString());
+        Files.setLastModifiedTime(file, FileTime.from(modifiedAt));
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.toList();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import com.emotest.emoAgent.model.AnalysisProgress;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SummaryTreeReducerTest {
+
+    private static final int BUDGET = 100;
+
+    private static final String CLIPPED = "其余内容已省略）";
+
+    private static final String PROMPT_CONTENT = "待合并的分析结果：\n";
+
+    private final List<String> prompts = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<AnalysisProgress> events = new ArrayList<>();
+
+    private CallLLM callLLM;
+
+    private SummaryTreeReducer reducer;
+
+    @BeforeEach
+    void setUp() {
+        BatchProperties batchProperties = new BatchProperties();
+        batchProperties.setMergeTokenBudget(BUDGET);
+        batchProperties.setMergeFanIn(3);
+
+        LlmDispatchScheduler dispatchScheduler = new LlmDispatchScheduler();
+        ReflectionTestUtils.setField(dispatchScheduler, "maxConcurrency", 2);
+        ReflectionTestUtils.setField(dispatchScheduler, "analysisMetrics", new AnalysisMetrics(new SimpleMeterRegistry(),
+                new LlmProviderProperties(), new BatchProperties(), "m"));
+
+        // 未启用缓存时直接调用加载函数
+        LlmResponseCache cache = new LlmResponseCache();
+
+        callLLM = mock(CallLLM.class);
+        reducer = new SummaryTreeReducer(callLLM, dispatchScheduler, cache, CharSequence::length, batchProperties);
+    }
+
+    @Test
+    void returnsJoinedSummariesWithinBudget() {
+        mergeReturns("x".repeat(10));
+
+        String result = reducer.reduce(summaries(3, 20), "k", "m", events::add).block();
+
+        assertTrue(result.startsWith("a".repeat(20)));
+        assertTrue(result.endsWith("c".repeat(20)));
+        assertTrue(prompts.isEmpty());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void groupsAdjacentSummariesByFanIn() {
+        mergeReturns("x".repeat(10));
+
+        reducer.reduce(summaries(7, 20), "k", "m", events::add).block();
+
+        // 7段按每组3段分为3组，最后一组只有一段且不超预算，原样保留
+        assertEquals(2, prompts.size());
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).getStage().contains("7段→3段"));
+        assertTrue(prompts.get(0).contains("a".repeat(20)) && prompts.get(0).contains("c".repeat(20)));
+        assertTrue(prompts.get(1).contains("d".repeat(20)) && prompts.get(1).contains("f".repeat(20)));
+    }
+
+    @Test
+    void forcesPairwiseMergeWhenNoGroupCanMerge() {
+        // 合并结果没有变短，只能依靠每层段数减少来结束
+        mergeReturns("x".repeat(60));
+
+        String result = reducer.reduce(summaries(4, 60), "k", "m", events::add).block();
+
+        assertEquals("x".repeat(60), result);
+        assertEquals(3, prompts.size());
+        assertEquals(2, events.size());
+        assertTrue(events.get(0).getStage().contains("4段→2段"));
+        assertTrue(events.get(1).getStage().contains("2段→1段"));
+        // 两段相加超出预算，送去合并前按份额截断
+        for (String prompt : prompts) {
+            assertTrue(content(prompt).length() <= BUDGET, prompt);
+            assertTrue(prompt.contains(CLIPPED));
+        }
+    }
+
+    @Test
+    void clipsOversizedMergeResult() {
+        // 合并结果本身超出预算，只剩一段时截断并标注
+        mergeReturns("x".repeat(150));
+
+        String result = reducer.reduce(summaries(2, 60), "k", "m", events::add).block();
+
+        assertEquals(1, prompts.size());
+        assertTrue(result.length() <= BUDGET, result);
+        assertTrue(result.startsWith("x") && result.endsWith(CLIPPED), result);
+    }
+
+    @Test
+    void shortSummariesKeepFullTextWhenClipping() {
+        when(callLLM.callLLMAsync(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            prompts.add(invocation.getArgument(0));
+            return Mono.error(new IllegalStateException("boom"));
+        });
+        List<String> summaries = List.of("a".repeat(10), "b".repeat(200));
+
+        String result = reducer.reduce(summaries, "k", "m", events::add).block();
+
+        // 短的一段完整保留，长的一段使用剩余的预算
+        assertTrue(result.length() <= BUDGET, result);
+        assertTrue(result.startsWith("a".repeat(10) + "\n"), result);
+        assertTrue(result.contains("b".repeat(30)) && result.endsWith(CLIPPED), result);
+    }
+
+    @Test
+    void terminatesWhenMergeKeepsFailing() {
+        when(callLLM.callLLMAsync(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            prompts.add(invocation.getArgument(0));
+            return Mono.error(new IllegalStateException("boom"));
+        });
+
+        String result = reducer.reduce(summaries(5, 60), "k", "m", events::add).block();
+
+        // 失败时退回为截断后的拼接，每层段数仍然减少：5→3→2→1，结果不超过预算
+        assertEquals(3, events.size());
+        assertEquals(4, prompts.size());
+        assertTrue(result.length() <= BUDGET, result);
+        assertTrue(result.startsWith("a") && result.contains("e") && result.contains(CLIPPED), result);
+    }
+
+    /**
+     * 合并提示词中待合并的内容
+     */
+    private static String content(String prompt) {
+        return prompt.substring(prompt.indexOf(PROMPT_CONTENT) + PROMPT_CONTENT.length());
+    }
+
+    private void mergeReturns(String merged) {
+        when(callLLM.callLLMAsync(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            prompts.add(invocation.getArgument(0));
+            return Mono.just(merged);
+        });
+    }
+
+    /**
+     * 生成n段摘要，第i段为length个第i个字母
+     */
+    private static List<String> summaries(int n, int length) {
+        List<String> summaries = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            summaries.add(String.valueOf((char) ('a' + i)).repeat(length));
+        }
+        return summaries;
+    }
+}
@@ -0,0 +1,129 @@
+package com.emotest.emoAgent.service.analyzeChatMsg;
+
+import com.emotest.emoAgent.config.BatchProperties;
+import com.emotest.emoAgent.config.LlmProviderProperties;
+import com.emotest.emoAgent.model.BatchRange;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBatchBuilderTest {
+
+    private BatchProperties batchProperties;
+
+    private TokenBatchBuilder builder;
+
+    @BeforeEach
+    void setUp() {
+        batchProperties = new BatchProperties();
+        builder = new TokenBatchBuilder(CharSequence::length, batchProperties, new ChatMessageFormatter(),
+                new AnalysisMetrics(new SimpleMeterRegistry(), new LlmProviderProperties(), new BatchProperties(), "m"));
+    }
+
+    @Test
+    void fillsBatchesUpToBudgetWithoutOverlap() {
+        List<BatchRange> batches = builder.build(10, i -> 10, 30, 0);
+
+        assertEquals(List.of(range(0, 3, 30), range(3, 6, 30), range(6, 9, 30), range(9, 10, 10)), batches);
+    }
+
+    @Test
+    void overlapIsCappedAtHalfBudget() {
+        // 重叠配置远超预算，按预算一半（20）计，每批4条中有2条是新消息
+        List<BatchRange> batches = builder.build(10, i -> 10, 40, 100);
+
+        assertEquals(List.of(range(0, 4, 40), range(2, 6, 40), range(4, 8, 40), range(6, 10, 40)), batches);
+    }
+
+    @Test
+    void oversizedMessageGetsItsOwnBatch() {
+        int[] costs = {5, 100, 5, 5};
+
+        List<BatchRange> batches = builder.build(costs.length, i -> costs[i], 20, 10);
+
+        // 超预算的消息单独成批，也不会被当作重叠带到下一批
+        assertEquals(List.of(range(0, 1, 5), range(1, 2, 100), range(2, 4, 10)), batches);
+    }
+
+    @Test
+    void everyBatchMovesForward() {
+        // 重叠恰好等于预算一半时，每批只推进一条消息
+        List<BatchRange> batches = builder.build(10, i -> 10, 20, 10);
+        assertEquals(9, batches.size());
+        for (int i = 0; i < batches.size(); i++) {
+            assertEquals(range(i, i + 2, 20), batches.get(i));
+        }
+
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int count = 1 + random.nextInt(60);
+            int budget = 1 + random.nextInt(50);
+            int overlapTokens = random.nextInt(60);
+            int[] costs = random.ints(count, 1, 40).toArray();
+            assertValid(builder.build(count, i -> costs[i], budget, overlapTokens), costs, budget);
+        }
+    }
+
+    @Test
+    void emptyInputHasNoBatches() {
+        assertTrue(builder.build(0, i -> 10, 30, 10).isEmpty());
+    }
+
+    @Test
+    void carryModeReservesBudgetForSummary() {
+        batchProperties.setTokenBudget(30);
+        batchProperties.setOverlapTokens(10);
+        // 每条消息9个字符，加上分隔符共10个token
+        List<String> messages = Collections.nCopies(6, "x".repeat(9));
+
+        List<BatchRange> overlap = builder.build(messages, "m");
+        assertEquals(List.of(range(0, 3, 30), range(2, 5, 30), range(4, 6, 20)), overlap);
+
+        // 接力模式预算为 30 - 10 = 20，且批次之间不重叠
+        batchProperties.setMode(BatchProperties.Mode.CARRY);
+        batchProperties.setCarryTokens(10);
+        assertEquals(List.of(range(0, 2, 20), range(2, 4, 20), range(4, 6, 20)), builder.build(messages, "m"));
+
+        // 摘要预留不小于预算时按1计，每条消息单独成批
+        batchProperties.setCarryTokens(30);
+        List<BatchRange> floor = builder.build(messages, "m");
+        assertEquals(6, floor.size());
+        for (int i = 0; i < floor.size(); i++) {
+            assertEquals(range(i, i + 1, 10), floor.get(i));
+        }
+    }
+
+    private static void assertValid(List<BatchRange> batches, int[] costs, int budget) {
+        assertEquals(0, batches.get(0).getStart());
+        assertEquals(costs.length, batches.get(batches.size() - 1).getEnd());
+        for (int i = 0; i < batches.size(); i++) {
+            BatchRange batch = batches.get(i);
+            assertTrue(batch.size() >= 1);
+            assertTrue(batch.size() == 1 || batch.getTokens() <= budget, batch::toString);
+            if (i == 0) {
+                continue;
+            }
+            BatchRange previous = batches.get(i - 1);
+            // 向前推进，不留空隙，重叠部分不超过预算一半
+            assertTrue(batch.getStart() > previous.getStart(), batch::toString);
+            assertTrue(batch.getStart() <= previous.getEnd(), batch::toString);
+            assertTrue(batch.getEnd() > previous.getEnd(), batch::toString);
+            int overlap = 0;
+            for (int row = batch.getStart(); row < previous.getEnd(); row++) {
+                overlap += costs[row];
+            }
+            assertTrue(overlap <= budget / 2, batch::toString);
+        }
+    }
+
+    private static BatchRange range(int start, int end, int tokens) {
+        return new BatchRange(start, end, tokens);
+    }
+}